@@ -0,0 +1,130 @@
+package io.console.twitterfeed.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/*
+ * Writes synthetic user and tweet files. Each user follows a number of others drawn around followsPerUser; with the
+ * POWER_LAW distribution the followed users are picked by a Zipf-like rank, so a few celebrities collect most of the
+ * followers, as on real networks. Tweet authors are picked the same way. Runnable on its own, with the arguments
+ * userFile tweetsFile users followsPerUser tweets distribution:
+ *
+ *    java -cp benchmarks.jar io.console.twitterfeed.benchmarks.FeedDataGenerator u.txt t.txt 100000 20 1000000 UNIFORM
+ */
+public class FeedDataGenerator {
+
+   public enum Distribution {
+      UNIFORM, POWER_LAW
+   }
+
+   // Zipf exponent of the POWER_LAW distribution
+   private static final double SKEW = 1.1;
+
+   private static final String[] WORDS = { "cache", "invalidation", "naming", "things", "off-by-1", "errors", "random",
+         "numbers", "procedure", "parameters", "missed", "some", "the", "a", "of", "and", "to", "is" };
+
+   private final int users;
+   private final int followsPerUser;
+   private final int tweets;
+   private final Distribution distribution;
+   private final Random random;
+
+   // Cumulative Zipf weights of ranks 0..users-1, for POWER_LAW
+   private double[] cumulativeWeights;
+
+   public FeedDataGenerator(int users, int followsPerUser, int tweets, Distribution distribution, long seed) {
+      this.users = users;
+      this.followsPerUser = followsPerUser;
+      this.tweets = tweets;
+      this.distribution = distribution;
+      this.random = new Random(seed);
+   }
+
+   public static void main(String[] args) throws IOException {
+      FeedDataGenerator generator = new FeedDataGenerator(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+            Integer.parseInt(args[4]), Distribution.valueOf(args[5]), 42);
+      generator.writeUserFile(new File(args[0]));
+      generator.writeTweetsFile(new File(args[1]));
+   }
+
+   public void writeUserFile(File file) throws IOException {
+      Writer writer = open(file);
+      try {
+         for (int user = 0; user < users; user++) {
+            int follows = 1 + random.nextInt(Math.max(1, followsPerUser * 2));
+            writer.write(name(user));
+            writer.write(" follows ");
+            for (int i = 0; i < follows; i++) {
+               if (i > 0) {
+                  writer.write(", ");
+               }
+               writer.write(name(pickUser()));
+            }
+            writer.write('\n');
+         }
+      } finally {
+         writer.close();
+      }
+   }
+
+   public void writeTweetsFile(File file) throws IOException {
+      Writer writer = open(file);
+      StringBuilder tweet = new StringBuilder();
+      try {
+         for (int i = 0; i < tweets; i++) {
+            tweet.setLength(0);
+            int length = 20 + random.nextInt(140);
+            while (tweet.length() < length) {
+               tweet.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            writer.write(name(pickUser()));
+            writer.write("> ");
+            writer.write(tweet.toString().trim());
+            writer.write('\n');
+         }
+      } finally {
+         writer.close();
+      }
+   }
+
+   private int pickUser() {
+      if (distribution == Distribution.UNIFORM) {
+         return random.nextInt(users);
+      }
+      if (cumulativeWeights == null) {
+         cumulativeWeights = new double[users];
+         double sum = 0;
+         for (int rank = 0; rank < users; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, SKEW);
+            cumulativeWeights[rank] = sum;
+         }
+      }
+      double target = random.nextDouble() * cumulativeWeights[users - 1];
+      int low = 0;
+      int high = users - 1;
+      while (low < high) {
+         int mid = (low + high) >>> 1;
+         if (cumulativeWeights[mid] < target) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+      return low;
+   }
+
+   private static String name(int user) {
+      return "user" + user;
+   }
+
+   private static Writer open(File file) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII),
+            1 << 16);
+   }
+}
@@ -0,0 +1,48 @@
+package io.console.twitterfeed.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Generated input files, shared by every benchmark of a trial.
+ */
+@State(Scope.Benchmark)
+public class FeedFiles {
+
+   @Param({ "10000" })
+   public int users;
+
+   @Param({ "20" })
+   public int followsPerUser;
+
+   @Param({ "100000" })
+   public int tweets;
+
+   @Param({ "UNIFORM", "POWER_LAW" })
+   public FeedDataGenerator.Distribution distribution;
+
+   public File userFile;
+   public File tweetsFile;
+
+   @Setup
+   public void generate() throws IOException {
+      userFile = File.createTempFile("benchmark-users", ".txt");
+      tweetsFile = File.createTempFile("benchmark-tweets", ".txt");
+
+      FeedDataGenerator generator = new FeedDataGenerator(users, followsPerUser, tweets, distribution, 42);
+      generator.writeUserFile(userFile);
+      generator.writeTweetsFile(tweetsFile);
+   }
+
+   @TearDown
+   public void delete() {
+      userFile.delete();
+      tweetsFile.delete();
+   }
+}
@@ -0,0 +1,142 @@
+package io.console.twitterfeed.benchmarks;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.output.FeedEncoder;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Rendering the feed of fully built timelines, as one String, streamed through a Writer and encoded straight to a
+ * channel by FeedEncoder, on one thread and on four.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+   @Param({ "FAN_OUT_ON_WRITE", "FAN_OUT_ON_READ" })
+   public TimelineEngineType engine;
+
+   private TweetFileToTreeMapReader tweetReader;
+   private final FeedEncoder serialEncoder = new FeedEncoder();
+   private final FeedEncoder parallelEncoder = new FeedEncoder().withThreads(4);
+
+   @Setup
+   public void readFeed(FeedFiles files) throws Exception {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(files.userFile);
+      userReader.doProcessing();
+      tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(files.tweetsFile)
+            .withTimelineEngine(engine);
+      tweetReader.doProcessing();
+   }
+
+   @Benchmark
+   public String getPrintableOutput() {
+      return tweetReader.getPrintableOutput();
+   }
+
+   @Benchmark
+   public void writeFeed(Blackhole blackhole) throws IOException {
+      tweetReader.writeFeed(new BlackholeWriter(blackhole));
+   }
+
+   @Benchmark
+   public void encodeFeed(Blackhole blackhole) throws IOException {
+      serialEncoder.writeFeed(tweetReader.getTimelines(), tweetReader.getTimelines().getUsers(),
+            new BlackholeChannel(blackhole));
+   }
+
+   @Benchmark
+   public void encodeFeedInParallel(Blackhole blackhole) throws IOException {
+      parallelEncoder.writeFeed(tweetReader.getTimelines(), tweetReader.getTimelines().getUsers(),
+            new BlackholeChannel(blackhole));
+   }
+
+   /*
+    * Swallows the output, so only rendering is measured.
+    */
+   private static class BlackholeChannel implements WritableByteChannel {
+
+      private final Blackhole blackhole;
+
+      BlackholeChannel(Blackhole blackhole) {
+         this.blackhole = blackhole;
+      }
+
+      @Override
+      public int write(ByteBuffer src) {
+         int length = src.remaining();
+         blackhole.consume(src.get(src.limit() - 1));
+         src.position(src.limit());
+         return length;
+      }
+
+      @Override
+      public boolean isOpen() {
+         return true;
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+
+   /*
+    * Swallows the output, so only rendering is measured.
+    */
+   private static class BlackholeWriter extends Writer {
+
+      private final Blackhole blackhole;
+
+      BlackholeWriter(Blackhole blackhole) {
+         this.blackhole = blackhole;
+      }
+
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+         blackhole.consume(cbuf);
+      }
+
+      @Override
+      public Writer append(CharSequence csq) {
+         blackhole.consume(csq);
+         return this;
+      }
+
+      @Override
+      public Writer append(char c) {
+         blackhole.consume(c);
+         return this;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+   }
+}
@@ -0,0 +1,114 @@
+package io.console.twitterfeed.benchmarks;
+
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.CompactFollowGraph;
+import io.console.twitterfeed.timelines.ConcurrentFanOutEngine;
+import io.console.twitterfeed.timelines.FanOutOnWriteEngine;
+import io.console.twitterfeed.timelines.TimelineEngine;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Fan-out of already parsed tweets by 1 to 64 writer threads at once, each adding an interleaved share of the tweets.
+ * SYNCHRONIZED is the single threaded engine behind one lock, the baseline the striped store has to beat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimelineContentionBenchmark {
+
+   public enum Store {
+      CONCURRENT, SYNCHRONIZED
+   }
+
+   @Param({ "CONCURRENT", "SYNCHRONIZED" })
+   public Store store;
+
+   @Param({ "1", "2", "4", "8", "16", "32", "64" })
+   public int writers;
+
+   private CompactFollowGraph followGraph;
+   private List<UserTweetPair> tweets;
+   private ExecutorService pool;
+
+   @Setup
+   public void prepare(FeedFiles files) throws Exception {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(files.userFile);
+      userReader.doProcessing();
+      followGraph = userReader.getFollowGraph();
+
+      // The generated tweets are all valid, so a plain split is enough
+      tweets = new ArrayList<>();
+      BufferedReader br = new BufferedReader(new FileReader(files.tweetsFile));
+      String line = br.readLine();
+      while (line != null) {
+         int separator = line.indexOf("> ");
+         tweets.add(new UserTweetPair(line.substring(0, separator), line.substring(separator + 2), tweets.size()));
+         line = br.readLine();
+      }
+      br.close();
+
+      pool = Executors.newFixedThreadPool(writers);
+   }
+
+   @TearDown
+   public void shutdown() {
+      pool.shutdownNow();
+   }
+
+   @Benchmark
+   public TimelineEngine fanOut() throws Exception {
+      final TimelineEngine timelines =
+            store == Store.CONCURRENT ? new ConcurrentFanOutEngine(followGraph) : new FanOutOnWriteEngine(followGraph);
+      for (String user : followGraph.getUsers()) {
+         timelines.addUser(user);
+      }
+
+      List<Future<?>> done = new ArrayList<>();
+      for (int writer = 0; writer < writers; writer++) {
+         final int first = writer;
+         done.add(pool.submit(new Runnable() {
+            @Override
+            public void run() {
+               for (int i = first; i < tweets.size(); i += writers) {
+                  if (store == Store.CONCURRENT) {
+                     timelines.addTweet(tweets.get(i));
+                  } else {
+                     synchronized (timelines) {
+                        timelines.addTweet(tweets.get(i));
+                     }
+                  }
+               }
+            }
+         }));
+      }
+      for (Future<?> writer : done) {
+         writer.get();
+      }
+      return timelines;
+   }
+}
@@ -0,0 +1,58 @@
+package io.console.twitterfeed.benchmarks;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.graph.CompactFollowGraph;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Reading the tweets file and fanning tweets out to timelines, against a follow graph built once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TweetFileBenchmark {
+
+   @Param({ "FAN_OUT_ON_WRITE", "FAN_OUT_ON_READ", "HYBRID", "COMPACT_FAN_OUT_ON_WRITE" })
+   public TimelineEngineType engine;
+
+   @Param({ "1", "4" })
+   public int parallelism;
+
+   @Param({ "false", "true" })
+   public boolean memoryMapped;
+
+   private CompactFollowGraph followGraph;
+
+   @Setup
+   public void readUsers(FeedFiles files) throws Exception {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(files.userFile);
+      userReader.doProcessing();
+      followGraph = userReader.getFollowGraph();
+   }
+
+   @Benchmark
+   public TweetFileToTreeMapReader readTweetsFile(FeedFiles files) throws Exception {
+      TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(followGraph).withTweetsFile(files.tweetsFile)
+            .withTimelineEngine(engine).withParallelism(parallelism).withMemoryMappedInput(memoryMapped);
+      tweetReader.doProcessing();
+      return tweetReader;
+   }
+}
@@ -0,0 +1,40 @@
+package io.console.twitterfeed.benchmarks;
+
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.graph.CompactFollowGraph;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Reading and validating the user file into the follow graph, serially and pipelined across parser threads.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserFileBenchmark {
+
+   @Param({ "1", "2", "4", "8" })
+   public int parallelism;
+
+   @Benchmark
+   public CompactFollowGraph readUserFile(FeedFiles files) throws Exception {
+      UserFileToHashMapReader userReader =
+            new UserFileToHashMapReader().withUserFile(files.userFile).withParallelism(parallelism);
+      userReader.doProcessing();
+      return userReader.getFollowGraph();
+   }
+}
@@ -1,34 +1,230 @@
 package io.console.twitterfeed;
 
+import io.console.twitterfeed.batch.FeedBatch;
+import io.console.twitterfeed.filereaders.TweetFileTailer;
 import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UnknownAuthorTweets;
 import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.graph.FollowGraph;
+import io.console.twitterfeed.graph.FollowGraphStats;
+import io.console.twitterfeed.output.FeedEncoder;
+import io.console.twitterfeed.server.FeedServer;
+import io.console.twitterfeed.snapshot.FeedSnapshot;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+import io.console.twitterfeed.timelines.Timelines;
+import io.console.twitterfeed.validation.LineValidator;
+import io.console.twitterfeed.validation.ValidationPolicy;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.xml.bind.ValidationException;
 
+import org.apache.commons.lang3.StringUtils;
+
 public class TwitterFeed {
 
+   /*
+   @formatter:off
+   Usage: TwitterFeed <userFile> <tweetsFile>... [options]
+          TwitterFeed --batch=<manifest> [--threads=<n>]
+   Several tweets files are shards of one feed, each parsed on its own thread and merged by the optional
+   "<timestamp><tab>" column their lines start with. --tail needs a single one, and --invalid=reject rejects the lines
+   of every shard to the first one's .rejected file.
+    --tail             keep running, and print the timelines changed by every line appended to the tweets file
+    --snapshot=<file>  print from this snapshot if the input files are unchanged since it was written, otherwise
+                       process them as usual and write a new snapshot, unless any of their lines were invalid or
+                       tweets by unknown authors
+    --metrics          time each stage and count lines, tweets, fan-out and bytes written, printing a JSON summary
+                       to stderr at the end; the same numbers are published over JMX while running
+    --batch=<manifest> build every feed listed in the manifest, one "<userFile> <tweetsFile> <outputFile>" per line,
+                       on <n> threads (the number of processors by default), then print the total throughput. A
+                       failed feed writes its error to <outputFile>.error instead of exception.txt
+    --serve[=<port>]   instead of printing the feed, keep it loaded and answer TIMELINE and FOLLOWERS queries on
+                       127.0.0.1:<port> (a free port by default) until killed, see FeedServer
+    --readers=<users>  only print the timelines of these comma separated users, reading only the tweets they can see;
+                       a snapshot is neither read nor written
+    --graph-stats[=k]  print follower count percentiles, the k (10 by default) most followed authors, the fan-out
+                       the tweets files will cost and a projection of memory use as JSON to stderr, see
+                       FollowGraphStats
+    --hot-authors[=n]  fan out the tweets of authors with at least n followers on read instead of on write, with n
+                       chosen from the follow graph's statistics if not given (none if nobody stands out)
+    --engine=<type>    how timelines are built: fan-out-on-write (the default), fan-out-on-read, hybrid (implied by
+                       --hot-authors), concurrent-fan-out-on-write, compact-fan-out-on-write, or
+                       spilling-fan-out-on-write, which spills timelines to twitterfeed.spillDirectory beyond
+                       twitterfeed.spillMemoryBudget bytes, see TimelineEngineType
+    --invalid=<policy> what to do with invalid lines: fail on the first one (the default), skip them, or reject them
+                       to <userFile>.rejected and <tweetsFile>.rejected; skipped and rejected lines are counted on
+                       stderr
+    --unknown-authors=<file>
+                       also copy the tweets of authors missing from the user file to this file; they are always
+                       skipped, and counted on stderr
+   @formatter:on
+    */
    public static void main(String[] args) throws IOException, ValidationException {
       try {
-         String userFileStr = args[0];
-         String tweetsFileStr = args[1];
+         List<String> files = new ArrayList<>();
+         Map<String, String> options = parseOptions(args, files);
+
+         if (options.containsKey("batch")) {
+            int threads = options.containsKey("threads") ? Integer.parseInt(options.get("threads"))
+                  : Runtime.getRuntime().availableProcessors();
+            FeedBatch batch = new FeedBatch(threads);
+            System.out.println(batch.run(FeedBatch.readManifest(new File(options.get("batch")))));
+            return;
+         }
+
+         String userFileStr = files.get(0);
+         String tweetsFileStr = files.get(1);
 
          File userFile = new File(userFileStr);
          File tweetsFile = new File(tweetsFileStr);
+         // Several tweets files are shards of one feed, merged by the timestamp column of their lines
+         List<File> tweetsFiles = new ArrayList<>();
+         for (String shard : files.subList(1, files.size())) {
+            tweetsFiles.add(new File(shard));
+         }
+
+         FeedMetrics metrics = null;
+         OutputStream console = System.out;
+         if (options.containsKey("metrics")) {
+            metrics = new FeedMetrics();
+            metrics.registerMBean();
+            console = metrics.countBytes(console);
+         }
+
+         // Stream the feed instead of building it as one String, so memory stays flat however large the output is
+         WritableByteChannel out = Channels.newChannel(console);
+         byte[] lineSeparator = System.lineSeparator().getBytes(Charset.defaultCharset());
+
+         // A snapshot holds every timeline, which a run for a few readers does not build
+         File snapshotFile = options.containsKey("snapshot") && !options.containsKey("readers")
+               ? new File(options.get("snapshot")) : null;
+         List<File> sources = new ArrayList<>(tweetsFiles);
+         sources.add(0, userFile);
+         // Stamping reads the sources to checksum them, so only runs with a snapshot pay for it
+         long[] sourceStamp =
+               snapshotFile != null ? FeedSnapshot.stamp(sources.toArray(new File[sources.size()])) : null;
+         if (snapshotFile != null && !options.containsKey("tail")) {
+            FeedSnapshot snapshot =
+                  FeedSnapshot.load(snapshotFile, sourceStamp, Configuration.MAX_TIMELINE_LENGTH);
+            if (snapshot != null && options.containsKey("serve")) {
+               serve(snapshot, snapshot, options.get("serve"));
+               return;
+            }
+            if (snapshot != null) {
+               long started = System.nanoTime();
+               new FeedEncoder().writeFeed(snapshot, snapshot.getUsers(), out);
+               console.write(lineSeparator);
+               console.flush();
+               if (metrics != null) {
+                  metrics.addStageTime(FeedMetrics.Stage.RENDER, System.nanoTime() - started);
+                  System.err.println(metrics.getSummary());
+               }
+               return;
+            }
+         }
+
+         String invalid = options.containsKey("invalid") ? options.get("invalid") : "fail";
+         LineValidator userValidator = validator(invalid, userFile);
+         LineValidator tweetValidator = validator(invalid, tweetsFile);
 
-         UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(userFile);
+         UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(userFile)
+               .withValidator(userValidator).withMetrics(metrics);
          userReader.doProcessing();
+         reportRejected(userValidator, userFile);
 
+         String unknownAuthorLog = options.get("unknown-authors");
+         UnknownAuthorTweets unknownAuthors = new UnknownAuthorTweets(userReader.getKnownAuthors(),
+               unknownAuthorLog == null || unknownAuthorLog.isEmpty() ? null : new File(unknownAuthorLog));
          TweetFileToTreeMapReader tweetFileToDisplayableMapReader =
-               new TweetFileToTreeMapReader(userReader.getFollowedByMapSet()).withTweetsFile(tweetsFile);
-         tweetFileToDisplayableMapReader.doProcessing();
+               new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFiles(tweetsFiles)
+                     .withValidator(tweetValidator).withUnknownAuthors(unknownAuthors).withMetrics(metrics);
+         if (options.containsKey("readers")) {
+            tweetFileToDisplayableMapReader
+                  .withTargetReaders(Arrays.asList(StringUtils.split(options.get("readers"), ", ")));
+         }
 
-         String output = tweetFileToDisplayableMapReader.getPrintableOutput();
-         System.out.println(output);
+         // Without a number, the hot author threshold comes from the follow graph's statistics
+         String hotAuthors = options.get("hot-authors");
+         if (options.containsKey("graph-stats") || "".equals(hotAuthors)) {
+            String topK = options.get("graph-stats");
+            FollowGraphStats graphStats = new FollowGraphStats(userReader.getFollowGraph())
+                  .withTopK(topK == null || topK.isEmpty() ? 10 : Integer.parseInt(topK));
+            if (options.containsKey("graph-stats")) {
+               graphStats.withTweetCounts(TweetFileToTreeMapReader.countTweetsByAuthor(tweetsFiles));
+            }
+            graphStats.compute();
+            if (options.containsKey("graph-stats")) {
+               System.err.println(graphStats.getSummary());
+            }
+            if ("".equals(hotAuthors) && graphStats.hasHotAuthors()) {
+               hotAuthors = Integer.toString(graphStats.getSuggestedHotAuthorThreshold());
+            }
+         }
+         TimelineEngineType engine = options.containsKey("engine") ? engineType(options.get("engine")) : null;
+         if (engine != null) {
+            tweetFileToDisplayableMapReader.withTimelineEngine(engine);
+         }
+         if (hotAuthors != null && !hotAuthors.isEmpty()) {
+            if (engine != null && engine != TimelineEngineType.HYBRID) {
+               throw new IllegalArgumentException("--hot-authors needs --engine=hybrid, but found: " + engine);
+            }
+            tweetFileToDisplayableMapReader.withTimelineEngine(TimelineEngineType.HYBRID)
+                  .withHotAuthorThreshold(Integer.parseInt(hotAuthors));
+         }
+
+         if (options.containsKey("tail")) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(console), Configuration.OUTPUT_BUFFER_SIZE);
+            new TweetFileTailer(tweetFileToDisplayableMapReader, tweetsFile, writer).run();
+            return;
+         }
+
+         try {
+            tweetFileToDisplayableMapReader.doProcessing();
+            reportRejected(tweetValidator, tweetsFile);
+            reportUnknownAuthors(unknownAuthors, tweetsFile);
+            if (options.containsKey("serve")) {
+               serve(tweetFileToDisplayableMapReader.getTimelines(), userReader.getFollowGraph(), options.get("serve"));
+               return;
+            }
+            tweetFileToDisplayableMapReader.writeFeed(out);
+            console.write(lineSeparator);
+            console.flush();
+
+            // Only inputs without invalid lines or unknown authors are snapshotted, so a replay is right whatever the
+            // --invalid policy, and has no skipped or rejected lines to report or log
+            boolean clean = userValidator.getRejectedLines() == 0 && tweetValidator.getRejectedLines() == 0
+                  && unknownAuthors.getSkippedTweets() == 0;
+            if (snapshotFile != null && clean) {
+               FeedSnapshot.write(snapshotFile, sourceStamp, Configuration.MAX_TIMELINE_LENGTH,
+                     userReader.getFollowGraph(), tweetFileToDisplayableMapReader.getTimelines());
+            }
+         } finally {
+            // A spilling engine deletes its files
+            tweetFileToDisplayableMapReader.closeTimelines();
+         }
+
+         if (metrics != null) {
+            System.err.println(metrics.getSummary());
+         }
 
       } catch (Throwable t) {
          // Log throwable to logger, preferably using something like slf4j, but for now just console and a basic text
@@ -43,4 +239,73 @@ public class TwitterFeed {
          pw.close();
       }
    }
+
+   private static LineValidator validator(String policy, File inputFile) {
+      switch (policy) {
+         case "fail":
+            return LineValidator.FAIL_FAST;
+         case "skip":
+            return new LineValidator(ValidationPolicy.SKIP_AND_COUNT, null);
+         case "reject":
+            return new LineValidator(ValidationPolicy.REJECT_FILE, new File(inputFile.getPath() + ".rejected"));
+         default:
+            throw new IllegalArgumentException("Expected --invalid=fail, skip or reject, but found: " + policy);
+      }
+   }
+
+   private static TimelineEngineType engineType(String name) {
+      List<String> names = new ArrayList<>();
+      for (TimelineEngineType type : TimelineEngineType.values()) {
+         names.add(type.name().toLowerCase(Locale.ROOT).replace('_', '-'));
+         if (names.get(names.size() - 1).equals(name)) {
+            return type;
+         }
+      }
+      throw new IllegalArgumentException("Expected --engine=" + StringUtils.join(names, ", ") + ", but found: "
+            + name);
+   }
+
+   private static void reportRejected(LineValidator validator, File inputFile) throws IOException {
+      validator.close();
+      if (validator.getRejectedLines() > 0) {
+         String action = validator.getPolicy() == ValidationPolicy.REJECT_FILE ? "Rejected " : "Skipped ";
+         System.err.println(action + validator.getRejectedLines() + " invalid lines in " + inputFile);
+      }
+   }
+
+   private static void reportUnknownAuthors(UnknownAuthorTweets unknownAuthors, File tweetsFile) throws IOException {
+      unknownAuthors.close();
+      if (unknownAuthors.getSkippedTweets() > 0) {
+         String logged = unknownAuthors.getLogFile() == null ? "" : ", see " + unknownAuthors.getLogFile();
+         System.err.println("Skipped " + unknownAuthors.getSkippedTweets() + " tweets by unknown authors in "
+               + tweetsFile + logged);
+      }
+   }
+
+   private static void serve(Timelines timelines, FollowGraph followGraph, String port) throws IOException {
+      FeedServer server = new FeedServer(timelines, followGraph, port.isEmpty() ? 0 : Integer.parseInt(port));
+      System.err.println("Serving timelines on 127.0.0.1:" + server.getPort());
+      server.run();
+   }
+
+   /*
+    * Splits the arguments into files and "--name" or "--name=value" options, returned as name --> value ("" when no
+    * value is given).
+    */
+   private static Map<String, String> parseOptions(String[] args, List<String> files) {
+      Map<String, String> options = new HashMap<>();
+      for (String arg : args) {
+         if (!arg.startsWith("--")) {
+            files.add(arg);
+            continue;
+         }
+         int equals = arg.indexOf('=');
+         if (equals < 0) {
+            options.put(arg.substring(2), "");
+         } else {
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+         }
+      }
+      return options;
+   }
 }
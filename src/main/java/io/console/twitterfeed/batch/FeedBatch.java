@@ -0,0 +1,251 @@
+package io.console.twitterfeed.batch;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.graph.FollowGraph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/*
+ * Builds many feeds in one JVM. Each job reads a user file and a tweets file and writes the feed, exactly as
+ * TwitterFeed prints it, to its own output file, through a FeedEncoder. Jobs run on a fixed number of threads, each
+ * of which keeps its readers and encode buffer from one job to the next. A failed job leaves no output file but an
+ * "<output>.error" file with the stack trace, and the other jobs carry on. That goes for errors too, such as running
+ * out of memory on one feed that is too large, which leaves the others more room once it is let go of.
+ */
+public class FeedBatch {
+
+   public static final String ERROR_SUFFIX = ".error";
+
+   private final int threads;
+
+   public FeedBatch(int threads) {
+      this.threads = threads;
+   }
+
+   /*
+    * Reads a manifest of one job per line: "userFile tweetsFile outputFile", separated by whitespace. Blank lines and
+    * lines starting with # are skipped, and relative paths are relative to the manifest's directory.
+    */
+   public static List<Job> readManifest(File manifest) throws IOException {
+      File baseDir = manifest.getAbsoluteFile().getParentFile();
+      List<Job> jobs = new ArrayList<>();
+
+      BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest)));
+      try {
+         String line = br.readLine();
+         while (line != null) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+               String[] files = StringUtils.split(trimmed);
+               if (files.length != 3) {
+                  throw new IllegalArgumentException(
+                        "Expected manifest format is <userFile> <tweetsFile> <outputFile>, but found this line: \""
+                              + line + "\"");
+               }
+               jobs.add(new Job(resolve(baseDir, files[0]), resolve(baseDir, files[1]), resolve(baseDir, files[2])));
+            }
+            line = br.readLine();
+         }
+      } finally {
+         br.close();
+      }
+      return jobs;
+   }
+
+   /*
+    * Runs every job and waits for all of them. The calling thread hands a job over only while fewer than threads are
+    * running or waiting, and otherwise waits, so no more than threads feeds are built at once and a long manifest does
+    * not turn into a long list of pending tasks.
+    */
+   public Summary run(List<Job> jobs) throws InterruptedException {
+      final Summary summary = new Summary();
+      final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+         @Override
+         protected Worker initialValue() {
+            return new Worker();
+         }
+      };
+
+      // A permit per job handed over, so the queue never holds more than threads jobs
+      final Semaphore handedOver = new Semaphore(threads);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(threads));
+      long started = System.nanoTime();
+      try {
+         for (final Job job : jobs) {
+            handedOver.acquire();
+            executor.execute(new Runnable() {
+               @Override
+               public void run() {
+                  try {
+                     workers.get().process(job, summary);
+                  } finally {
+                     handedOver.release();
+                  }
+               }
+            });
+         }
+      } finally {
+         executor.shutdown();
+         executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+         summary.nanos = System.nanoTime() - started;
+      }
+      return summary;
+   }
+
+   private static File resolve(File baseDir, String path) {
+      File file = new File(path);
+      return file.isAbsolute() ? file : new File(baseDir, path);
+   }
+
+   /*
+    * One feed to build.
+    */
+   public static class Job {
+
+      private final File userFile;
+      private final File tweetsFile;
+      private final File outputFile;
+
+      public Job(File userFile, File tweetsFile, File outputFile) {
+         this.userFile = userFile;
+         this.tweetsFile = tweetsFile;
+         this.outputFile = outputFile;
+      }
+
+      public File getUserFile() {
+         return userFile;
+      }
+
+      public File getTweetsFile() {
+         return tweetsFile;
+      }
+
+      public File getOutputFile() {
+         return outputFile;
+      }
+
+      public File getErrorFile() {
+         return new File(outputFile.getPath() + ERROR_SUFFIX);
+      }
+   }
+
+   /*
+    * Totals over every job of a run.
+    */
+   public static class Summary {
+
+      private final AtomicInteger succeeded = new AtomicInteger();
+      private final AtomicInteger failed = new AtomicInteger();
+      private final AtomicLong bytesRead = new AtomicLong();
+      private final AtomicLong bytesWritten = new AtomicLong();
+      private volatile long nanos = 0;
+
+      public int getSucceeded() {
+         return succeeded.get();
+      }
+
+      public int getFailed() {
+         return failed.get();
+      }
+
+      public long getBytesRead() {
+         return bytesRead.get();
+      }
+
+      public long getBytesWritten() {
+         return bytesWritten.get();
+      }
+
+      public long getNanos() {
+         return nanos;
+      }
+
+      @Override
+      public String toString() {
+         double seconds = Math.max(nanos, 1) / 1e9;
+         int jobs = getSucceeded() + getFailed();
+         return String.format(
+               "Processed %d feeds (%d failed) in %.3f s: %.1f feeds/s, %.2f MB/s read, %.2f MB/s written", jobs,
+               getFailed(), seconds, jobs / seconds, getBytesRead() / seconds / 1e6, getBytesWritten() / seconds / 1e6);
+      }
+   }
+
+   /*
+    * The readers of one thread, reused for every job it runs. The tweet reader keeps its FeedEncoder, and with it the
+    * encode buffer.
+    */
+   private static class Worker {
+
+      private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(Charset.defaultCharset());
+
+      private final UserFileToHashMapReader userReader = new UserFileToHashMapReader().withParallelism(1);
+      private final TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader((FollowGraph) null).withParallelism(1);
+
+      void process(Job job, Summary summary) {
+         job.getErrorFile().delete();
+         try {
+            userReader.withUserFile(job.getUserFile()).doProcessing();
+            tweetReader.withFollowGraph(userReader.getFollowGraph()).withTweetsFile(job.getTweetsFile());
+            tweetReader.doProcessing();
+
+            FileOutputStream stream = new FileOutputStream(job.getOutputFile());
+            try {
+               FileChannel channel = stream.getChannel();
+               tweetReader.writeFeed(channel);
+               ByteBuffer lineSeparator = ByteBuffer.wrap(LINE_SEPARATOR);
+               while (lineSeparator.hasRemaining()) {
+                  channel.write(lineSeparator);
+               }
+            } finally {
+               stream.close();
+            }
+
+            summary.bytesRead.addAndGet(job.getUserFile().length() + job.getTweetsFile().length());
+            summary.bytesWritten.addAndGet(job.getOutputFile().length());
+            summary.succeeded.incrementAndGet();
+         } catch (Throwable t) {
+            job.getOutputFile().delete();
+            writeError(job, t);
+            summary.failed.incrementAndGet();
+         } finally {
+            // Let go of the last feed while waiting for the next job
+            tweetReader.withFollowGraph(null);
+         }
+      }
+
+      private static void writeError(Job job, Throwable t) {
+         try {
+            PrintWriter pw = new PrintWriter(new FileWriter(job.getErrorFile()));
+            pw.println("Error building feed from " + job.getUserFile() + " and " + job.getTweetsFile());
+            t.printStackTrace(pw);
+            pw.close();
+         } catch (IOException errorFileFailure) {
+            // Nowhere better to report it, the job is counted as failed either way
+            System.err.println("Could not write " + job.getErrorFile() + ": " + errorFileFailure);
+         }
+      }
+   }
+}
@@ -0,0 +1,217 @@
+package io.console.twitterfeed.filereaders;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Decompresses BGZF, gzip made of independent members of at most 64KB that each hold their own compressed size in a
+ * "BC" extra field. The calling thread only cuts the file into members, which takes no decompression, and a pool of
+ * threads inflates them, while the stream hands out their contents in file order. Only a few members per thread are
+ * in flight at once, so memory stays bounded however far the reader falls behind.
+ */
+class BlockGzipInputStream extends InputStream {
+
+   // ID1 ID2 CM FLG MTIME(4) XFL OS XLEN(2), then the BC subfield: SI1 SI2 SLEN(2) BSIZE(2)
+   static final int MIN_HEADER_LENGTH = 18;
+
+   private static final int FIXED_HEADER_LENGTH = 12;
+   private static final int TRAILER_LENGTH = 8;
+   private static final int FLAG_EXTRA = 4;
+   private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
+   private final InputStream in;
+   private final ExecutorService inflaters;
+   private final int maxInFlight;
+   private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+   private boolean endOfInput = false;
+   private byte[] block = new byte[0];
+   private int blockPosition = 0;
+
+   BlockGzipInputStream(InputStream in, int threads) {
+      this.in = in;
+      this.maxInFlight = threads * BLOCKS_IN_FLIGHT_PER_THREAD;
+      this.inflaters = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "gzip-block-inflater");
+            // A reader that fails without closing the stream must not keep the JVM alive
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   /*
+    * True if the first MIN_HEADER_LENGTH bytes start a gzip member with a BC subfield first in its extra field.
+    */
+   static boolean isBlockHeader(byte[] header) {
+      return (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B && header[2] == 8
+            && (header[3] & FLAG_EXTRA) != 0 && readShort(header, 10) >= 6 && header[12] == 'B' && header[13] == 'C'
+            && readShort(header, 14) == 2;
+   }
+
+   @Override
+   public int read() throws IOException {
+      if (!fill()) {
+         return -1;
+      }
+      return block[blockPosition++] & 0xFF;
+   }
+
+   @Override
+   public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+         return 0;
+      }
+      if (!fill()) {
+         return -1;
+      }
+      int count = Math.min(length, block.length - blockPosition);
+      System.arraycopy(block, blockPosition, buffer, offset, count);
+      blockPosition += count;
+      return count;
+   }
+
+   @Override
+   public void close() throws IOException {
+      inflaters.shutdownNow();
+      in.close();
+   }
+
+   /*
+    * Makes sure there is something left to read in the current block, returning false at the end of the input.
+    */
+   private boolean fill() throws IOException {
+      while (blockPosition == block.length) {
+         while (!endOfInput && inFlight.size() < maxInFlight) {
+            final byte[] member = readMember();
+            if (member == null) {
+               endOfInput = true;
+            } else {
+               inFlight.add(inflaters.submit(new Callable<byte[]>() {
+                  @Override
+                  public byte[] call() throws IOException {
+                     return inflate(member);
+                  }
+               }));
+            }
+         }
+         if (inFlight.isEmpty()) {
+            return false;
+         }
+         block = await(inFlight.poll());
+         blockPosition = 0;
+      }
+      return true;
+   }
+
+   /*
+    * The next whole member, or null at the end of the input.
+    */
+   private byte[] readMember() throws IOException {
+      byte[] header = new byte[MIN_HEADER_LENGTH];
+      int length = readFully(header, 0, header.length);
+      if (length == 0) {
+         return null;
+      }
+      if (length < header.length || !isBlockHeader(header)) {
+         throw new IOException("Expected a BGZF block, every gzip member must carry its size in a BC extra field");
+      }
+
+      byte[] member = new byte[readShort(header, 16) + 1];
+      System.arraycopy(header, 0, member, 0, header.length);
+      if (readFully(member, header.length, member.length - header.length) < member.length - header.length) {
+         throw new EOFException("Unexpected end of BGZF input");
+      }
+      return member;
+   }
+
+   private int readFully(byte[] buffer, int offset, int length) throws IOException {
+      int total = 0;
+      while (total < length) {
+         int read = in.read(buffer, offset + total, length - total);
+         if (read < 0) {
+            break;
+         }
+         total += read;
+      }
+      return total;
+   }
+
+   /*
+    * Inflates one member, checking its length and CRC against the trailer.
+    */
+   private static byte[] inflate(byte[] member) throws IOException {
+      int dataStart = FIXED_HEADER_LENGTH + readShort(member, 10);
+      int dataEnd = member.length - TRAILER_LENGTH;
+      byte[] data = new byte[readInt(member, member.length - 4)];
+
+      Inflater inflater = new Inflater(true);
+      try {
+         inflater.setInput(member, dataStart, dataEnd - dataStart);
+         int length = 0;
+         while (length < data.length && !inflater.finished()) {
+            int inflated = inflater.inflate(data, length, data.length - length);
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+               break;
+            }
+            length += inflated;
+         }
+         if (length != data.length) {
+            throw new IOException("Corrupt BGZF block, its size does not match its contents");
+         }
+      } catch (DataFormatException e) {
+         throw new IOException("Corrupt BGZF block", e);
+      } finally {
+         inflater.end();
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, data.length);
+      if ((int) crc.getValue() != readInt(member, member.length - 8)) {
+         throw new IOException("Corrupt BGZF block, CRC mismatch");
+      }
+      return data;
+   }
+
+   private static byte[] await(Future<byte[]> block) throws IOException {
+      try {
+         return block.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while decompressing", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   private static int readShort(byte[] bytes, int offset) {
+      return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+   }
+
+   private static int readInt(byte[] bytes, int offset) {
+      return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+   }
+}
@@ -0,0 +1,78 @@
+package io.console.twitterfeed.filereaders;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Opens input files that may be compressed, telling the format from their first bytes, so the line parsers read
+ * archived files without them being decompressed to disk first. Gzip is decompressed as a stream, including files of
+ * several concatenated members. Gzip written as BGZF (independent members that each record their compressed size,
+ * as bgzip writes them) is decompressed on several threads, see BlockGzipInputStream. zstd is recognized, but the
+ * JDK has no decoder for it.
+ */
+final class CompressedInput {
+
+   enum Format {
+      PLAIN, GZIP, BGZF, ZSTD
+   }
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private CompressedInput() {
+   }
+
+   static Format detect(File file) throws IOException {
+      byte[] header = new byte[BlockGzipInputStream.MIN_HEADER_LENGTH];
+      int length = 0;
+      FileInputStream in = new FileInputStream(file);
+      try {
+         int read = 0;
+         while (length < header.length && read >= 0) {
+            read = in.read(header, length, header.length - length);
+            length += Math.max(read, 0);
+         }
+      } finally {
+         in.close();
+      }
+
+      if (length >= 4 && (header[0] & 0xFF) == 0x28 && (header[1] & 0xFF) == 0xB5 && (header[2] & 0xFF) == 0x2F
+            && (header[3] & 0xFF) == 0xFD) {
+         return Format.ZSTD;
+      }
+      if (length >= 2 && (header[0] & 0xFF) == 0x1F && (header[1] & 0xFF) == 0x8B) {
+         return length == header.length && BlockGzipInputStream.isBlockHeader(header) ? Format.BGZF : Format.GZIP;
+      }
+      return Format.PLAIN;
+   }
+
+   /*
+    * True if the file has to be decompressed as a stream, so it can be neither mapped nor split into ranges.
+    */
+   static boolean isCompressed(File file) throws IOException {
+      return detect(file) != Format.PLAIN;
+   }
+
+   /*
+    * The decompressed contents of the file. BGZF files are decompressed on this many threads, others on the reading
+    * thread.
+    */
+   static InputStream open(File file, int threads) throws IOException {
+      switch (detect(file)) {
+      case GZIP:
+         return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+      case BGZF:
+         if (threads > 1) {
+            return new BlockGzipInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), threads);
+         }
+         return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+      case ZSTD:
+         throw new IOException("zstd compressed input is not supported, decompress " + file + " first");
+      default:
+         return new FileInputStream(file);
+      }
+   }
+}
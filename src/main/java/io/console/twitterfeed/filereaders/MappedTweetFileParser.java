@@ -0,0 +1,115 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.validation.LineValidator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+
+import javax.xml.bind.ValidationException;
+
+/*
+ * Reads a tweets file through memory-mapped windows of Configuration.MAP_WINDOW_SIZE bytes and scans them with a
+ * TweetLineScanner, so no line is ever copied into a String unless its tweet is stored. A line cut by the end of a
+ * window is scanned again from the start of the next one.
+ */
+class MappedTweetFileParser {
+
+   private final File tweetFile;
+
+   // Where the next parse starts, and the sequence number of the next tweet
+   private long position;
+   private long nextSequence;
+
+   private LineValidator validator = LineValidator.FAIL_FAST;
+   private Set<String> authors = null;
+   private UnknownAuthorTweets unknownAuthors = null;
+   private FeedMetrics metrics = null;
+
+   MappedTweetFileParser(File tweetFile, long position, long nextSequence) {
+      this.tweetFile = tweetFile;
+      this.position = position;
+      this.nextSequence = nextSequence;
+   }
+
+   MappedTweetFileParser withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   /*
+    * Only parses tweets by these authors, null parses all of them.
+    */
+   MappedTweetFileParser withAuthors(Set<String> wantedAuthors) {
+      this.authors = wantedAuthors;
+      return this;
+   }
+
+   /*
+    * Counts and drops tweets by authors missing from the follow graph, null parses them.
+    */
+   MappedTweetFileParser withUnknownAuthors(UnknownAuthorTweets unknownAuthorTweets) {
+      this.unknownAuthors = unknownAuthorTweets;
+      return this;
+   }
+
+   MappedTweetFileParser withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   /*
+    * Where the next parse starts. After a bad line threw, this is the start of that line.
+    */
+   long getPosition() {
+      return position;
+   }
+
+   long getNextSequence() {
+      return nextSequence;
+   }
+
+   /*
+    * Adds every tweet from the current position to the end of the file to the sink. With wholeLinesOnly, a last line
+    * without a line end is left for a later call, as it may still be being written.
+    */
+   void parseInto(TweetSink sink, boolean wholeLinesOnly) throws IOException, ValidationException {
+      TweetLineScanner scanner = new TweetLineScanner(sink, nextSequence).withValidator(validator).withAuthors(authors)
+            .withUnknownAuthors(unknownAuthors).withMetrics(metrics);
+
+      RandomAccessFile file = new RandomAccessFile(tweetFile, "r");
+      try {
+         FileChannel channel = file.getChannel();
+         long size = channel.size();
+         long windowSize = Configuration.MAP_WINDOW_SIZE;
+
+         while (position < size) {
+            long length = Math.min(windowSize, size - position);
+            boolean endOfInput = position + length == size;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            try {
+               scanner.scan(window, 0, (int) length, endOfInput && !wholeLinesOnly);
+            } finally {
+               // On a bad line, move past the lines before it only, the sink already has them
+               position += scanner.getScanned();
+            }
+            if (scanner.getScanned() == 0) {
+               if (endOfInput) {
+                  break;
+               }
+               // A single line longer than the window, try again with a bigger one
+               windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+            }
+         }
+      } finally {
+         file.close();
+         nextSequence = scanner.getNextSequence();
+      }
+   }
+}
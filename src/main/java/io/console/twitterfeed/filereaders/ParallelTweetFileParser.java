@@ -0,0 +1,219 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.timelines.TimelineEngine;
+import io.console.twitterfeed.validation.LineValidator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.ValidationException;
+
+/*
+ * Parses a tweets file on several threads. The file is cut into newline-aligned byte ranges, each of which is mapped
+ * and scanned by its own TweetLineScanner on a fork-join pool, while the calling thread adds the parsed tweets to the
+ * timelines in file order. Only a few chunks are in flight at once, so a slow fan-out holds back the readers instead
+ * of piling up parsed chunks. Engines that accept concurrent tweets are fanned out to straight from the parsing
+ * threads instead, and put the tweets back in order by sequence number.
+ */
+class ParallelTweetFileParser {
+
+   // Chunks parsed ahead of the one being added, per thread
+   private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+   private final File tweetFile;
+   private final int threads;
+   private final int chunkSize;
+
+   private LineValidator validator = LineValidator.FAIL_FAST;
+   private Set<String> authors = null;
+   private UnknownAuthorTweets unknownAuthors = null;
+   private FeedMetrics metrics = null;
+
+   ParallelTweetFileParser(File tweetFile, int threads, int chunkSize) {
+      this.tweetFile = tweetFile;
+      this.threads = threads;
+      this.chunkSize = chunkSize;
+   }
+
+   ParallelTweetFileParser withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   /*
+    * Only parses tweets by these authors, null parses all of them.
+    */
+   ParallelTweetFileParser withAuthors(Set<String> wantedAuthors) {
+      this.authors = wantedAuthors;
+      return this;
+   }
+
+   /*
+    * Counts and drops tweets by authors missing from the follow graph, null parses them.
+    */
+   ParallelTweetFileParser withUnknownAuthors(UnknownAuthorTweets unknownAuthorTweets) {
+      this.unknownAuthors = unknownAuthorTweets;
+      return this;
+   }
+
+   /*
+    * Records tweet lines from the parsing threads; unless the engine accepts concurrent tweets, their latencies cover
+    * parsing only, as fan-out happens later.
+    */
+   ParallelTweetFileParser withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   /*
+    * Adds every tweet in the file to the timelines, in the same order and with the same errors as reading serially.
+    * Returns a sequence number above that of every tweet added.
+    */
+   long parseInto(TimelineEngine timelines) throws IOException, ValidationException {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      RandomAccessFile file = new RandomAccessFile(tweetFile, "r");
+      try {
+         FileChannel channel = file.getChannel();
+         long size = channel.size();
+         ArrayDeque<Future<List<UserTweetPair>>> inFlight = new ArrayDeque<>();
+         TimelineEngine concurrentTimelines = timelines.acceptsConcurrentTweets() ? timelines : null;
+
+         long start = 0;
+         int chunkIndex = 0;
+         while (start < size || !inFlight.isEmpty()) {
+            while (start < size && inFlight.size() < threads * CHUNKS_IN_FLIGHT_PER_THREAD) {
+               long end = findChunkEnd(channel, start, size);
+               inFlight.add(pool.submit(new ChunkParser(channel, start, end, chunkIndex++, concurrentTimelines)));
+               start = end;
+            }
+
+            List<UserTweetPair> tweets = await(inFlight.poll());
+            for (UserTweetPair utp : tweets) {
+               timelines.addTweet(utp);
+            }
+            if (metrics != null) {
+               metrics.add(FeedMetrics.Counter.TWEETS, tweets.size());
+            }
+         }
+         return (long) chunkIndex << 32;
+      } finally {
+         pool.shutdownNow();
+         file.close();
+      }
+   }
+
+   /*
+    * The end of the chunk starting at start: just past the first newline at or after start + chunkSize.
+    */
+   private long findChunkEnd(FileChannel channel, long start, long size) throws IOException {
+      long position = start + chunkSize;
+      if (position >= size) {
+         return size;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(4096);
+      while (position < size) {
+         buffer.clear();
+         int read = channel.read(buffer, position);
+         for (int i = 0; i < read; i++) {
+            if (buffer.get(i) == '\n') {
+               return position + i + 1;
+            }
+         }
+         position += read;
+      }
+      return size;
+   }
+
+   /*
+    * Waits for a chunk, rethrowing whatever its parser threw.
+    */
+   private static List<UserTweetPair> await(Future<List<UserTweetPair>> chunk)
+         throws IOException, ValidationException {
+      try {
+         return chunk.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while parsing tweets", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         if (cause instanceof ValidationException) {
+            throw (ValidationException) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   /*
+    * Maps and scans one byte range. Sequence numbers are the chunk index followed by the line index, which keeps
+    * them increasing in file order without knowing how many lines earlier chunks hold.
+    */
+   private class ChunkParser implements Callable<List<UserTweetPair>> {
+
+      private final FileChannel channel;
+      private final long start;
+      private final long end;
+      private final int chunkIndex;
+      // Where to add tweets as they are parsed, or null to return them
+      private final TimelineEngine concurrentTimelines;
+
+      ChunkParser(FileChannel channel, long start, long end, int chunkIndex, TimelineEngine concurrentTimelines) {
+         this.channel = channel;
+         this.start = start;
+         this.end = end;
+         this.chunkIndex = chunkIndex;
+         this.concurrentTimelines = concurrentTimelines;
+      }
+
+      @Override
+      public List<UserTweetPair> call() throws IOException, ValidationException {
+         MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+         long firstSequence = (long) chunkIndex << 32;
+
+         if (concurrentTimelines != null) {
+            TweetLineScanner scanner = new TweetLineScanner(concurrentTimelines, firstSequence)
+                  .withValidator(validator).withAuthors(authors).withUnknownAuthors(unknownAuthors)
+                  .withMetrics(metrics);
+            scanner.scan(bytes, 0, bytes.limit(), true);
+            if (metrics != null) {
+               metrics.add(FeedMetrics.Counter.TWEETS, scanner.getNextSequence() - firstSequence);
+            }
+            return Collections.emptyList();
+         }
+
+         final List<UserTweetPair> tweets = new ArrayList<>();
+         TweetSink chunkSink = new TweetSink() {
+            @Override
+            public void addTweet(UserTweetPair tweet) {
+               tweets.add(tweet);
+            }
+         };
+         new TweetLineScanner(chunkSink, firstSequence).withValidator(validator).withAuthors(authors)
+               .withUnknownAuthors(unknownAuthors).withMetrics(metrics).scan(bytes, 0, bytes.limit(), true);
+         return tweets;
+      }
+   }
+}
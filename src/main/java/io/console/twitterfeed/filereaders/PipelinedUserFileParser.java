@@ -0,0 +1,232 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.graph.CompactFollowGraph;
+import io.console.twitterfeed.validation.LineValidator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.ValidationException;
+
+/*
+ * Parses a user file in three overlapping stages: a reader thread cuts the file into batches of lines, a pool of
+ * parser threads turns each batch into follower, followed edges, and the calling thread adds the edges to the graph
+ * builder. Batches are added in file order, so the graph and the first error reported are exactly those of reading
+ * serially. A fixed number of batches is in flight at once, which bounds both queues and the reorder buffer. Whatever
+ * a reader or parser thread throws, errors included, is handed on in its batch and thrown by the calling thread, so
+ * it never waits for a batch that will not come.
+ */
+class PipelinedUserFileParser {
+
+   // Batches read ahead of the one being added, per parser thread
+   private static final int BATCHES_IN_FLIGHT_PER_THREAD = 4;
+
+   private final File userFile;
+   private final int threads;
+   private final int batchLines;
+
+   private LineValidator validator = LineValidator.FAIL_FAST;
+   private FeedMetrics metrics = null;
+
+   PipelinedUserFileParser(File userFile, int threads, int batchLines) {
+      this.userFile = userFile;
+      this.threads = threads;
+      this.batchLines = batchLines;
+   }
+
+   PipelinedUserFileParser withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   PipelinedUserFileParser withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   /*
+    * Adds every edge in the file to the builder, in file order, stopping at the first bad line.
+    */
+   void parseInto(CompactFollowGraph.Builder graphBuilder) throws IOException, ValidationException {
+      int maxInFlight = threads * BATCHES_IN_FLIGHT_PER_THREAD;
+      Semaphore inFlight = new Semaphore(maxInFlight);
+      BlockingQueue<EdgeBatch> parsed = new ArrayBlockingQueue<>(maxInFlight + 1);
+      ThreadPoolExecutor parsers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(maxInFlight));
+
+      Thread reader = new Thread(new LineReader(inFlight, parsers, parsed), "user-file-reader");
+      reader.setDaemon(true);
+      reader.start();
+      try {
+         // Parsed batches arrive in any order, and wait here until all earlier ones have been added
+         HashMap<Integer, EdgeBatch> pending = new HashMap<>();
+         int next = 0;
+         while (true) {
+            EdgeBatch batch = pending.remove(next);
+            if (batch == null) {
+               batch = parsed.take();
+               pending.put(batch.index, batch);
+               continue;
+            }
+            batch.rethrow();
+            if (batch.edges == null) {
+               return;
+            }
+            for (int i = 0; i < batch.edges.size(); i += 2) {
+               graphBuilder.addFollow(batch.edges.get(i), batch.edges.get(i + 1));
+            }
+            inFlight.release();
+            next++;
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while parsing users", e);
+      } finally {
+         reader.interrupt();
+         parsers.shutdownNow();
+      }
+   }
+
+   /*
+    * The edges of one batch of lines as follower, followed pairs, or what stopped the batch from being parsed. The
+    * batch after the last one has no edges.
+    */
+   private static class EdgeBatch {
+
+      private final int index;
+      private final List<String> edges;
+      private final Throwable failure;
+
+      EdgeBatch(int index, List<String> edges, Throwable failure) {
+         this.index = index;
+         this.edges = edges;
+         this.failure = failure;
+      }
+
+      void rethrow() throws IOException, ValidationException {
+         if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+         }
+         if (failure instanceof ValidationException) {
+            throw (ValidationException) failure;
+         }
+         if (failure instanceof IOException) {
+            throw (IOException) failure;
+         }
+         if (failure instanceof Error) {
+            throw (Error) failure;
+         }
+      }
+   }
+
+   /*
+    * Reads the file into batches of lines and hands each one to a parser, then marks the end of the file.
+    */
+   private class LineReader implements Runnable {
+
+      private final Semaphore inFlight;
+      private final ThreadPoolExecutor parsers;
+      private final BlockingQueue<EdgeBatch> parsed;
+
+      LineReader(Semaphore inFlight, ThreadPoolExecutor parsers, BlockingQueue<EdgeBatch> parsed) {
+         this.inFlight = inFlight;
+         this.parsers = parsers;
+         this.parsed = parsed;
+      }
+
+      @Override
+      public void run() {
+         int index = 0;
+         try {
+            Throwable failure = null;
+            try {
+               BufferedReader br = new BufferedReader(new InputStreamReader(CompressedInput.open(userFile, threads)));
+               try {
+                  List<String> lines = new ArrayList<>(batchLines);
+                  String line = br.readLine();
+                  while (line != null) {
+                     lines.add(line);
+                     if (lines.size() == batchLines) {
+                        submit(index++, lines);
+                        lines = new ArrayList<>(batchLines);
+                     }
+                     line = br.readLine();
+                  }
+                  if (!lines.isEmpty()) {
+                     submit(index++, lines);
+                  }
+               } finally {
+                  br.close();
+               }
+            } catch (RejectedExecutionException e) {
+               // The graph builder gave up, nobody is waiting for more batches
+               return;
+            } catch (IOException | RuntimeException | Error e) {
+               failure = e;
+            }
+            parsed.put(new EdgeBatch(index, null, failure));
+         } catch (InterruptedException e) {
+            // The graph builder gave up, nobody is waiting for more batches
+         }
+      }
+
+      private void submit(int index, List<String> lines) throws InterruptedException {
+         inFlight.acquire();
+         parsers.execute(new BatchParser(index, lines, parsed));
+      }
+   }
+
+   /*
+    * Parses one batch of lines.
+    */
+   private class BatchParser implements Runnable {
+
+      private final int index;
+      private final List<String> lines;
+      private final BlockingQueue<EdgeBatch> parsed;
+
+      BatchParser(int index, List<String> lines, BlockingQueue<EdgeBatch> parsed) {
+         this.index = index;
+         this.lines = lines;
+         this.parsed = parsed;
+      }
+
+      @Override
+      public void run() {
+         // Most lines hold a follow and a self follow
+         List<String> edges = new ArrayList<>(lines.size() * 4);
+         Throwable failure = null;
+         try {
+            for (String line : lines) {
+               if (metrics == null) {
+                  UserFileToHashMapReader.parseUserLine(line, edges, validator);
+               } else {
+                  long started = System.nanoTime();
+                  UserFileToHashMapReader.parseUserLine(line, edges, validator);
+                  metrics.recordUserLine(System.nanoTime() - started);
+               }
+            }
+         } catch (RuntimeException | ValidationException | Error e) {
+            failure = e;
+         }
+
+         try {
+            parsed.put(new EdgeBatch(index, edges, failure));
+         } catch (InterruptedException e) {
+            // Shut down by the graph builder
+         }
+      }
+   }
+}
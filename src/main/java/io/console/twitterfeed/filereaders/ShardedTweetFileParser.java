@@ -0,0 +1,278 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.timelines.TimelineEngine;
+import io.console.twitterfeed.validation.LineValidator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.bind.ValidationException;
+
+/*
+ * Reads several tweets files ("shards") at once and adds their tweets to the timelines merged by timestamp, as if they
+ * were one file holding all of them in timestamp order. Each shard is parsed on its own thread into small batches,
+ * handed over through a bounded queue, and the calling thread k-way merges the heads of the shards on (timestamp,
+ * shard, line), so only a few batches per shard are held however large the files are. Tweets are numbered again in
+ * merged order, the order every engine expects them in.
+ *
+ * Each shard is expected in timestamp order, as an append-only log is. A line stamped earlier than the one before it
+ * stays where it is in its shard, and lines without a timestamp count as 0, so unstamped shards are read one after
+ * the other.
+ */
+class ShardedTweetFileParser {
+
+   private static final int BATCH_SIZE = 1024;
+   private static final int BATCHES_IN_FLIGHT_PER_SHARD = 4;
+
+   // Put on a shard's queue once it has been read, or has failed
+   private static final List<UserTweetPair> END_OF_SHARD = new ArrayList<>(0);
+
+   private final List<File> shards;
+
+   private LineValidator validator = LineValidator.FAIL_FAST;
+   private Set<String> authors = null;
+   private UnknownAuthorTweets unknownAuthors = null;
+   private FeedMetrics metrics = null;
+
+   ShardedTweetFileParser(List<File> shards) {
+      this.shards = shards;
+   }
+
+   ShardedTweetFileParser withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   /*
+    * Only parses tweets by these authors, null parses all of them.
+    */
+   ShardedTweetFileParser withAuthors(Set<String> wantedAuthors) {
+      this.authors = wantedAuthors;
+      return this;
+   }
+
+   /*
+    * Counts and drops tweets by authors missing from the follow graph, null parses them.
+    */
+   ShardedTweetFileParser withUnknownAuthors(UnknownAuthorTweets unknownAuthorTweets) {
+      this.unknownAuthors = unknownAuthorTweets;
+      return this;
+   }
+
+   /*
+    * Records tweet lines from the shard threads, their latencies cover parsing only, as fan-out happens later.
+    */
+   ShardedTweetFileParser withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   /*
+    * Adds every tweet of every shard to the timelines in merged order. Returns a sequence number above that of every
+    * tweet added.
+    */
+   long parseInto(TimelineEngine timelines) throws IOException, ValidationException {
+      // One thread per shard, since the merge waits on whichever shard holds the next tweet
+      ExecutorService readers = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "tweet-shard-reader");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      try {
+         List<ShardReader> shardReaders = new ArrayList<>();
+         for (int i = 0; i < shards.size(); i++) {
+            ShardReader shard = new ShardReader(shards.get(i), i);
+            shard.parsed = readers.submit(shard);
+            shardReaders.add(shard);
+         }
+
+         PriorityQueue<ShardReader> heads = new PriorityQueue<>(shards.size());
+         for (ShardReader shard : shardReaders) {
+            if (shard.advance()) {
+               heads.add(shard);
+            }
+         }
+
+         long sequence = 0;
+         while (!heads.isEmpty()) {
+            ShardReader shard = heads.poll();
+            UserTweetPair utp = shard.head;
+            timelines.addTweet(new UserTweetPair(utp.getUser(), utp.getTweet(), utp.getTimestamp(), sequence++));
+            if (shard.advance()) {
+               heads.add(shard);
+            }
+         }
+         if (metrics != null) {
+            metrics.add(FeedMetrics.Counter.TWEETS, sequence);
+         }
+         return sequence;
+      } finally {
+         readers.shutdownNow();
+      }
+   }
+
+   /*
+    * Waits for a shard's reader to finish, rethrowing whatever it threw.
+    */
+   private static void await(Future<Void> shard) throws IOException, ValidationException {
+      try {
+         shard.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while parsing tweets", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         if (cause instanceof ValidationException) {
+            throw (ValidationException) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   /*
+    * Parses one shard in batches on a reader thread, and hands them out one tweet at a time to the merging thread.
+    * Mapped and scanned as bytes when it can be, streamed when it is compressed.
+    */
+   private class ShardReader implements Callable<Void>, TweetSink, Comparable<ShardReader> {
+
+      private final File file;
+      private final int index;
+      private final BlockingQueue<List<UserTweetPair>> batches =
+            new ArrayBlockingQueue<>(BATCHES_IN_FLIGHT_PER_SHARD);
+
+      Future<Void> parsed;
+
+      // Reader thread: the batch being filled
+      private List<UserTweetPair> filling = new ArrayList<>(BATCH_SIZE);
+
+      // Merging thread: the batch being merged, and the tweet of this shard that is next in line
+      private List<UserTweetPair> merging = Collections.emptyList();
+      private int position = 0;
+      private UserTweetPair head;
+
+      ShardReader(File file, int index) {
+         this.file = file;
+         this.index = index;
+      }
+
+      @Override
+      public Void call() throws IOException, ValidationException {
+         try {
+            if (!CompressedInput.isCompressed(file) && TweetLineScanner.isSupported()) {
+               new MappedTweetFileParser(file, 0, 0).withValidator(validator).withAuthors(authors)
+                     .withUnknownAuthors(unknownAuthors).withMetrics(metrics).parseInto(this, false);
+            } else {
+               stream();
+            }
+            if (!filling.isEmpty()) {
+               hand(filling);
+            }
+         } finally {
+            hand(END_OF_SHARD);
+         }
+         return null;
+      }
+
+      private void stream() throws IOException, ValidationException {
+         BufferedReader br = new BufferedReader(new InputStreamReader(CompressedInput.open(file, 1)));
+         try {
+            long sequence = 0;
+            String line = br.readLine();
+            while (line != null) {
+               long started = System.nanoTime();
+               if (unknownAuthors != null
+                     && TweetFileToTreeMapReader.isUnknownAuthor(line, unknownAuthors, validator)) {
+                  unknownAuthors.skip(line);
+               } else if (authors == null || TweetFileToTreeMapReader.isWantedAuthor(line, authors)) {
+                  UserTweetPair utp = TweetFileToTreeMapReader.parseTweetLine(line, sequence, validator);
+                  if (utp != null) {
+                     sequence++;
+                     addTweet(utp);
+                  }
+               }
+               if (metrics != null) {
+                  metrics.recordTweetLine(System.nanoTime() - started);
+               }
+               line = br.readLine();
+            }
+         } finally {
+            br.close();
+         }
+      }
+
+      @Override
+      public void addTweet(UserTweetPair tweet) {
+         filling.add(tweet);
+         if (filling.size() == BATCH_SIZE) {
+            hand(filling);
+            filling = new ArrayList<>(BATCH_SIZE);
+         }
+      }
+
+      private void hand(List<UserTweetPair> batch) {
+         try {
+            batches.put(batch);
+         } catch (InterruptedException e) {
+            // Only interrupted once the merge has given up
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Stopped reading " + file);
+         }
+      }
+
+      /*
+       * Moves head to the next tweet of this shard, returning false once there are none left.
+       */
+      boolean advance() throws IOException, ValidationException {
+         while (position == merging.size()) {
+            try {
+               merging = batches.take();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IOException("Interrupted while parsing tweets", e);
+            }
+            position = 0;
+            if (merging == END_OF_SHARD) {
+               await(parsed);
+               return false;
+            }
+         }
+         head = merging.get(position++);
+         return true;
+      }
+
+      @Override
+      public int compareTo(ShardReader other) {
+         int byTime = Long.compare(head.getTimestamp(), other.head.getTimestamp());
+         return byTime != 0 ? byTime : Integer.compare(index, other.index);
+      }
+   }
+}
@@ -0,0 +1,109 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.framework.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.ValidationException;
+
+/*
+ * Keeps a feed up to date while lines are appended to its tweets file. The whole feed is written once, then after
+ * every change only the timelines the new lines touched. Changes are picked up by a WatchService on the file's
+ * directory, and in any case every poll interval, for file systems that do not report modifications.
+ */
+public class TweetFileTailer {
+
+   private final TweetFileToTreeMapReader tweetReader;
+   private final File tweetFile;
+   private final Writer out;
+
+   private long pollIntervalMillis = Configuration.TAIL_POLL_INTERVAL_MILLIS;
+   private volatile boolean running = true;
+
+   public TweetFileTailer(TweetFileToTreeMapReader tweetReader, File tweetFile, Writer out) {
+      this.tweetReader = tweetReader;
+      this.tweetFile = tweetFile;
+      this.out = out;
+   }
+
+   public TweetFileTailer withPollInterval(long millis) {
+      this.pollIntervalMillis = millis;
+      return this;
+   }
+
+   /*
+    * Tails the file until stop() is called or the thread is interrupted.
+    */
+   public void run() throws IOException, ValidationException {
+      writeUpdate(tweetReader.processAppendedTweets());
+
+      WatchService watcher = openWatcher();
+      try {
+         while (running && waitForChange(watcher)) {
+            Collection<String> changedUsers = tweetReader.processAppendedTweets();
+            if (!changedUsers.isEmpty()) {
+               writeUpdate(changedUsers);
+            }
+         }
+      } finally {
+         if (watcher != null) {
+            watcher.close();
+         }
+      }
+   }
+
+   public void stop() {
+      running = false;
+   }
+
+   private void writeUpdate(Collection<String> changedUsers) throws IOException {
+      tweetReader.writeFeed(out, changedUsers);
+      out.write(System.lineSeparator());
+      out.flush();
+   }
+
+   /*
+    * Blocks until the directory reports a change or the poll interval passes. Returns false if interrupted.
+    */
+   private boolean waitForChange(WatchService watcher) {
+      try {
+         if (watcher == null) {
+            Thread.sleep(pollIntervalMillis);
+            return true;
+         }
+         WatchKey key = watcher.poll(pollIntervalMillis, TimeUnit.MILLISECONDS);
+         if (key != null) {
+            // Any event in the directory is only a hint, the reader checks the file size itself
+            key.pollEvents();
+            key.reset();
+         }
+         return true;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+
+   /*
+    * Returns null when the file system cannot be watched, in which case polling alone is used.
+    */
+   private WatchService openWatcher() {
+      try {
+         Path directory = tweetFile.getAbsoluteFile().getParentFile().toPath();
+         WatchService watcher = FileSystems.getDefault().newWatchService();
+         directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+         return watcher;
+      } catch (IOException | UnsupportedOperationException e) {
+         return null;
+      }
+   }
+}
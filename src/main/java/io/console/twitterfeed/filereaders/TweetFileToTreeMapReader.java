@@ -1,18 +1,39 @@
 package io.console.twitterfeed.filereaders;
 
 import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.framework.FeedMetrics.Counter;
+import io.console.twitterfeed.framework.FeedMetrics.Stage;
+import io.console.twitterfeed.graph.FollowGraph;
+import io.console.twitterfeed.graph.HashMapFollowGraph;
+import io.console.twitterfeed.graph.KnownAuthorFilter;
+import io.console.twitterfeed.graph.TargetFollowGraph;
+import io.console.twitterfeed.output.FeedEncoder;
+import io.console.twitterfeed.output.FeedWriter;
+import io.console.twitterfeed.timelines.CompactFanOutEngine;
+import io.console.twitterfeed.timelines.ConcurrentFanOutEngine;
+import io.console.twitterfeed.timelines.FanOutOnWriteEngine;
+import io.console.twitterfeed.timelines.HybridTimelineEngine;
+import io.console.twitterfeed.timelines.SpillingFanOutEngine;
+import io.console.twitterfeed.timelines.TimelineEngine;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+import io.console.twitterfeed.validation.LineValidator;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.xml.bind.ValidationException;
 
@@ -20,130 +41,608 @@ import org.apache.commons.lang3.StringUtils;
 
 public class TweetFileToTreeMapReader {
 
+   // Digits a timestamp column may have, so it always fits in a long
+   static final int MAX_TIMESTAMP_DIGITS = 18;
+
    private File tweetFile;
 
-   // A map of users who are followed by other users, created by the UserFile Reader
-   private HashMap<String, HashSet<String>> followedByMapSet = null;
+   // Every tweets file, merged by timestamp when there are several; tweetFile is the first of them
+   private List<File> tweetFiles = null;
+
+   // Users who are followed by other users, created by the UserFile Reader
+   private FollowGraph followGraph = null;
+
+   // Users to build timelines for, null builds them for everyone
+   private Collection<String> targetReaders = null;
+
+   // The graph timelines are built from: followGraph, or only the part of it the target readers see
+   private FollowGraph timelineGraph = null;
+
+   // Authors whose tweets are parsed, null parses all of them
+   private Set<String> wantedAuthors = null;
+
+   // Where tweets by authors missing from the follow graph go, created for the graph when not given
+   private UnknownAuthorTweets unknownAuthors = null;
 
-   // A TreeMap of User --> User/Tweet pairs. TreeMap gives good performance and added to that the ordering is natural
-   // (alphabetical in this case), which we want.
-   private TreeMap<String, List<UserTweetPair>> tweetsByUser = null;
+   private TimelineEngineType timelineEngineType = TimelineEngineType.FAN_OUT_ON_WRITE;
+   private int hotAuthorThreshold = Configuration.DEFAULT_HOT_AUTHOR_THRESHOLD;
+   private int parallelism = Configuration.PARSE_THREADS;
+   private int chunkSize = Configuration.PARSE_CHUNK_SIZE;
+   private boolean memoryMapped = Configuration.MEMORY_MAPPED_INPUT;
+   private int maxTimelineLength = Configuration.MAX_TIMELINE_LENGTH;
+   private long spillMemoryBudget = Configuration.SPILL_MEMORY_BUDGET;
+   private LineValidator validator = LineValidator.FAIL_FAST;
+
+   // Holds the timeline of every user, see TimelineEngine. Closed when replaced, if it is Closeable.
+   private TimelineEngine timelines = null;
+
+   // Sequence number of the next tweet read, so engines can merge timelines back into file order
+   private long nextSequence = 0;
+
+   // How far processAppendedTweets() has read the tweets file, or -1 if it has not read it since the last full load
+   private long tweetFileOffset = -1;
+
+   // Stage timings, line counts and fan-out go here, null when metrics are off
+   private FeedMetrics metrics = null;
+
+   // Encodes the feed for writeFeed(WritableByteChannel), created on first use and kept with its buffer
+   private FeedEncoder encoder = null;
 
    /*
     * Builds the expected output to print to console based on the current state of the map.
     */
    public String getPrintableOutput() {
       StringBuilder sb = new StringBuilder();
+      try {
+         writeFeed(sb);
+      } catch (IOException e) {
+         // A StringBuilder never throws, but Appendable declares it
+         throw new IllegalStateException(e);
+      }
+      return sb.toString();
+   }
+
+   /*
+    * Streams exactly the text of getPrintableOutput() to the given Appendable, one user block at a time, so the feed
+    * is never held in memory as a whole. Like getPrintableOutput(), no trailing line separator is written.
+    */
+   public void writeFeed(Appendable out) throws IOException {
+      writeFeed(out, timelines.getUsers());
+   }
+
+   /*
+    * Streams the timelines of the given users only, in the given order and in the same format as writeFeed().
+    */
+   public void writeFeed(Appendable out, Collection<String> selectedUsers) throws IOException {
+      long started = System.nanoTime();
+      FeedWriter.writeFeed(timelines, selectedUsers, out);
+      if (metrics != null) {
+         metrics.addStageTime(Stage.RENDER, System.nanoTime() - started);
+      }
+   }
+
+   /*
+    * Streams the feed to a channel, encoded with the platform charset (as System.out would), through a direct buffer
+    * of Configuration.OUTPUT_BUFFER_SIZE, see FeedEncoder. Users are rendered on as many threads as the tweets are
+    * parsed on, unless the engine only allows one reader. The channel is flushed but left open.
+    */
+   public void writeFeed(WritableByteChannel channel) throws IOException {
+      if (encoder == null) {
+         encoder = new FeedEncoder();
+      }
+      boolean concurrentReads = timelineEngineType != TimelineEngineType.SPILLING_FAN_OUT_ON_WRITE;
+      long started = System.nanoTime();
+      encoder.withThreads(concurrentReads ? parallelism : 1).writeFeed(timelines, timelines.getUsers(), channel);
+      if (metrics != null) {
+         metrics.addStageTime(Stage.RENDER, System.nanoTime() - started);
+      }
+   }
+
+   /*
+    * The timelines built by the last doProcessing() or processAppendedTweets().
+    */
+   public TimelineEngine getTimelines() {
+      return timelines;
+   }
 
-      for (Map.Entry<String, List<UserTweetPair>> entry : tweetsByUser.entrySet()) {
-         sb.append(entry.getKey());
-         sb.append(":");
-         sb.append(System.lineSeparator());
-         for (UserTweetPair tweet : entry.getValue()) {
-            sb.append("\t@");
-            sb.append(tweet.getUser());
-            sb.append(": ");
-            sb.append(tweet.getTweet());
-            sb.append(System.lineSeparator());
+   /*
+    * Initializes a fresh timeline engine of the configured type, closing the one it replaces.
+    */
+   private void loadEngine() throws IOException {
+      closeTimelines();
+      if (targetReaders == null) {
+         timelineGraph = followGraph;
+         wantedAuthors = null;
+         if (unknownAuthors == null) {
+            unknownAuthors = new UnknownAuthorTweets(new KnownAuthorFilter(followGraph), null);
          }
+      } else {
+         TargetFollowGraph targetGraph = new TargetFollowGraph(followGraph, targetReaders);
+         timelineGraph = targetGraph;
+         wantedAuthors = targetGraph.getAuthors();
       }
-      return sb.toString().trim();
+
+      switch (timelineEngineType) {
+      case FAN_OUT_ON_READ:
+         timelines = new HybridTimelineEngine(timelineGraph, 0, maxTimelineLength);
+         break;
+      case HYBRID:
+         timelines = new HybridTimelineEngine(timelineGraph, hotAuthorThreshold, maxTimelineLength);
+         break;
+      case CONCURRENT_FAN_OUT_ON_WRITE:
+         timelines = new ConcurrentFanOutEngine(timelineGraph, maxTimelineLength);
+         break;
+      case COMPACT_FAN_OUT_ON_WRITE:
+         timelines = new CompactFanOutEngine(timelineGraph, maxTimelineLength);
+         break;
+      case SPILLING_FAN_OUT_ON_WRITE:
+         timelines = new SpillingFanOutEngine(timelineGraph, maxTimelineLength, spillMemoryBudget,
+               new File(Configuration.SPILL_DIRECTORY));
+         break;
+      default:
+         timelines = new FanOutOnWriteEngine(timelineGraph, maxTimelineLength);
+      }
+      nextSequence = 0;
+      tweetFileOffset = -1;
    }
 
    /*
-    * Initializes the map if it has not already been initialized.
+    * Closes the timelines when they hold files or other resources, such as those of a SpillingFanOutEngine, and lets
+    * go of them, so getTimelines() returns null until tweets are read again.
     */
-   private void lazyLoadMap() {
-      if (this.tweetsByUser == null) {
-         this.tweetsByUser = new TreeMap<>();
+   public void closeTimelines() throws IOException {
+      TimelineEngine closed = timelines;
+      timelines = null;
+      if (closed instanceof Closeable) {
+         ((Closeable) closed).close();
+      }
+   }
+
+   private void releaseTimelines() {
+      try {
+         closeTimelines();
+      } catch (IOException e) {
+         throw new IllegalStateException("Could not close the timelines", e);
       }
    }
 
    public TweetFileToTreeMapReader(HashMap<String, HashSet<String>> followedByMapSet) {
-      this.followedByMapSet = followedByMapSet;
+      this(new HashMapFollowGraph(followedByMapSet));
+   }
+
+   public TweetFileToTreeMapReader(FollowGraph followGraph) {
+      this.followGraph = followGraph;
+   }
+
+   /*
+    * Points the reader at another follow graph, so one reader can be reused for many feeds.
+    */
+   public TweetFileToTreeMapReader withFollowGraph(FollowGraph graph) {
+      this.followGraph = graph;
+      releaseTimelines();
+      this.unknownAuthors = null;
+      return this;
    }
 
+   /*
+    * Builds the timelines of these users only, null (the default) builds everyone's. Tweets by authors none of them
+    * follow are skipped after a look at the author's name, without being parsed or validated, and so are tweets by
+    * authors missing from the follow graph. Users missing from the graph get no timeline.
+    */
+   public TweetFileToTreeMapReader withTargetReaders(Collection<String> readers) {
+      this.targetReaders = readers;
+      releaseTimelines();
+      return this;
+   }
+
+   /*
+    * Where tweets by authors missing from the follow graph go, which must have been built from the same graph. Such
+    * tweets are dropped after a look at the author's name, before the line is split or validated, and counted there
+    * instead of failing when fanned out. By default they are only counted, see getUnknownAuthors(). Invalid names are
+    * still left to the validator. Not used with target readers, who skip every author they do not follow.
+    */
+   public TweetFileToTreeMapReader withUnknownAuthors(UnknownAuthorTweets unknownAuthorTweets) {
+      this.unknownAuthors = unknownAuthorTweets;
+      return this;
+   }
+
+   /*
+    * Tweets by authors missing from the follow graph skipped so far. Unless given, null until tweets are first read
+    * without target readers.
+    */
+   public UnknownAuthorTweets getUnknownAuthors() {
+      return unknownAuthors;
+   }
+
+   /*
+    * The tweets file, which may be gzip compressed.
+    */
    public TweetFileToTreeMapReader withTweetsFile(File file) {
       this.tweetFile = file;
+      this.tweetFiles = Collections.singletonList(file);
+      return this;
+   }
+
+   /*
+    * Several tweets files, such as the shards of one feed, each parsed on its own thread and merged by the timestamp
+    * column of their lines, see ShardedTweetFileParser. A single file reads exactly as withTweetsFile().
+    */
+   public TweetFileToTreeMapReader withTweetsFiles(List<File> files) {
+      this.tweetFile = files.get(0);
+      this.tweetFiles = files;
+      return this;
+   }
+
+   /*
+    * Chooses how tweets are delivered to followers, fan-out-on-write by default.
+    */
+   public TweetFileToTreeMapReader withTimelineEngine(TimelineEngineType type) {
+      this.timelineEngineType = type;
+      return this;
+   }
+
+   /*
+    * For the hybrid engine: authors with at least this many followers are fanned out on read.
+    */
+   public TweetFileToTreeMapReader withHotAuthorThreshold(int threshold) {
+      this.hotAuthorThreshold = threshold;
+      return this;
+   }
+
+   /*
+    * Keeps only the latest maxLength tweets of each timeline, 0 keeps all of them.
+    */
+   public TweetFileToTreeMapReader withMaxTimelineLength(int maxLength) {
+      this.maxTimelineLength = maxLength;
+      return this;
+   }
+
+   /*
+    * For the spilling engine: bytes of fan-out records held in memory before they are written to a run file.
+    */
+   public TweetFileToTreeMapReader withSpillMemoryBudget(long bytes) {
+      this.spillMemoryBudget = bytes;
+      return this;
+   }
+
+   /*
+    * Number of threads that parse the tweets file, 1 reads it serially on the calling thread. A gzip compressed file
+    * is parsed serially, but if it is BGZF it is decompressed on this many threads.
+    */
+   public TweetFileToTreeMapReader withParallelism(int threads) {
+      this.parallelism = threads;
+      return this;
+   }
+
+   /*
+    * Target size in bytes of the newline-aligned ranges handed to each thread when parsing in parallel.
+    */
+   public TweetFileToTreeMapReader withChunkSize(int bytes) {
+      this.chunkSize = bytes;
+      return this;
+   }
+
+   /*
+    * Reads the tweets file through memory-mapped windows, scanning bytes instead of decoding lines into Strings.
+    * Parallel parsing always works this way. Compressed files are streamed instead.
+    */
+   public TweetFileToTreeMapReader withMemoryMappedInput(boolean memoryMapped) {
+      this.memoryMapped = memoryMapped;
+      return this;
+   }
+
+   /*
+    * What to do with invalid lines, failing on the first one by default.
+    */
+   public TweetFileToTreeMapReader withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   /*
+    * Records stage timings, per-line parse latencies and tweet and fan-out counts.
+    */
+   public TweetFileToTreeMapReader withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
       return this;
    }
 
    /*
    @formatter:off
    Does processing:
-    - Loads map if necessary
+    - Loads a new timeline engine
     - Adds users based on input from UserFile Reader
     - Reads tweets and matches to users accordingly
     @formatter:on
     */
    public void doProcessing() throws IOException, ValidationException {
-      lazyLoadMap();
+      loadEngine();
       addAllUsers();
+      long started = System.nanoTime();
+      long unknownAuthorTweets = getSkippedUnknownAuthorTweets();
       readTweetsFileToMap();
+      if (metrics != null) {
+         metrics.addStageTime(Stage.READ_TWEETS_FILE, System.nanoTime() - started);
+         metrics.add(Counter.UNKNOWN_AUTHOR_TWEETS, getSkippedUnknownAuthorTweets() - unknownAuthorTweets);
+         metrics.add(Counter.FAN_OUT_APPENDS, timelines.getFanOutAppends());
+      }
+   }
+
+   /*
+    * Reads only the complete lines appended to the tweets file since the last call, adds them to the existing
+    * timelines and returns the users whose timelines changed, alphabetically. The first call, the first after
+    * doProcessing() and any call after the file shrank reload everything, returning every user. A last line without
+    * a line end is left until it is finished. If a bad line throws, the lines before it stay added and the next call
+    * starts at the bad line. There must be a single tweets file, and it cannot be compressed.
+    */
+   public SortedSet<String> processAppendedTweets() throws IOException, ValidationException {
+      if (!TweetLineScanner.isSupported()) {
+         throw new IllegalStateException("Reading appended tweets needs an ASCII compatible platform charset");
+      }
+      if (tweetFiles.size() > 1) {
+         throw new IllegalStateException("Reading appended tweets needs a single tweets file");
+      }
+      if (CompressedInput.isCompressed(tweetFile)) {
+         throw new IllegalStateException("Reading appended tweets needs an uncompressed tweets file");
+      }
+
+      final SortedSet<String> changedUsers = new TreeSet<>();
+      if (timelines == null || tweetFileOffset < 0 || tweetFile.length() < tweetFileOffset) {
+         loadEngine();
+         addAllUsers();
+         tweetFileOffset = 0;
+         changedUsers.addAll(timelines.getUsers());
+      }
+
+      TweetSink changeTracker = new TweetSink() {
+         @Override
+         public void addTweet(UserTweetPair tweet) {
+            timelines.addTweet(tweet);
+            if (metrics != null) {
+               metrics.increment(Counter.TWEETS);
+            }
+            Collection<String> followers = timelineGraph.getFollowers(tweet.getUser());
+            if (followers != null) {
+               changedUsers.addAll(followers);
+            }
+         }
+      };
+
+      MappedTweetFileParser parser =
+            new MappedTweetFileParser(tweetFile, tweetFileOffset, nextSequence).withValidator(validator)
+                  .withAuthors(wantedAuthors).withUnknownAuthors(unknownAuthorsToSkip()).withMetrics(metrics);
+      long started = System.nanoTime();
+      long fanOutAppends = timelines.getFanOutAppends();
+      long unknownAuthorTweets = getSkippedUnknownAuthorTweets();
+      try {
+         parser.parseInto(changeTracker, true);
+      } finally {
+         tweetFileOffset = parser.getPosition();
+         nextSequence = parser.getNextSequence();
+         if (metrics != null) {
+            metrics.addStageTime(Stage.READ_TWEETS_FILE, System.nanoTime() - started);
+            metrics.add(Counter.UNKNOWN_AUTHOR_TWEETS, getSkippedUnknownAuthorTweets() - unknownAuthorTweets);
+            metrics.add(Counter.FAN_OUT_APPENDS, timelines.getFanOutAppends() - fanOutAppends);
+         }
+      }
+      return changedUsers;
+   }
+
+   /*
+    * Where the parsers drop tweets by unknown authors: nowhere with target readers, whose wanted authors are all known.
+    */
+   private UnknownAuthorTweets unknownAuthorsToSkip() {
+      return wantedAuthors == null ? unknownAuthors : null;
+   }
+
+   private long getSkippedUnknownAuthorTweets() {
+      return unknownAuthors == null ? 0 : unknownAuthors.getSkippedTweets();
    }
 
    private void addAllUsers() {
-      for (Map.Entry<String, HashSet<String>> entry : followedByMapSet.entrySet()) {
-         tweetsByUser.put(entry.getKey(), new ArrayList<UserTweetPair>());
+      long started = System.nanoTime();
+      Collection<String> users =
+            targetReaders == null ? followGraph.getUsers() : ((TargetFollowGraph) timelineGraph).getReaders();
+      for (String user : users) {
+         timelines.addUser(user);
+      }
+      if (metrics != null) {
+         metrics.addStageTime(Stage.ADD_ALL_USERS, System.nanoTime() - started);
       }
    }
 
    /*
-    * Reads tweets from a file, line by line, to a TreeMap
+    * Reads tweets from a file, line by line, into the timeline engine
     */
    private void readTweetsFileToMap() throws IOException, ValidationException {
-      BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(tweetFile)));
+      if (tweetFiles.size() > 1) {
+         nextSequence = new ShardedTweetFileParser(tweetFiles).withValidator(validator).withAuthors(wantedAuthors)
+               .withUnknownAuthors(unknownAuthorsToSkip()).withMetrics(metrics).parseInto(timelines);
+         return;
+      }
 
-      String tweet = br.readLine();
-      while (tweet != null) {
-         parseAndAddTweetLine(tweet);
-         tweet = br.readLine();
+      // Compressed files can only be read as a stream, on one thread, though BGZF is decompressed on several
+      boolean compressed = CompressedInput.isCompressed(tweetFile);
+      if (parallelism > 1 && !compressed && TweetLineScanner.isSupported()) {
+         nextSequence = new ParallelTweetFileParser(tweetFile, parallelism, chunkSize).withValidator(validator)
+               .withAuthors(wantedAuthors).withUnknownAuthors(unknownAuthorsToSkip()).withMetrics(metrics)
+               .parseInto(timelines);
+         return;
       }
 
-      br.close();
+      long firstSequence = nextSequence;
+      if (memoryMapped && !compressed && TweetLineScanner.isSupported()) {
+         MappedTweetFileParser parser =
+               new MappedTweetFileParser(tweetFile, 0, nextSequence).withValidator(validator)
+                     .withAuthors(wantedAuthors).withUnknownAuthors(unknownAuthorsToSkip()).withMetrics(metrics);
+         parser.parseInto(timelines, false);
+         nextSequence = parser.getNextSequence();
+      } else {
+         BufferedReader br =
+               new BufferedReader(new InputStreamReader(CompressedInput.open(tweetFile, parallelism)));
+         try {
+            String tweet = br.readLine();
+            while (tweet != null) {
+               if (metrics == null) {
+                  parseAndAddTweetLine(tweet);
+               } else {
+                  long started = System.nanoTime();
+                  parseAndAddTweetLine(tweet);
+                  metrics.recordTweetLine(System.nanoTime() - started);
+               }
+               tweet = br.readLine();
+            }
+         } finally {
+            br.close();
+         }
+      }
+
+      if (metrics != null) {
+         // Read serially, tweets are numbered consecutively
+         metrics.add(Counter.TWEETS, nextSequence - firstSequence);
+      }
    }
 
    /*
-    * Parses a single line, assumes the format is "userName> this is a tweet"
+    * Parses a single line and adds the tweet to the timelines of the author's followers
     */
    private void parseAndAddTweetLine(String line) throws ValidationException {
+      if (wantedAuthors != null && !isWantedAuthor(line, wantedAuthors)) {
+         return;
+      }
+      if (wantedAuthors == null && isUnknownAuthor(line, unknownAuthors, validator)) {
+         unknownAuthors.skip(line);
+         return;
+      }
+      UserTweetPair utp = parseTweetLine(line, nextSequence, validator);
+      if (utp != null) {
+         nextSequence++;
+         timelines.addTweet(utp);
+      }
+   }
+
+   /*
+    * Looks only at the name before the first separator, which is cheaper than splitting the line. A line with no name
+    * to look at is wanted, so parsing it reports the error as usual.
+    */
+   static boolean isWantedAuthor(String line, Set<String> wantedAuthors) {
+      int nameStart = nameStart(line);
+      int separator = line.indexOf("> ", nameStart);
+      if (separator < 0) {
+         return true;
+      }
+      String userName = line.substring(nameStart, separator).trim();
+      return userName.isEmpty() || wantedAuthors.contains(userName);
+   }
+
+   /*
+    * True if the author is a valid name missing from the follow graph, looking only at the name as isWantedAuthor()
+    * does. A line with no name to look at, or an invalid one, is not unknown, so parsing it reports the error as usual.
+    */
+   static boolean isUnknownAuthor(String line, UnknownAuthorTweets unknownAuthors, LineValidator validator) {
+      int nameStart = nameStart(line);
+      int separator = line.indexOf("> ", nameStart);
+      if (separator < 0) {
+         return false;
+      }
+      String userName = line.substring(nameStart, separator).trim();
+      return validator.isValidName(userName) && !unknownAuthors.isKnown(userName);
+   }
+
+   /*
+    * Where the author's name starts: after the timestamp column, if any, and any separators before the name, which
+    * parseTweetLine() drops as empty tokens.
+    */
+   static int nameStart(String line) {
+      int start = timestampEnd(line) + 1;
+      while (line.startsWith("> ", start)) {
+         start += 2;
+      }
+      return start;
+   }
+
+   /*
+    * Counts the tweets of each author in the given tweets files, looking only at the name of each line as
+    * isWantedAuthor() does, so invalid tweets are counted too. Cheap enough to estimate fan-out before reading the
+    * files for real, see FollowGraphStats.
+    */
+   public static Map<String, Long> countTweetsByAuthor(Collection<File> files) throws IOException {
+      Map<String, Long> counts = new HashMap<>();
+      for (File file : files) {
+         BufferedReader br = new BufferedReader(new InputStreamReader(CompressedInput.open(file, 1)));
+         try {
+            String line = br.readLine();
+            while (line != null) {
+               int nameStart = nameStart(line);
+               int separator = line.indexOf("> ", nameStart);
+               String author = separator > nameStart ? line.substring(nameStart, separator).trim() : "";
+               if (!author.isEmpty()) {
+                  Long count = counts.get(author);
+                  counts.put(author, count == null ? 1 : count + 1);
+               }
+               line = br.readLine();
+            }
+         } finally {
+            br.close();
+         }
+      }
+      return counts;
+   }
+
+   /*
+    * Lines may start with a timestamp column, "1466598192\tuserName> this is a tweet", which orders tweets merged
+    * from several files. Returns the index of the tab that ends it, or -1 if the line has none. Names cannot hold a
+    * tab, so no line that was valid without the column reads differently.
+    */
+   static int timestampEnd(String line) {
+      int i = 0;
+      while (i < line.length() && i <= MAX_TIMESTAMP_DIGITS && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+         i++;
+      }
+      return i > 0 && i <= MAX_TIMESTAMP_DIGITS && i < line.length() - 1 && line.charAt(i) == '\t' ? i : -1;
+   }
+
+   /*
+    * Parses a single line, assumes the format is "userName> this is a tweet", optionally after a timestamp column (see
+    * timestampEnd()). Returns null for an empty line, or one the validator rejected. Has no side effects beyond the
+    * validator's, so the parallel reader calls it from many threads.
+    */
+   static UserTweetPair parseTweetLine(String line, long sequence, LineValidator validator)
+         throws ValidationException {
       // If the line is empty, ignore it and continue
       if (line.trim().isEmpty()) {
-         return;
+         return null;
+      }
+      long timestamp = 0;
+      String text = line;
+      int stampEnd = timestampEnd(line);
+      if (stampEnd > 0) {
+         timestamp = Long.parseLong(line.substring(0, stampEnd));
+         text = line.substring(stampEnd + 1);
       }
-      String[] splitLine = StringUtils.splitByWholeSeparator(line, "> ");
+
+      String[] splitLine = StringUtils.splitByWholeSeparator(text, "> ");
       if (splitLine.length < 2 || splitLine[1].trim().isEmpty()) {
-         throw new IllegalArgumentException(
-               "Expected file format is \"userName> this is a tweet...\", but found this line: \"" + splitLine[0]
-                     + "\"");
+         validator.reject(line, "Expected file format is \"userName> this is a tweet...\", but found this line: \"",
+               splitLine[0] + "\"");
+         return null;
       }
 
       String userName = splitLine[0].trim();
 
-      if (!StringUtils.isAlphanumeric(userName)) {
-         throw new IllegalArgumentException(
-               "Username is expected to be letters and numbers only, name was: " + userName);
+      if (!validator.isValidName(userName)) {
+         validator.reject(line, "Username is expected to be letters and numbers only, name was: ", userName);
+         return null;
       }
 
       // Get the tweet, and substring it to the minimum length between its own length and the maximum allowable length
       // (140).
       String tweet = splitLine[1].substring(0, Math.min(Configuration.MAX_TWEET_LENGTH, splitLine[1].length()));
-      if (!tweet.matches("\\p{ASCII}+")) {
-         throw new IllegalArgumentException("Tweet is expected to be letters and numbers only, tweet was: " + tweet);
+      if (!LineValidator.isValidTweet(tweet)) {
+         validator.reject(line, "Tweet is expected to be letters and numbers only, tweet was: ", tweet);
+         return null;
       }
 
-      UserTweetPair utp = new UserTweetPair(userName, tweet);
-
-      HashSet<String> usersWhoFollow = followedByMapSet.get(userName);
-
-      for (String userWhoFollows : usersWhoFollow) {
-         if (tweetsByUser.containsKey(userWhoFollows)) {
-            tweetsByUser.get(userWhoFollows).add(utp);
-         } else {
-            List<UserTweetPair> newArrayList = new ArrayList<>();
-            newArrayList.add(utp);
-            tweetsByUser.put(userWhoFollows, newArrayList);
-         }
-      }
+      return new UserTweetPair(userName, tweet, timestamp, sequence);
    }
 }
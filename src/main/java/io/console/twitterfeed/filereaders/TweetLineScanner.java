@@ -0,0 +1,393 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.validation.LineValidator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import javax.xml.bind.ValidationException;
+
+/*
+ * Parses tweet lines straight from bytes, typically a mapped region of the tweets file. Line ends, the "> "
+ * separator, names and the tweet length are all checked in the byte domain, and the only objects created for a
+ * valid line are the tweet String and its UserTweetPair; author names come from a small cache keyed by their bytes.
+ * Given a set of wanted authors, lines by anyone else are dropped after a look at their name, and so are lines by
+ * authors missing from the follow graph given UnknownAuthorTweets, whose filter is probed with the name's bytes.
+ *
+ * Lines may start with a timestamp column, see TweetFileToTreeMapReader.timestampEnd(). The fast path only takes lines
+ * that are plain ASCII and valid. Everything else (non-ASCII bytes, malformed lines) is decoded with the platform
+ * charset and handed to TweetFileToTreeMapReader.parseTweetLine(), so results and error messages are exactly those of
+ * the String based reader. Not thread safe, use one scanner per thread.
+ */
+class TweetLineScanner {
+
+   private static final int NAME_CACHE_SIZE = 4096;
+
+   // Line splitting and the fast path assume ASCII bytes decode to the same chars, as in UTF-8 and ISO-8859-*
+   private static final boolean ASCII_COMPATIBLE_CHARSET = isAsciiCompatible(Charset.defaultCharset());
+
+   private final TweetSink sink;
+   private long nextSequence;
+   // Where the lines fully parsed by the last scan() end, which is where it stopped if a line threw
+   private int scanned;
+
+   private LineValidator validator = LineValidator.FAIL_FAST;
+   // Only tweets by these authors are parsed, null parses all of them
+   private Set<String> authors = null;
+   // Counts and drops tweets by authors missing from the follow graph, null parses them
+   private UnknownAuthorTweets unknownAuthors = null;
+   // Records each line and how long it took, null when metrics are off
+   private FeedMetrics metrics = null;
+
+   private byte[] scratch = new byte[Configuration.MAX_TWEET_LENGTH];
+
+   // Direct mapped cache of author names, indexed by a hash of their bytes
+   private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+   TweetLineScanner(TweetSink sink, long firstSequence) {
+      this.sink = sink;
+      this.nextSequence = firstSequence;
+   }
+
+   /*
+    * False when the platform charset is not ASCII compatible, in which case byte level parsing cannot be used.
+    */
+   static boolean isSupported() {
+      return ASCII_COMPATIBLE_CHARSET;
+   }
+
+   TweetLineScanner withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   TweetLineScanner withAuthors(Set<String> wantedAuthors) {
+      this.authors = wantedAuthors;
+      return this;
+   }
+
+   TweetLineScanner withUnknownAuthors(UnknownAuthorTweets unknownAuthorTweets) {
+      this.unknownAuthors = unknownAuthorTweets;
+      return this;
+   }
+
+   TweetLineScanner withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
+   long getNextSequence() {
+      return nextSequence;
+   }
+
+   /*
+    * The offset the last scan() returned or, if it threw, the start of the line it threw on, so the lines before it
+    * that already went to the sink are not parsed twice.
+    */
+   int getScanned() {
+      return scanned;
+   }
+
+   /*
+    * Parses the lines in buffer[from, to). A line ends with \n, \r or \r\n, as for BufferedReader.readLine(). If
+    * endOfInput is false, an unterminated last line is left alone; the returned offset is where it starts, or "to" if
+    * every byte was consumed.
+    */
+   int scan(ByteBuffer buffer, int from, int to, boolean endOfInput) throws ValidationException {
+      int lineStart = from;
+      scanned = from;
+      int i = from;
+      while (i < to) {
+         byte b = buffer.get(i);
+         if (b == '\n' || b == '\r') {
+            parseAndRecordLine(buffer, lineStart, i);
+            i++;
+            if (b == '\r' && i < to && buffer.get(i) == '\n') {
+               i++;
+            }
+            lineStart = i;
+            scanned = i;
+         } else {
+            i++;
+         }
+      }
+
+      if (endOfInput && lineStart < to) {
+         parseAndRecordLine(buffer, lineStart, to);
+         lineStart = to;
+         scanned = to;
+      }
+      return lineStart;
+   }
+
+   private void parseAndRecordLine(ByteBuffer buffer, int start, int end) throws ValidationException {
+      if (metrics == null) {
+         parseLine(buffer, start, end);
+         return;
+      }
+      long started = System.nanoTime();
+      parseLine(buffer, start, end);
+      metrics.recordTweetLine(System.nanoTime() - started);
+   }
+
+   private void parseLine(ByteBuffer buffer, int start, int end) throws ValidationException {
+      boolean blank = true;
+      boolean ascii = true;
+      for (int i = start; i < end; i++) {
+         byte b = buffer.get(i);
+         if (b < 0) {
+            ascii = false;
+            blank = false;
+            break;
+         }
+         if (b > ' ') {
+            blank = false;
+         }
+      }
+
+      // If the line is empty, ignore it and continue
+      if (blank) {
+         return;
+      }
+      // Non-ASCII lines are looked at once decoded, in parseSlowly()
+      if (!ascii) {
+         parseSlowly(buffer, start, end);
+         return;
+      }
+
+      long timestamp = 0;
+      int textStart = start;
+      int stampEnd = timestampEnd(buffer, start, end);
+      if (stampEnd > 0) {
+         for (int i = start; i < stampEnd; i++) {
+            timestamp = timestamp * 10 + buffer.get(i) - '0';
+         }
+         textStart = stampEnd + 1;
+      }
+      if (authors != null && !isWantedAuthor(buffer, textStart, end)) {
+         return;
+      }
+      if (unknownAuthors != null && isUnknownAuthor(buffer, textStart, end)) {
+         unknownAuthors.skip(buffer, start, end);
+         return;
+      }
+      if (!parseAsciiLine(buffer, textStart, end, timestamp)) {
+         parseSlowly(buffer, start, end);
+      }
+   }
+
+   /*
+    * Where the optional timestamp column ends, as TweetFileToTreeMapReader.timestampEnd() finds it.
+    */
+   private static int timestampEnd(ByteBuffer buffer, int start, int end) {
+      int i = start;
+      while (i < end && i - start <= TweetFileToTreeMapReader.MAX_TIMESTAMP_DIGITS && buffer.get(i) >= '0'
+            && buffer.get(i) <= '9') {
+         i++;
+      }
+      boolean stamped = i > start && i - start <= TweetFileToTreeMapReader.MAX_TIMESTAMP_DIGITS && i < end - 1
+            && buffer.get(i) == '\t';
+      return stamped ? i : -1;
+   }
+
+   /*
+    * Takes the first two tokens the way StringUtils.splitByWholeSeparator(line, "> ") does: empty tokens between
+    * separators are dropped, and whatever follows the last separator is a token, even when empty. Returns false if
+    * the line is not valid, leaving the error to the slow path.
+    */
+   private boolean parseAsciiLine(ByteBuffer buffer, int start, int end, long timestamp) {
+      int nameStart = -1;
+      int nameEnd = -1;
+      int tweetStart = -1;
+      int tweetEnd = -1;
+
+      int beg = start;
+      while (tweetStart < 0) {
+         int separator = indexOfSeparator(buffer, beg, end);
+         int tokenEnd = separator < 0 ? end : separator;
+         if (separator < 0 || separator > beg) {
+            if (nameStart < 0) {
+               nameStart = beg;
+               nameEnd = tokenEnd;
+            } else {
+               tweetStart = beg;
+               tweetEnd = tokenEnd;
+            }
+         }
+         if (separator < 0) {
+            break;
+         }
+         beg = separator + 2;
+      }
+
+      if (tweetStart < 0 || isBlank(buffer, tweetStart, tweetEnd)) {
+         return false;
+      }
+
+      // Trim the name, then check it is letters and digits only
+      while (nameStart < nameEnd && buffer.get(nameStart) <= ' ') {
+         nameStart++;
+      }
+      while (nameEnd > nameStart && buffer.get(nameEnd - 1) <= ' ') {
+         nameEnd--;
+      }
+      if (nameStart == nameEnd) {
+         return false;
+      }
+      for (int i = nameStart; i < nameEnd; i++) {
+         if (!isAsciiAlphanumeric(buffer.get(i))) {
+            return false;
+         }
+      }
+
+      // The whole line is ASCII, so the tweet can be cut to length in bytes
+      int length = Math.min(Configuration.MAX_TWEET_LENGTH, tweetEnd - tweetStart);
+      for (int i = 0; i < length; i++) {
+         scratch[i] = buffer.get(tweetStart + i);
+      }
+      String tweet = new String(scratch, 0, length, StandardCharsets.ISO_8859_1);
+
+      sink.addTweet(new UserTweetPair(getName(buffer, nameStart, nameEnd), tweet, timestamp, nextSequence++));
+      return true;
+   }
+
+   /*
+    * Looks only at the name before the first separator, which is cheaper than parsing the line. A line with no name
+    * to look at is wanted, so parsing it reports the error as usual.
+    */
+   private boolean isWantedAuthor(ByteBuffer buffer, int start, int end) {
+      int nameStart = nameStart(buffer, start, end);
+      int nameEnd = indexOfSeparator(buffer, nameStart, end);
+      if (nameEnd < 0) {
+         return true;
+      }
+      while (nameStart < nameEnd && buffer.get(nameStart) <= ' ') {
+         nameStart++;
+      }
+      while (nameEnd > nameStart && buffer.get(nameEnd - 1) <= ' ') {
+         nameEnd--;
+      }
+      return nameStart == nameEnd || authors.contains(getName(buffer, nameStart, nameEnd));
+   }
+
+   /*
+    * True if the line's author is a valid name missing from the follow graph. Most unknown names are ruled out by the
+    * filter from their bytes alone, only the rest are looked up. A line with no name to look at, or an invalid one, is
+    * not unknown, so parsing it reports the error as usual.
+    */
+   private boolean isUnknownAuthor(ByteBuffer buffer, int start, int end) {
+      int nameStart = nameStart(buffer, start, end);
+      int nameEnd = indexOfSeparator(buffer, nameStart, end);
+      if (nameEnd < 0) {
+         return false;
+      }
+      while (nameStart < nameEnd && buffer.get(nameStart) <= ' ') {
+         nameStart++;
+      }
+      while (nameEnd > nameStart && buffer.get(nameEnd - 1) <= ' ') {
+         nameEnd--;
+      }
+      if (nameStart == nameEnd) {
+         return false;
+      }
+      for (int i = nameStart; i < nameEnd; i++) {
+         if (!isAsciiAlphanumeric(buffer.get(i))) {
+            return false;
+         }
+      }
+      return !unknownAuthors.mightBeKnown(buffer, nameStart, nameEnd)
+            || !unknownAuthors.isKnown(getName(buffer, nameStart, nameEnd));
+   }
+
+   /*
+    * Where the first token starts, past any separators at the start of the line, as parseAsciiLine() takes it.
+    */
+   private static int nameStart(ByteBuffer buffer, int start, int end) {
+      int i = start;
+      while (i < end - 1 && buffer.get(i) == '>' && buffer.get(i + 1) == ' ') {
+         i += 2;
+      }
+      return i;
+   }
+
+   private void parseSlowly(ByteBuffer buffer, int start, int end) throws ValidationException {
+      byte[] bytes = new byte[end - start];
+      for (int i = start; i < end; i++) {
+         bytes[i - start] = buffer.get(i);
+      }
+      String line = new String(bytes, Charset.defaultCharset());
+      if (authors != null && !TweetFileToTreeMapReader.isWantedAuthor(line, authors)) {
+         return;
+      }
+      if (unknownAuthors != null && TweetFileToTreeMapReader.isUnknownAuthor(line, unknownAuthors, validator)) {
+         unknownAuthors.skip(line);
+         return;
+      }
+      UserTweetPair utp = TweetFileToTreeMapReader.parseTweetLine(line, nextSequence, validator);
+      if (utp != null) {
+         nextSequence++;
+         sink.addTweet(utp);
+      }
+   }
+
+   private String getName(ByteBuffer buffer, int start, int end) {
+      int hash = 0x811C9DC5;
+      for (int i = start; i < end; i++) {
+         hash = (hash ^ buffer.get(i)) * 0x01000193;
+      }
+      int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+
+      String cached = nameCache[slot];
+      if (cached != null && cached.length() == end - start) {
+         int i = start;
+         while (i < end && cached.charAt(i - start) == buffer.get(i)) {
+            i++;
+         }
+         if (i == end) {
+            return cached;
+         }
+      }
+
+      byte[] bytes = new byte[end - start];
+      for (int i = start; i < end; i++) {
+         bytes[i - start] = buffer.get(i);
+      }
+      String name = new String(bytes, StandardCharsets.ISO_8859_1);
+      nameCache[slot] = name;
+      return name;
+   }
+
+   private static int indexOfSeparator(ByteBuffer buffer, int from, int end) {
+      for (int i = from; i < end - 1; i++) {
+         if (buffer.get(i) == '>' && buffer.get(i + 1) == ' ') {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+      for (int i = start; i < end; i++) {
+         if (buffer.get(i) > ' ') {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static boolean isAsciiAlphanumeric(byte b) {
+      return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+   }
+
+   private static boolean isAsciiCompatible(Charset charset) {
+      byte[] ascii = new byte[128];
+      for (int i = 0; i < ascii.length; i++) {
+         ascii[i] = (byte) i;
+      }
+      return new String(ascii, StandardCharsets.US_ASCII).equals(new String(ascii, charset));
+   }
+}
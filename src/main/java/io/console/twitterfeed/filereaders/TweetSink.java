@@ -0,0 +1,9 @@
+package io.console.twitterfeed.filereaders;
+
+/*
+ * Receives parsed tweets, in increasing sequence order.
+ */
+public interface TweetSink {
+
+   void addTweet(UserTweetPair tweet);
+}
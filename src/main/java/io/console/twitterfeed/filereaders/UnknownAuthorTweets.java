@@ -0,0 +1,101 @@
+package io.console.twitterfeed.filereaders;
+
+import io.console.twitterfeed.graph.KnownAuthorFilter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Tweets by authors missing from the follow graph, which nobody can see. Readers drop them after a look at the
+ * author's name, before the line is split or validated, and hand them here to be counted and, given a log file,
+ * copied to it as they were. A noisy tweets file is then read at full speed instead of failing on its first unknown
+ * author when the tweet is fanned out.
+ *
+ * Thread safe: parallel readers share one instance, and lines they drop are logged in the order they were dropped.
+ */
+public class UnknownAuthorTweets {
+
+   private final KnownAuthorFilter knownAuthors;
+   private final File logFile;
+   private final AtomicLong skippedTweets = new AtomicLong();
+
+   private Writer logWriter = null;
+   // Once the log is started, later writes append to it, even after close()
+   private boolean logStarted = false;
+
+   /*
+    * The log file may be null, to only count the tweets. It is created, or emptied, when the first one is logged.
+    */
+   public UnknownAuthorTweets(KnownAuthorFilter knownAuthors, File logFile) {
+      this.knownAuthors = knownAuthors;
+      this.logFile = logFile;
+   }
+
+   public long getSkippedTweets() {
+      return skippedTweets.get();
+   }
+
+   public File getLogFile() {
+      return logFile;
+   }
+
+   /*
+    * Flushes and closes the log file, if any tweet was logged.
+    */
+   public synchronized void close() throws IOException {
+      if (logWriter != null) {
+         logWriter.close();
+         logWriter = null;
+      }
+   }
+
+   boolean mightBeKnown(ByteBuffer buffer, int start, int end) {
+      return knownAuthors.mightContain(buffer, start, end);
+   }
+
+   boolean isKnown(String author) {
+      return knownAuthors.contains(author);
+   }
+
+   void skip(String line) {
+      skippedTweets.incrementAndGet();
+      if (logFile != null) {
+         log(line);
+      }
+   }
+
+   /*
+    * Skips the line in bytes [start, end) of the buffer, only decoding it if it is logged.
+    */
+   void skip(ByteBuffer buffer, int start, int end) {
+      if (logFile == null) {
+         skippedTweets.incrementAndGet();
+         return;
+      }
+      byte[] bytes = new byte[end - start];
+      for (int i = start; i < end; i++) {
+         bytes[i - start] = buffer.get(i);
+      }
+      skip(new String(bytes, Charset.defaultCharset()));
+   }
+
+   private synchronized void log(String line) {
+      try {
+         if (logWriter == null) {
+            logWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, logStarted)));
+            logStarted = true;
+         }
+         logWriter.write(line);
+         logWriter.write(System.lineSeparator());
+      } catch (IOException e) {
+         throw new IllegalStateException("Could not write to unknown author log " + logFile, e);
+      }
+   }
+}
@@ -1,8 +1,15 @@
 package io.console.twitterfeed.filereaders;
 
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.framework.FeedMetrics.Counter;
+import io.console.twitterfeed.framework.FeedMetrics.Stage;
+import io.console.twitterfeed.graph.CompactFollowGraph;
+import io.console.twitterfeed.graph.KnownAuthorFilter;
+import io.console.twitterfeed.validation.LineValidator;
+
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -17,51 +24,160 @@ import org.apache.commons.lang3.StringUtils;
 public class UserFileToHashMapReader {
 
    private File userFile;
-   // A Map of Username --> Users who follow this user
+
+   // Collects the follow graph while the file is parsed
+   private CompactFollowGraph.Builder graphBuilder = null;
+   // The follow graph: interned user ids with followers as sorted int arrays
+   private CompactFollowGraph followGraph = null;
+   // A Map of Username --> Users who follow this user, only materialized when asked for
    private HashMap<String, HashSet<String>> followedByMapSet = null;
+   // A Bloom filter of the users of the follow graph, only built when asked for
+   private KnownAuthorFilter knownAuthors = null;
+
+   private int parallelism = Configuration.PARSE_THREADS;
+   private LineValidator validator = LineValidator.FAIL_FAST;
+   private int batchLines = Configuration.USER_PARSE_BATCH_LINES;
+
+   // Reused by the serial reader for the edges of each line
+   private final List<String> lineEdges = new ArrayList<>();
 
+   // Stage timings and line counts go here, null when metrics are off
+   private FeedMetrics metrics = null;
+
+   public CompactFollowGraph getFollowGraph() {
+      return followGraph;
+   }
+
+   /*
+    * The follow graph as a map of HashSets. Costs a String reference and a HashMap.Node per edge, so prefer
+    * getFollowGraph() for anything large.
+    */
    public HashMap<String, HashSet<String>> getFollowedByMapSet() {
+      if (followedByMapSet == null && followGraph != null) {
+         followedByMapSet = followGraph.toFollowedByMapSet();
+      }
       return followedByMapSet;
    }
 
+   /*
+    * A filter of the users of the follow graph, so readers can drop tweets by anyone else from the bytes of their name,
+    * see UnknownAuthorTweets. Costs about ten bits per user.
+    */
+   public KnownAuthorFilter getKnownAuthors() {
+      if (knownAuthors == null && followGraph != null) {
+         knownAuthors = new KnownAuthorFilter(followGraph);
+      }
+      return knownAuthors;
+   }
+
    private void lazyLoadMap() {
-      followedByMapSet = new HashMap<>();
+      graphBuilder = new CompactFollowGraph.Builder();
+      followGraph = null;
+      followedByMapSet = null;
+      knownAuthors = null;
    }
 
+   /*
+    * The user file, which may be gzip compressed.
+    */
    public UserFileToHashMapReader withUserFile(File file) {
       this.userFile = file;
       return this;
    }
 
+   /*
+    * Number of threads that parse the user file, 1 reads it serially on the calling thread. With more, one thread
+    * reads batches of lines, these threads parse them into edges, and the calling thread builds the graph. A BGZF
+    * compressed file is decompressed on this many threads as well.
+    */
+   public UserFileToHashMapReader withParallelism(int threads) {
+      this.parallelism = threads;
+      return this;
+   }
+
+   /*
+    * Lines handed to a parser thread at a time when parsing in parallel.
+    */
+   public UserFileToHashMapReader withBatchLines(int lines) {
+      this.batchLines = lines;
+      return this;
+   }
+
+   /*
+    * What to do with invalid lines, failing on the first one by default.
+    */
+   public UserFileToHashMapReader withValidator(LineValidator lineValidator) {
+      this.validator = lineValidator;
+      return this;
+   }
+
+   public UserFileToHashMapReader withMetrics(FeedMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+   }
+
    /*
    @formatter:off
    Does processing:
     - Loads map if necessary
     - Reads users into map from user file
+    - Packs the map into the compact follow graph
     @formatter:on
     */
    public void doProcessing() throws IOException, ValidationException {
       lazyLoadMap();
+      long started = System.nanoTime();
       readUserFileToMap();
+      followGraph = graphBuilder.build();
+      graphBuilder = null;
+      if (metrics != null) {
+         metrics.addStageTime(Stage.READ_USER_FILE, System.nanoTime() - started);
+         metrics.add(Counter.FOLLOW_EDGES, followGraph.getEdgeCount());
+      }
    }
 
    private void readUserFileToMap() throws IOException, ValidationException {
-      BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(userFile)));
+      if (parallelism > 1) {
+         new PipelinedUserFileParser(userFile, parallelism, batchLines).withValidator(validator).withMetrics(metrics)
+               .parseInto(graphBuilder);
+         return;
+      }
 
-      String line = br.readLine();
-      while (line != null) {
-         parseAndAddUserLine(line);
-         line = br.readLine();
+      BufferedReader br = new BufferedReader(new InputStreamReader(CompressedInput.open(userFile, 1)));
+      try {
+         String line = br.readLine();
+         while (line != null) {
+            if (metrics == null) {
+               parseAndAddUserLine(line);
+            } else {
+               long started = System.nanoTime();
+               parseAndAddUserLine(line);
+               metrics.recordUserLine(System.nanoTime() - started);
+            }
+            line = br.readLine();
+         }
+      } finally {
+         br.close();
       }
+   }
 
-      br.close();
+   /*
+    * Parses a single line and adds its edges to the graph
+    */
+   private void parseAndAddUserLine(String line) throws ValidationException {
+      lineEdges.clear();
+      parseUserLine(line, lineEdges, validator);
+      for (int i = 0; i < lineEdges.size(); i += 2) {
+         graphBuilder.addFollow(lineEdges.get(i), lineEdges.get(i + 1));
+      }
    }
 
    /*
     * Parses a single user file line. Format is assumed to be "John follows Doe" where there may or may not be a space
-    * after "follows"
+    * after "follows". Appends each edge to edges as a follower, followed pair, or nothing if the validator rejects the
+    * line. Has no side effects otherwise, so the pipelined reader calls it from many threads.
     */
-   private void parseAndAddUserLine(String line) throws ValidationException {
+   static void parseUserLine(String line, List<String> edges, LineValidator validator) throws ValidationException {
       // Ignore empty lines
       if (line.trim().isEmpty()) {
          return;
@@ -69,56 +185,47 @@ public class UserFileToHashMapReader {
 
       String[] splitLine = StringUtils.splitByWholeSeparator(line, "follows");
       if (splitLine.length < 2 || splitLine[1].trim().isEmpty()) {
-         throw new IllegalArgumentException(
-               "Expected file format is <userName> follows <user>,<user>,... but could not find followers for user: "
-                     + splitLine[0]);
+         validator.reject(line,
+               "Expected file format is <userName> follows <user>,<user>,... but could not find followers for user: ",
+               splitLine[0]);
+         return;
       }
 
       String userWhoFollows = splitLine[0].trim();
 
-      if (!StringUtils.isAlphanumeric(userWhoFollows)) {
-         throw new IllegalArgumentException(
-               "Follower Username is expected to be letters and numbers only, name was: " + userWhoFollows);
+      if (!validator.isValidName(userWhoFollows)) {
+         validator.reject(line, "Follower Username is expected to be letters and numbers only, name was: ",
+               userWhoFollows);
+         return;
       }
 
-      List<String> followedUsers = parseFollowsLine(splitLine[1].trim());
-      // User follows him/herself
-      followedUsers.add(userWhoFollows);
-
-      for (String followedUser : followedUsers) {
-         addUserIfNew(followedUser);
-         followedByMapSet.get(followedUser).add(userWhoFollows);
+      int firstEdge = edges.size();
+      if (!parseFollowsLine(line, userWhoFollows, splitLine[1].trim(), edges, validator)) {
+         edges.subList(firstEdge, edges.size()).clear();
+         return;
       }
+      // User follows him/herself
+      edges.add(userWhoFollows);
+      edges.add(userWhoFollows);
    }
 
    /*
     * Parses the follows line, i.e. the text between "> and <" in the example: "John follows >this,is,the,follows,line<
+    * Returns false if the validator rejected the line.
     */
-   private ArrayList<String> parseFollowsLine(String followsLine) throws ValidationException {
-      ArrayList<String> follows = new ArrayList<String>();
-
+   private static boolean parseFollowsLine(String line, String userWhoFollows, String followsLine, List<String> edges,
+         LineValidator validator) throws ValidationException {
       String[] followsUsers = StringUtils.split(followsLine, ",");
 
       for (String user : followsUsers) {
          user = user.trim();
-         if (!StringUtils.isAlphanumeric(user)) {
-            throw new IllegalArgumentException(
-                  "Follower Username is expected to be letters and numbers only, name was: " + user);
+         if (!validator.isValidName(user)) {
+            validator.reject(line, "Follower Username is expected to be letters and numbers only, name was: ", user);
+            return false;
          }
-         follows.add(user);
-      }
-
-      return follows;
-   }
-
-   /*
-    * Adds a read user, if such user has not appeared as a key in the map: user (key) --> users who follow this user.
-    */
-   private void addUserIfNew(String user) {
-      if (!followedByMapSet.containsKey(user)) {
-         HashSet<String> hashSet = new HashSet<>();
-         hashSet.add(user); // Make sure the new user in the map follows self
-         followedByMapSet.put(user, hashSet);
+         edges.add(userWhoFollows);
+         edges.add(user);
       }
+      return true;
    }
 }
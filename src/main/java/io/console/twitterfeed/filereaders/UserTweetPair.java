@@ -4,10 +4,25 @@ public class UserTweetPair {
 
    private final String user;
    private final String tweet;
+   // When the tweet was posted, from the optional timestamp column of its line, or 0 if the line had none
+   private final long timestamp;
+   // Position of the tweet in the input, used to merge timelines that are built from more than one list. With several
+   // tweets files, the position in the input merged by timestamp.
+   private final long sequence;
 
    public UserTweetPair(String user, String tweet) {
+      this(user, tweet, 0);
+   }
+
+   public UserTweetPair(String user, String tweet, long sequence) {
+      this(user, tweet, 0, sequence);
+   }
+
+   public UserTweetPair(String user, String tweet, long timestamp, long sequence) {
       this.user = user;
       this.tweet = tweet;
+      this.timestamp = timestamp;
+      this.sequence = sequence;
    }
 
    public String getUser() {
@@ -17,4 +32,12 @@ public class UserTweetPair {
    public String getTweet() {
       return tweet;
    }
+
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   public long getSequence() {
+      return sequence;
+   }
 }
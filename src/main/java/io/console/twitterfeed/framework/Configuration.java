@@ -2,4 +2,16 @@ package io.console.twitterfeed.framework;
 
 public class Configuration {
    public static final int MAX_TWEET_LENGTH = 140;
+   public static final int MAX_TIMELINE_LENGTH = Integer.getInteger("twitterfeed.maxTimelineLength", 0);
+   public static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+   public static final int DEFAULT_HOT_AUTHOR_THRESHOLD = 1000;
+   public static final int PARSE_THREADS = Integer.getInteger("twitterfeed.parseThreads", 1);
+   public static final int PARSE_CHUNK_SIZE = 8 * 1024 * 1024;
+   public static final int USER_PARSE_BATCH_LINES = 4096;
+   public static final boolean MEMORY_MAPPED_INPUT = Boolean.getBoolean("twitterfeed.mmap");
+   public static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+   public static final long TAIL_POLL_INTERVAL_MILLIS = 1000;
+   public static final long SPILL_MEMORY_BUDGET = Long.getLong("twitterfeed.spillMemoryBudget", 64L * 1024 * 1024);
+   public static final String SPILL_DIRECTORY = System.getProperty("twitterfeed.spillDirectory",
+         System.getProperty("java.io.tmpdir"));
 }
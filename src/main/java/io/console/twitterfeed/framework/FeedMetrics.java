@@ -0,0 +1,242 @@
+package io.console.twitterfeed.framework;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Timings and counts of a feed run. Every thread that records gets its own AtomicLongArray of slots, padded at both
+ * ends, which only it writes to. Parallel parsers can share one instance without contending on, or falsely sharing,
+ * a cache line, and recording is a ThreadLocal lookup and an ordered store. Reads add up the slots of every thread
+ * that has recorded. Readers only record when given an instance through withMetrics(), so runs without metrics pay one
+ * null check per line.
+ */
+public class FeedMetrics implements FeedMetricsMXBean {
+
+   public static final String OBJECT_NAME = "io.console.twitterfeed:type=FeedMetrics";
+
+   public enum Stage {
+      READ_USER_FILE("readUserFileToMap"), ADD_ALL_USERS("addAllUsers"), READ_TWEETS_FILE("readTweetsFileToMap"),
+      RENDER("getPrintableOutput");
+
+      private final String displayName;
+
+      Stage(String displayName) {
+         this.displayName = displayName;
+      }
+   }
+
+   public enum Counter {
+      USER_LINES("userLines"), FOLLOW_EDGES("followEdges"), TWEET_LINES("tweetLines"), TWEETS("tweets"),
+      UNKNOWN_AUTHOR_TWEETS("unknownAuthorTweets"), FAN_OUT_APPENDS("fanOutAppends"), BYTES_WRITTEN("bytesWritten");
+
+      private final String displayName;
+
+      Counter(String displayName) {
+         this.displayName = displayName;
+      }
+   }
+
+   // Latencies are counted in power of two buckets: bucket i holds [2^(i-1), 2^i) nanoseconds
+   private static final int BUCKETS = 64;
+   private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+   // A thread's slots: a cache line of padding, stage times, counters, both latency histograms, and padding again
+   private static final int PADDING = 8;
+   private static final int STAGE_SLOTS = PADDING;
+   private static final int COUNTER_SLOTS = STAGE_SLOTS + Stage.values().length;
+   private static final int USER_LATENCY_SLOTS = COUNTER_SLOTS + Counter.values().length;
+   private static final int TWEET_LATENCY_SLOTS = USER_LATENCY_SLOTS + BUCKETS;
+   private static final int SLOTS = TWEET_LATENCY_SLOTS + BUCKETS + PADDING;
+
+   // The slots of every thread that has recorded, kept after the thread ends
+   private final List<AtomicLongArray> threadSlots = new CopyOnWriteArrayList<>();
+   private final ThreadLocal<AtomicLongArray> slots = new ThreadLocal<AtomicLongArray>() {
+      @Override
+      protected AtomicLongArray initialValue() {
+         AtomicLongArray threadSlot = new AtomicLongArray(SLOTS);
+         threadSlots.add(threadSlot);
+         return threadSlot;
+      }
+   };
+
+   public void addStageTime(Stage stage, long nanos) {
+      add(slots.get(), STAGE_SLOTS + stage.ordinal(), nanos);
+   }
+
+   public void add(Counter counter, long amount) {
+      add(slots.get(), COUNTER_SLOTS + counter.ordinal(), amount);
+   }
+
+   public void increment(Counter counter) {
+      add(slots.get(), COUNTER_SLOTS + counter.ordinal(), 1);
+   }
+
+   public long get(Counter counter) {
+      return sum(COUNTER_SLOTS + counter.ordinal());
+   }
+
+   public long get(Stage stage) {
+      return sum(STAGE_SLOTS + stage.ordinal());
+   }
+
+   /*
+    * Counts a user file line and how long it took to parse and add.
+    */
+   public void recordUserLine(long nanos) {
+      AtomicLongArray own = slots.get();
+      add(own, COUNTER_SLOTS + Counter.USER_LINES.ordinal(), 1);
+      add(own, USER_LATENCY_SLOTS + bucket(nanos), 1);
+   }
+
+   /*
+    * Counts a tweets file line and how long it took to parse and fan out.
+    */
+   public void recordTweetLine(long nanos) {
+      AtomicLongArray own = slots.get();
+      add(own, COUNTER_SLOTS + Counter.TWEET_LINES.ordinal(), 1);
+      add(own, TWEET_LATENCY_SLOTS + bucket(nanos), 1);
+   }
+
+   /*
+    * Wraps a stream so every byte written through it is counted as BYTES_WRITTEN.
+    */
+   public OutputStream countBytes(OutputStream stream) {
+      return new FilterOutputStream(stream) {
+         @Override
+         public void write(int b) throws IOException {
+            out.write(b);
+            increment(Counter.BYTES_WRITTEN);
+         }
+
+         @Override
+         public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            add(Counter.BYTES_WRITTEN, len);
+         }
+      };
+   }
+
+   /*
+    * Publishes these metrics on the platform MBean server, replacing any earlier instance.
+    */
+   public void registerMBean() throws JMException {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+         server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+   }
+
+   @Override
+   public Map<String, Long> getStageNanos() {
+      Map<String, Long> stages = new LinkedHashMap<>();
+      for (Stage stage : Stage.values()) {
+         stages.put(stage.displayName, get(stage));
+      }
+      return stages;
+   }
+
+   @Override
+   public Map<String, Long> getCounters() {
+      Map<String, Long> values = new LinkedHashMap<>();
+      for (Counter counter : Counter.values()) {
+         values.put(counter.displayName, get(counter));
+      }
+      return values;
+   }
+
+   @Override
+   public Map<String, Long> getLineLatencyPercentiles() {
+      Map<String, Long> percentiles = new LinkedHashMap<>();
+      addPercentiles(percentiles, "userLine", USER_LATENCY_SLOTS);
+      addPercentiles(percentiles, "tweetLine", TWEET_LATENCY_SLOTS);
+      return percentiles;
+   }
+
+   /*
+    * All metrics as a single line of JSON.
+    */
+   @Override
+   public String getSummary() {
+      StringBuilder json = new StringBuilder("{");
+      appendObject(json, "stageNanos", getStageNanos());
+      json.append(',');
+      appendObject(json, "counters", getCounters());
+      json.append(',');
+      appendObject(json, "lineLatencyNanos", getLineLatencyPercentiles());
+      return json.append('}').toString();
+   }
+
+   private static void appendObject(StringBuilder json, String name, Map<String, Long> values) {
+      json.append('"').append(name).append("\":{");
+      boolean first = true;
+      for (Map.Entry<String, Long> entry : values.entrySet()) {
+         if (!first) {
+            json.append(',');
+         }
+         first = false;
+         json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+      }
+      json.append('}');
+   }
+
+   /*
+    * Only the owning thread writes to its slots, so a read and an ordered store are enough to add to one.
+    */
+   private static void add(AtomicLongArray own, int slot, long amount) {
+      own.lazySet(slot, own.get(slot) + amount);
+   }
+
+   private long sum(int slot) {
+      long total = 0;
+      for (AtomicLongArray threadSlot : threadSlots) {
+         total += threadSlot.get(slot);
+      }
+      return total;
+   }
+
+   /*
+    * Adds the given percentiles of the histogram whose buckets start at firstSlot, each as the upper bound of the
+    * bucket it falls in.
+    */
+   private void addPercentiles(Map<String, Long> percentiles, String prefix, int firstSlot) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+         counts[i] = sum(firstSlot + i);
+         total += counts[i];
+      }
+
+      for (double percentile : PERCENTILES) {
+         long rank = (long) Math.ceil(percentile * total);
+         long seen = 0;
+         int bucket = 0;
+         while (bucket < BUCKETS - 1 && seen + counts[bucket] < rank) {
+            seen += counts[bucket++];
+         }
+         long upperBound = total == 0 ? 0 : (bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1);
+         percentiles.put(prefix + "P" + percentileName(percentile), upperBound);
+      }
+   }
+
+   private static String percentileName(double percentile) {
+      String digits = Double.toString(percentile * 100);
+      return digits.endsWith(".0") ? digits.substring(0, digits.length() - 2) : digits.replace('.', '_');
+   }
+
+   private static int bucket(long nanos) {
+      return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+   }
+}
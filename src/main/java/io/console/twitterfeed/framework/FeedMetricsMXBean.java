@@ -0,0 +1,26 @@
+package io.console.twitterfeed.framework;
+
+import java.util.Map;
+
+/*
+ * What FeedMetrics exposes over JMX.
+ */
+public interface FeedMetricsMXBean {
+
+   /*
+    * Time spent in each stage, in nanoseconds, keyed by stage name.
+    */
+   Map<String, Long> getStageNanos();
+
+   /*
+    * Lines, edges, tweets, fan-out appends and bytes written so far, keyed by counter name.
+    */
+   Map<String, Long> getCounters();
+
+   /*
+    * Per-line parse latency percentiles of the user and tweets files, in nanoseconds.
+    */
+   Map<String, Long> getLineLatencyPercentiles();
+
+   String getSummary();
+}
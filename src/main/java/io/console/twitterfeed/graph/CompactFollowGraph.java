@@ -0,0 +1,229 @@
+package io.console.twitterfeed.graph;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * The follow graph in compressed sparse row form. Users are interned to int ids by a UserDictionary, and the
+ * followers of user id u are followerIds[followerOffsets[u]] up to followerIds[followerOffsets[u + 1]], sorted and
+ * without duplicates. That is two int arrays for the whole graph, instead of a HashSet and a HashMap.Node per edge.
+ * The graph is on the heap whatever the timeline engine, 4 bytes per edge and per user plus the dictionary; the memory
+ * budget of a SpillingFanOutEngine comes on top of it.
+ */
+public class CompactFollowGraph implements FollowGraph {
+
+   private final UserDictionary users;
+   private final int[] followerOffsets;
+   private final int[] followerIds;
+
+   private CompactFollowGraph(UserDictionary users, int[] followerOffsets, int[] followerIds) {
+      this.users = users;
+      this.followerOffsets = followerOffsets;
+      this.followerIds = followerIds;
+   }
+
+   public int getUserCount() {
+      return users.size();
+   }
+
+   public int getEdgeCount() {
+      return followerOffsets[users.size()];
+   }
+
+   /*
+    * Returns the id of the user, or -1 if the user is unknown.
+    */
+   public int getId(String user) {
+      return users.getId(user);
+   }
+
+   public String getName(int id) {
+      return users.getName(id);
+   }
+
+   public int getFollowerCount(int id) {
+      return followerOffsets[id + 1] - followerOffsets[id];
+   }
+
+   /*
+    * Index of the first follower of the user in getFollowerIds(), the followers end at the start of id + 1.
+    */
+   public int getFollowersStart(int id) {
+      return followerOffsets[id];
+   }
+
+   public int getFollowersEnd(int id) {
+      return followerOffsets[id + 1];
+   }
+
+   /*
+    * The CSR edge array, shared and not to be modified.
+    */
+   public int[] getFollowerIds() {
+      return followerIds;
+   }
+
+   @Override
+   public Collection<String> getUsers() {
+      return users.getNames();
+   }
+
+   @Override
+   public Collection<String> getFollowers(String user) {
+      final int id = users.getId(user);
+      if (id < 0) {
+         return null;
+      }
+      return new AbstractCollection<String>() {
+         @Override
+         public Iterator<String> iterator() {
+            return new FollowerIterator(followerOffsets[id], followerOffsets[id + 1]);
+         }
+
+         @Override
+         public int size() {
+            return getFollowerCount(id);
+         }
+      };
+   }
+
+   @Override
+   public int getFollowerCount(String user) {
+      int id = users.getId(user);
+      return id < 0 ? -1 : getFollowerCount(id);
+   }
+
+   /*
+    * Materializes the graph as a Map of Username --> Users who follow this user.
+    */
+   public HashMap<String, HashSet<String>> toFollowedByMapSet() {
+      HashMap<String, HashSet<String>> followedByMapSet = new HashMap<>(users.size() * 2);
+      for (int id = 0; id < users.size(); id++) {
+         HashSet<String> followers = new HashSet<>(getFollowerCount(id) * 2);
+         for (int i = followerOffsets[id]; i < followerOffsets[id + 1]; i++) {
+            followers.add(users.getName(followerIds[i]));
+         }
+         followedByMapSet.put(users.getName(id), followers);
+      }
+      return followedByMapSet;
+   }
+
+   private class FollowerIterator implements Iterator<String> {
+
+      private int next;
+      private final int end;
+
+      FollowerIterator(int start, int end) {
+         this.next = start;
+         this.end = end;
+      }
+
+      @Override
+      public boolean hasNext() {
+         return next < end;
+      }
+
+      @Override
+      public String next() {
+         if (next >= end) {
+            throw new NoSuchElementException();
+         }
+         return users.getName(followerIds[next++]);
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   /*
+    * Collects edges as two parallel int arrays while the user file is parsed, then sorts them into CSR form.
+    */
+   public static class Builder {
+
+      private final UserDictionary users = new UserDictionary();
+
+      // Edge i is followedIds[i] <-- followerIds[i]
+      private int[] followedIds = new int[64];
+      private int[] followerIds = new int[64];
+      private int edgeCount = 0;
+
+      /*
+       * Records that follower follows followed. Every user is also made to follow him/herself.
+       */
+      public Builder addFollow(String follower, String followed) {
+         int followerId = addUser(follower);
+         int followedId = addUser(followed);
+         addEdge(followedId, followerId);
+         return this;
+      }
+
+      /*
+       * Interns the user, making a new user follow him/herself. Returns the user's id.
+       */
+      public int addUser(String user) {
+         int before = users.size();
+         int id = users.intern(user);
+         if (users.size() > before) {
+            addEdge(id, id);
+         }
+         return id;
+      }
+
+      public int getEdgeCount() {
+         return edgeCount;
+      }
+
+      public CompactFollowGraph build() {
+         int userCount = users.size();
+
+         // Counting sort of the edges by followed user
+         int[] offsets = new int[userCount + 1];
+         for (int i = 0; i < edgeCount; i++) {
+            offsets[followedIds[i] + 1]++;
+         }
+         for (int id = 0; id < userCount; id++) {
+            offsets[id + 1] += offsets[id];
+         }
+         int[] edges = new int[edgeCount];
+         int[] fill = Arrays.copyOf(offsets, userCount);
+         for (int i = 0; i < edgeCount; i++) {
+            edges[fill[followedIds[i]]++] = followerIds[i];
+         }
+
+         // Sort each row and squeeze out duplicates, compacting the edge array in place
+         int write = 0;
+         int rowStart = 0;
+         for (int id = 0; id < userCount; id++) {
+            int rowEnd = offsets[id + 1];
+            Arrays.sort(edges, rowStart, rowEnd);
+            offsets[id] = write;
+            for (int i = rowStart; i < rowEnd; i++) {
+               if (i == rowStart || edges[i] != edges[i - 1]) {
+                  edges[write++] = edges[i];
+               }
+            }
+            rowStart = rowEnd;
+         }
+         offsets[userCount] = write;
+
+         return new CompactFollowGraph(users, offsets, Arrays.copyOf(edges, write));
+      }
+
+      private void addEdge(int followedId, int followerId) {
+         if (edgeCount == followedIds.length) {
+            followedIds = Arrays.copyOf(followedIds, edgeCount * 2);
+            followerIds = Arrays.copyOf(followerIds, edgeCount * 2);
+         }
+         followedIds[edgeCount] = followedId;
+         followerIds[edgeCount] = followerId;
+         edgeCount++;
+      }
+   }
+}
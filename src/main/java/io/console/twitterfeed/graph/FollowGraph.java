@@ -0,0 +1,24 @@
+package io.console.twitterfeed.graph;
+
+import java.util.Collection;
+
+/*
+ * Read-only view of who follows whom. Every user follows him/herself.
+ */
+public interface FollowGraph {
+
+   /*
+    * Every user that appeared in the user file, either following or followed.
+    */
+   Collection<String> getUsers();
+
+   /*
+    * The users who follow the given user, or null if the user is unknown.
+    */
+   Collection<String> getFollowers(String user);
+
+   /*
+    * The number of users who follow the given user, or -1 if the user is unknown.
+    */
+   int getFollowerCount(String user);
+}
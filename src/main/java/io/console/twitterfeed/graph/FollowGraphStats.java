@@ -0,0 +1,394 @@
+package io.console.twitterfeed.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Fan-out statistics of a follow graph, for capacity planning and for choosing how tweets are delivered: how follower
+ * counts are distributed, who the authors with the most followers are, how many timeline appends a tweets file will
+ * cost and roughly how much memory the graph and the timelines will take.
+ *
+ * compute() walks the users in ranges on a fork-join pool. Each range keeps its follower counts and a bounded heap of
+ * its top authors, so only topK authors per range are ever compared, and the percentiles come from counting follower
+ * counts rather than sorting them. A CompactFollowGraph is walked by id over its offsets, without a lookup per user.
+ */
+public class FollowGraphStats {
+
+   // Fewest followers a hot author may have, below which fanning out on write is always cheap
+   private static final int MIN_HOT_FOLLOWERS = 100;
+   // Hot authors have at least this many times the median follower count
+   private static final int HOT_SKEW = 10;
+   private static final double HOT_PERCENTILE = 0.99;
+
+   private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+   private static final int RANGES_PER_THREAD = 4;
+
+   // Rough sizes on a 64 bit JVM with compressed references: a String and its chars, a user of HashMapFollowGraph (its
+   // map entry and HashSet) and one of its follow edges (a HashSet entry), CompactFollowGraph's offset and dictionary
+   // entry and its edge, a stored tweet (UserTweetPair and tweet String) and a timeline reference with list slack
+   private static final long STRING_BYTES = 56;
+   private static final long CHAR_BYTES = 2;
+   private static final long HASH_MAP_USER_BYTES = 128;
+   private static final long HASH_MAP_EDGE_BYTES = 40;
+   private static final long COMPACT_USER_BYTES = 16;
+   private static final long COMPACT_EDGE_BYTES = 4;
+   private static final long TWEET_BYTES = 32 + STRING_BYTES;
+   private static final long AVERAGE_TWEET_CHARS = 70;
+   private static final long TIMELINE_REFERENCE_BYTES = 6;
+
+   private final FollowGraph graph;
+   private int threads = Runtime.getRuntime().availableProcessors();
+   private int topK = 10;
+   // Author --> tweets, to estimate fan-out from, or null
+   private Map<String, Long> tweetCounts = null;
+
+   private int userCount = 0;
+   private long edgeCount = 0;
+   private long nameChars = 0;
+   private final Map<String, Long> followerPercentiles = new LinkedHashMap<>();
+   private final Map<String, Integer> topAuthors = new LinkedHashMap<>();
+   private int suggestedHotAuthorThreshold = Integer.MAX_VALUE;
+   private long tweets = -1;
+   private long fanOutAppends = -1;
+   private long hybridFanOutAppends = -1;
+
+   public FollowGraphStats(FollowGraph graph) {
+      this.graph = graph;
+   }
+
+   public FollowGraphStats withThreads(int statsThreads) {
+      this.threads = statsThreads;
+      return this;
+   }
+
+   /*
+    * How many of the most followed authors to list, 10 by default.
+    */
+   public FollowGraphStats withTopK(int k) {
+      this.topK = k;
+      return this;
+   }
+
+   /*
+    * Tweets per author, such as TweetFileToTreeMapReader.countTweetsByAuthor() returns, to estimate the fan-out of
+    * reading them. Authors missing from the graph cost nothing, as they have no followers.
+    */
+   public FollowGraphStats withTweetCounts(Map<String, Long> tweetsByAuthor) {
+      this.tweetCounts = tweetsByAuthor;
+      return this;
+   }
+
+   public FollowGraphStats compute() {
+      CompactFollowGraph compact = graph instanceof CompactFollowGraph ? (CompactFollowGraph) graph : null;
+      String[] users = compact != null ? null : graph.getUsers().toArray(new String[0]);
+      userCount = compact != null ? compact.getUserCount() : users.length;
+
+      int[] followerCounts = new int[userCount];
+      List<RangeStats> ranges = new ArrayList<>();
+      int rangeCount = Math.max(1, Math.min(userCount, threads * RANGES_PER_THREAD));
+      int rangeSize = (userCount + rangeCount - 1) / Math.max(1, rangeCount);
+      for (int start = 0; start < userCount; start += rangeSize) {
+         ranges.add(new RangeStats(compact, users, followerCounts, start, Math.min(userCount, start + rangeSize)));
+      }
+      runAll(ranges);
+
+      int maxFollowers = 0;
+      PriorityQueue<Author> top = new PriorityQueue<>();
+      edgeCount = 0;
+      nameChars = 0;
+      for (RangeStats range : ranges) {
+         edgeCount += range.edges;
+         nameChars += range.nameChars;
+         maxFollowers = Math.max(maxFollowers, range.maxFollowers);
+         for (Author author : range.top) {
+            offer(top, author);
+         }
+      }
+
+      List<Author> byFollowers = new ArrayList<>(top);
+      Collections.sort(byFollowers, Collections.reverseOrder());
+      topAuthors.clear();
+      for (Author author : byFollowers) {
+         topAuthors.put(author.name, author.followers);
+      }
+
+      long[] usersByFollowerCount = new long[maxFollowers + 1];
+      for (int count : followerCounts) {
+         usersByFollowerCount[count]++;
+      }
+      followerPercentiles.clear();
+      for (double percentile : PERCENTILES) {
+         long followers = percentile(usersByFollowerCount, percentile);
+         followerPercentiles.put("p" + percentileName(percentile), followers);
+      }
+      followerPercentiles.put("max", (long) maxFollowers);
+
+      int threshold = Math.max(MIN_HOT_FOLLOWERS, Math.max(HOT_SKEW * percentile(usersByFollowerCount, 0.5),
+            percentile(usersByFollowerCount, HOT_PERCENTILE)));
+      suggestedHotAuthorThreshold = threshold <= maxFollowers ? threshold : Integer.MAX_VALUE;
+
+      if (tweetCounts != null) {
+         estimateFanOut();
+      }
+      return this;
+   }
+
+   public int getUserCount() {
+      return userCount;
+   }
+
+   /*
+    * Follow edges, counting the one of every user to him/herself.
+    */
+   public long getEdgeCount() {
+      return edgeCount;
+   }
+
+   /*
+    * Follower counts at the 50th, 90th, 99th and 99.9th percentile ("p50" ... "p99_9"), and the largest ("max").
+    */
+   public Map<String, Long> getFollowerPercentiles() {
+      return followerPercentiles;
+   }
+
+   /*
+    * The topK authors with the most followers, most followed first, ties in name order.
+    */
+   public Map<String, Integer> getTopAuthors() {
+      return topAuthors;
+   }
+
+   /*
+    * A threshold for HybridTimelineEngine: authors with at least this many followers are fanned out on read. It is
+    * the 99th percentile of follower counts, but at least HOT_SKEW times the median and MIN_HOT_FOLLOWERS, so graphs
+    * where nobody stands out have no hot authors. Integer.MAX_VALUE if no author reaches it.
+    */
+   public int getSuggestedHotAuthorThreshold() {
+      return suggestedHotAuthorThreshold;
+   }
+
+   public boolean hasHotAuthors() {
+      return suggestedHotAuthorThreshold != Integer.MAX_VALUE;
+   }
+
+   /*
+    * Timeline appends a fan-out-on-write engine would make for the tweet counts, or -1 without tweet counts. Invalid
+    * lines and a maximum timeline length would make the real number lower.
+    */
+   public long getEstimatedFanOutAppends() {
+      return fanOutAppends;
+   }
+
+   /*
+    * Timeline appends the hybrid engine would make with the suggested threshold, hot authors costing one per tweet,
+    * or -1 without tweet counts.
+    */
+   public long getEstimatedHybridFanOutAppends() {
+      return hybridFanOutAppends;
+   }
+
+   /*
+    * Rough heap bytes of the graph as HashMapFollowGraph and as CompactFollowGraph, and, given tweet counts, of the
+    * timelines of a fan-out-on-write engine and of the hybrid one.
+    */
+   public Map<String, Long> getProjectedMemory() {
+      Map<String, Long> bytes = new LinkedHashMap<>();
+      long names = userCount * STRING_BYTES + nameChars * CHAR_BYTES;
+      bytes.put("hashMapGraphBytes", names + userCount * HASH_MAP_USER_BYTES + edgeCount * HASH_MAP_EDGE_BYTES);
+      bytes.put("compactGraphBytes", names + userCount * COMPACT_USER_BYTES + edgeCount * COMPACT_EDGE_BYTES);
+      if (tweets >= 0) {
+         long stored = tweets * (TWEET_BYTES + AVERAGE_TWEET_CHARS * CHAR_BYTES);
+         bytes.put("fanOutTimelineBytes", stored + fanOutAppends * TIMELINE_REFERENCE_BYTES);
+         bytes.put("hybridTimelineBytes", stored + hybridFanOutAppends * TIMELINE_REFERENCE_BYTES);
+      }
+      return bytes;
+   }
+
+   /*
+    * Everything above as one JSON object, in the manner of FeedMetrics.getSummary().
+    */
+   public String getSummary() {
+      StringBuilder json = new StringBuilder("{");
+      json.append("\"users\":").append(userCount).append(",\"followEdges\":").append(edgeCount).append(',');
+      appendObject(json, "followerCounts", followerPercentiles);
+      json.append(',');
+      appendObject(json, "topAuthors", topAuthors);
+      json.append(",\"suggestedHotAuthorThreshold\":");
+      json.append(hasHotAuthors() ? Integer.toString(suggestedHotAuthorThreshold) : "null");
+      if (tweets >= 0) {
+         json.append(",\"tweets\":").append(tweets).append(",\"estimatedFanOutAppends\":").append(fanOutAppends);
+         json.append(",\"estimatedHybridFanOutAppends\":").append(hybridFanOutAppends);
+      }
+      json.append(',');
+      appendObject(json, "projectedMemory", getProjectedMemory());
+      return json.append('}').toString();
+   }
+
+   private void estimateFanOut() {
+      tweets = 0;
+      fanOutAppends = 0;
+      hybridFanOutAppends = 0;
+      for (Map.Entry<String, Long> entry : tweetCounts.entrySet()) {
+         long count = entry.getValue();
+         int followers = Math.max(0, graph.getFollowerCount(entry.getKey()));
+         tweets += count;
+         fanOutAppends += count * followers;
+         hybridFanOutAppends += followers >= suggestedHotAuthorThreshold ? count : count * followers;
+      }
+   }
+
+   private void runAll(List<RangeStats> ranges) {
+      if (threads <= 1 || ranges.size() <= 1) {
+         for (RangeStats range : ranges) {
+            range.call();
+         }
+         return;
+      }
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         List<Future<Void>> done = new ArrayList<>();
+         for (RangeStats range : ranges) {
+            done.add(pool.submit(range));
+         }
+         for (Future<Void> range : done) {
+            await(range);
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   private static void await(Future<Void> range) {
+      try {
+         range.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while computing follow graph statistics", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IllegalStateException(cause);
+      }
+   }
+
+   /*
+    * Keeps the topK greatest authors in a min-heap.
+    */
+   private void offer(PriorityQueue<Author> top, Author author) {
+      if (top.size() < topK) {
+         top.add(author);
+      } else if (topK > 0 && author.compareTo(top.peek()) > 0) {
+         top.poll();
+         top.add(author);
+      }
+   }
+
+   /*
+    * The follower count at the given percentile, by nearest rank.
+    */
+   private static int percentile(long[] usersByFollowerCount, double percentile) {
+      long total = 0;
+      for (long users : usersByFollowerCount) {
+         total += users;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile * total));
+      long seen = 0;
+      int count = 0;
+      while (count < usersByFollowerCount.length - 1 && seen + usersByFollowerCount[count] < rank) {
+         seen += usersByFollowerCount[count++];
+      }
+      return count;
+   }
+
+   private static String percentileName(double percentile) {
+      String digits = Double.toString(percentile * 100);
+      return digits.endsWith(".0") ? digits.substring(0, digits.length() - 2) : digits.replace('.', '_');
+   }
+
+   private static void appendObject(StringBuilder json, String name, Map<String, ? extends Number> values) {
+      json.append('"').append(name).append("\":{");
+      boolean first = true;
+      for (Map.Entry<String, ? extends Number> entry : values.entrySet()) {
+         if (!first) {
+            json.append(',');
+         }
+         first = false;
+         json.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+      }
+      json.append('}');
+   }
+
+   /*
+    * Ordered by follower count, then by name backwards, so the greatest is the most followed and first by name.
+    */
+   private static class Author implements Comparable<Author> {
+
+      final String name;
+      final int followers;
+
+      Author(String name, int followers) {
+         this.name = name;
+         this.followers = followers;
+      }
+
+      @Override
+      public int compareTo(Author other) {
+         int byFollowers = Integer.compare(followers, other.followers);
+         return byFollowers != 0 ? byFollowers : other.name.compareTo(name);
+      }
+   }
+
+   /*
+    * Walks the users in [start, end), writing their follower counts and keeping the topK of them.
+    */
+   private class RangeStats implements Callable<Void> {
+
+      private final CompactFollowGraph compact;
+      private final String[] users;
+      private final int[] followerCounts;
+      private final int start;
+      private final int end;
+
+      final PriorityQueue<Author> top = new PriorityQueue<>();
+      long edges = 0;
+      long nameChars = 0;
+      int maxFollowers = 0;
+
+      RangeStats(CompactFollowGraph compact, String[] users, int[] followerCounts, int start, int end) {
+         this.compact = compact;
+         this.users = users;
+         this.followerCounts = followerCounts;
+         this.start = start;
+         this.end = end;
+      }
+
+      @Override
+      public Void call() {
+         for (int i = start; i < end; i++) {
+            String name = compact != null ? compact.getName(i) : users[i];
+            int followers = Math.max(0, compact != null ? compact.getFollowerCount(i) : graph.getFollowerCount(name));
+            followerCounts[i] = followers;
+            edges += followers;
+            nameChars += name.length();
+            maxFollowers = Math.max(maxFollowers, followers);
+            if (topK > 0 && (top.size() < topK || followers >= top.peek().followers)) {
+               offer(top, new Author(name, followers));
+            }
+         }
+         return null;
+      }
+   }
+}
@@ -0,0 +1,34 @@
+package io.console.twitterfeed.graph;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * Adapts the followedByMapSet built by earlier versions of the user file reader.
+ */
+public class HashMapFollowGraph implements FollowGraph {
+
+   // A Map of Username --> Users who follow this user
+   private final HashMap<String, HashSet<String>> followedByMapSet;
+
+   public HashMapFollowGraph(HashMap<String, HashSet<String>> followedByMapSet) {
+      this.followedByMapSet = followedByMapSet;
+   }
+
+   @Override
+   public Collection<String> getUsers() {
+      return followedByMapSet.keySet();
+   }
+
+   @Override
+   public Collection<String> getFollowers(String user) {
+      return followedByMapSet.get(user);
+   }
+
+   @Override
+   public int getFollowerCount(String user) {
+      HashSet<String> followers = followedByMapSet.get(user);
+      return followers == null ? -1 : followers.size();
+   }
+}
@@ -0,0 +1,93 @@
+package io.console.twitterfeed.graph;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/*
+ * A Bloom filter of the users of a follow graph, so a tweet by someone missing from the graph can be told from the
+ * bytes of the author's name alone, without building a String or probing a hash table. Ten bits and three probes per
+ * user give about one false positive in a hundred names, which contains() then settles against the graph itself.
+ * Read only once built, so any number of threads can share one.
+ */
+public class KnownAuthorFilter {
+
+   private static final int BITS_PER_USER = 10;
+   private static final int PROBES = 3;
+   private static final int MAX_BITS = 1 << 30;
+
+   private final FollowGraph graph;
+   private final long[] bits;
+   private final int mask;
+
+   public KnownAuthorFilter(FollowGraph graph) {
+      this.graph = graph;
+      Collection<String> users = graph.getUsers();
+      long wanted = Math.min(MAX_BITS, Math.max(Long.SIZE, (long) users.size() * BITS_PER_USER));
+      int size = Integer.highestOneBit((int) wanted);
+      if (size < wanted) {
+         size <<= 1;
+      }
+      this.bits = new long[size / Long.SIZE];
+      this.mask = size - 1;
+
+      for (String user : users) {
+         int hash = hash(user);
+         int step = step(hash);
+         for (int i = 0; i < PROBES; i++) {
+            int bit = (hash + i * step) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+         }
+      }
+   }
+
+   /*
+    * False if the name in bytes [start, end) of the buffer, which must be ASCII, is certainly not a user of the graph.
+    */
+   public boolean mightContain(ByteBuffer buffer, int start, int end) {
+      int hash = 0x811C9DC5;
+      for (int i = start; i < end; i++) {
+         hash = (hash ^ buffer.get(i)) * 0x01000193;
+      }
+      return mightContain(hash ^ (hash >>> 16));
+   }
+
+   public boolean mightContain(String name) {
+      return mightContain(hash(name));
+   }
+
+   /*
+    * True if the name is a user of the graph, asking the graph only when the filter cannot rule the name out.
+    */
+   public boolean contains(String name) {
+      return mightContain(name) && graph.getFollowerCount(name) >= 0;
+   }
+
+   private boolean mightContain(int hash) {
+      int step = step(hash);
+      for (int i = 0; i < PROBES; i++) {
+         int bit = (hash + i * step) & mask;
+         if ((bits[bit >>> 6] & 1L << bit) == 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /*
+    * FNV-1a over the chars, which for an ASCII name is the hash of its bytes.
+    */
+   private static int hash(String name) {
+      int hash = 0x811C9DC5;
+      for (int i = 0; i < name.length(); i++) {
+         hash = (hash ^ name.charAt(i)) * 0x01000193;
+      }
+      return hash ^ (hash >>> 16);
+   }
+
+   /*
+    * The second hash of double hashing, odd so every probe lands on a different bit.
+    */
+   private static int step(int hash) {
+      return Integer.rotateLeft(hash * 0x9E3779B9, 16) | 1;
+   }
+}
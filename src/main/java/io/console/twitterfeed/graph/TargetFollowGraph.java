@@ -0,0 +1,115 @@
+package io.console.twitterfeed.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * The part of a follow graph that a few target readers can see: the authors any of them follow, each with only the
+ * targets among their followers. Timelines built from it exist for the targets alone, and tweets by any other
+ * author can be skipped without being parsed, see getAuthors(). Built in one pass over the edges of the whole graph,
+ * but holds only the edges into the targets, so it is small when they are few.
+ */
+public class TargetFollowGraph implements FollowGraph {
+
+   // Author --> the target readers who follow them
+   private final HashMap<String, List<String>> targetFollowersByAuthor = new HashMap<>();
+
+   // The targets the graph knows, alphabetically
+   private final TreeSet<String> readers = new TreeSet<>();
+
+   public TargetFollowGraph(FollowGraph graph, Collection<String> targetReaders) {
+      if (graph instanceof CompactFollowGraph) {
+         addCompactEdges((CompactFollowGraph) graph, targetReaders);
+      } else {
+         addEdges(graph, targetReaders);
+      }
+      for (String reader : targetReaders) {
+         if (graph.getFollowerCount(reader) >= 0) {
+            readers.add(reader);
+         }
+      }
+   }
+
+   /*
+    * The target readers that are in the graph. Everyone follows themselves, so each of them is an author too.
+    */
+   public Collection<String> getReaders() {
+      return readers;
+   }
+
+   /*
+    * The authors followed by at least one target reader; tweets by anyone else reach none of the targets.
+    */
+   public Set<String> getAuthors() {
+      return targetFollowersByAuthor.keySet();
+   }
+
+   /*
+    * The authors, which include every target reader.
+    */
+   @Override
+   public Collection<String> getUsers() {
+      return targetFollowersByAuthor.keySet();
+   }
+
+   /*
+    * The target readers who follow the author, or null if none of them do.
+    */
+   @Override
+   public Collection<String> getFollowers(String user) {
+      return targetFollowersByAuthor.get(user);
+   }
+
+   @Override
+   public int getFollowerCount(String user) {
+      List<String> followers = targetFollowersByAuthor.get(user);
+      return followers == null ? -1 : followers.size();
+   }
+
+   private void addEdges(FollowGraph graph, Collection<String> targetReaders) {
+      Set<String> targets = new HashSet<>(targetReaders);
+      for (String author : graph.getUsers()) {
+         for (String follower : graph.getFollowers(author)) {
+            if (targets.contains(follower)) {
+               addEdge(author, follower);
+            }
+         }
+      }
+   }
+
+   /*
+    * Marks the targets by id and walks the follower arrays, so no name is looked at unless it is part of an edge kept.
+    */
+   private void addCompactEdges(CompactFollowGraph graph, Collection<String> targetReaders) {
+      boolean[] isTarget = new boolean[graph.getUserCount()];
+      for (String reader : targetReaders) {
+         int id = graph.getId(reader);
+         if (id >= 0) {
+            isTarget[id] = true;
+         }
+      }
+
+      int[] followerIds = graph.getFollowerIds();
+      for (int author = 0; author < graph.getUserCount(); author++) {
+         for (int i = graph.getFollowersStart(author); i < graph.getFollowersEnd(author); i++) {
+            if (isTarget[followerIds[i]]) {
+               addEdge(graph.getName(author), graph.getName(followerIds[i]));
+            }
+         }
+      }
+   }
+
+   private void addEdge(String author, String follower) {
+      List<String> followers = targetFollowersByAuthor.get(author);
+      if (followers == null) {
+         followers = new ArrayList<>(1);
+         targetFollowersByAuthor.put(author, followers);
+      }
+      followers.add(follower);
+   }
+}
@@ -0,0 +1,106 @@
+package io.console.twitterfeed.graph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Maps user names to dense int ids, 0, 1, 2... in order of first appearance. Open addressing over a plain int[] keeps
+ * it to two arrays instead of a HashMap.Node and a boxed Integer per user.
+ */
+public class UserDictionary {
+
+   private static final int INITIAL_CAPACITY = 16;
+
+   // id --> name
+   private String[] names = new String[INITIAL_CAPACITY];
+   private int size = 0;
+
+   // Hash table of id + 1, 0 marks an empty slot. Its length is always a power of two.
+   private int[] table = new int[INITIAL_CAPACITY * 2];
+
+   /*
+    * Returns the id of the name, assigning the next free id if it is new.
+    */
+   public int intern(String name) {
+      int slot = findSlot(name);
+      if (table[slot] != 0) {
+         return table[slot] - 1;
+      }
+
+      if (size == names.length) {
+         names = Arrays.copyOf(names, size * 2);
+      }
+      names[size] = name;
+      table[slot] = ++size;
+
+      if (size * 2 > table.length) {
+         rehash();
+      }
+      return size - 1;
+   }
+
+   /*
+    * Returns the id of the name, or -1 if it has never been interned.
+    */
+   public int getId(String name) {
+      return table[findSlot(name)] - 1;
+   }
+
+   public String getName(int id) {
+      return names[id];
+   }
+
+   public int size() {
+      return size;
+   }
+
+   /*
+    * All names, indexed by id.
+    */
+   public List<String> getNames() {
+      return new AbstractList<String>() {
+         @Override
+         public String get(int index) {
+            if (index >= size) {
+               throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return names[index];
+         }
+
+         @Override
+         public int size() {
+            return size;
+         }
+      };
+   }
+
+   private int findSlot(String name) {
+      int mask = table.length - 1;
+      int slot = mix(name.hashCode()) & mask;
+      while (table[slot] != 0 && !names[table[slot] - 1].equals(name)) {
+         slot = (slot + 1) & mask;
+      }
+      return slot;
+   }
+
+   private void rehash() {
+      table = new int[table.length * 2];
+      int mask = table.length - 1;
+      for (int id = 0; id < size; id++) {
+         int slot = mix(names[id].hashCode()) & mask;
+         while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+         }
+         table[slot] = id + 1;
+      }
+   }
+
+   /*
+    * Spreads the bits of String.hashCode(), which clusters for short similar names.
+    */
+   private static int mix(int hash) {
+      hash *= 0x9E3779B9;
+      return hash ^ (hash >>> 16);
+   }
+}
@@ -0,0 +1,294 @@
+package io.console.twitterfeed.output;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.timelines.Timelines;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Writes exactly the bytes of FeedWriter's feed, encoded with the platform charset as System.out would, straight to a
+ * channel. Each author's "\t@name: " prefix is encoded once per feed and copied from then on, ASCII tweets are copied
+ * a byte per char, and everything goes through one direct buffer that is kept for the next feed, so there is no
+ * Writer, charset encoder or String building per line. The prefixes are let go of with the feed, so an encoder
+ * reused for feed after feed does not keep one for every author it has ever seen.
+ *
+ * With several threads, ranges of users are rendered into separate buffers at once and written out in order; the
+ * timelines are then read from many threads, which every engine allows except the spilling one. Not thread safe
+ * otherwise, use one encoder per feed being written.
+ */
+public class FeedEncoder {
+
+   private static final int USERS_PER_RANGE = 256;
+   private static final int RANGES_IN_FLIGHT_PER_THREAD = 2;
+   private static final int MIN_BUFFER_SIZE = 1024;
+
+   private final Charset charset = Charset.defaultCharset();
+   private final boolean asciiCompatible = isAsciiCompatible(charset);
+   private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+
+   private final ByteBuffer buffer;
+   private int threads = 1;
+
+   public FeedEncoder() {
+      this(Configuration.OUTPUT_BUFFER_SIZE);
+   }
+
+   public FeedEncoder(int bufferSize) {
+      this.buffer = ByteBuffer.allocateDirect(Math.max(MIN_BUFFER_SIZE, bufferSize));
+   }
+
+   /*
+    * Number of threads rendering at once, 1 renders on the calling thread only.
+    */
+   public FeedEncoder withThreads(int renderThreads) {
+      this.threads = renderThreads;
+      return this;
+   }
+
+   /*
+    * Writes the timelines of the given users, in the given order, and flushes them to the channel, which is left
+    * open. Like FeedWriter, no line separator is written after the last line.
+    */
+   public void writeFeed(Timelines timelines, Collection<String> selectedUsers, WritableByteChannel channel)
+         throws IOException {
+      String[] users = selectedUsers.toArray(new String[selectedUsers.size()]);
+      if (threads > 1 && users.length > USERS_PER_RANGE) {
+         writeInParallel(timelines, users, channel);
+         return;
+      }
+
+      buffer.clear();
+      new RangeEncoder(timelines, users, 0, users.length, new HashMap<String, byte[]>(),
+            new ChannelOutput(buffer, channel)).encode();
+      flush(buffer, channel);
+   }
+
+   private void writeInParallel(Timelines timelines, String[] users, WritableByteChannel channel)
+         throws IOException {
+      Map<String, byte[]> prefixes = new ConcurrentHashMap<>();
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+         ArrayDeque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+         int start = 0;
+         while (start < users.length || !inFlight.isEmpty()) {
+            while (start < users.length && inFlight.size() < threads * RANGES_IN_FLIGHT_PER_THREAD) {
+               final RangeEncoder range = new RangeEncoder(timelines, users, start,
+                     Math.min(users.length, start + USERS_PER_RANGE), prefixes, new GrowingOutput(buffer.capacity()));
+               inFlight.add(pool.submit(new Callable<ByteBuffer>() {
+                  @Override
+                  public ByteBuffer call() throws IOException {
+                     range.encode();
+                     return range.out.buffer;
+                  }
+               }));
+               start += USERS_PER_RANGE;
+            }
+            flush(await(inFlight.poll()), channel);
+         }
+      } finally {
+         pool.shutdownNow();
+      }
+   }
+
+   private static void flush(ByteBuffer bytes, WritableByteChannel channel) throws IOException {
+      bytes.flip();
+      while (bytes.hasRemaining()) {
+         channel.write(bytes);
+      }
+      bytes.clear();
+   }
+
+   private static ByteBuffer await(Future<ByteBuffer> range) throws IOException {
+      try {
+         return range.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while writing the feed", e);
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   private static boolean isAsciiCompatible(Charset charset) {
+      byte[] ascii = new byte[128];
+      for (int i = 0; i < ascii.length; i++) {
+         ascii[i] = (byte) i;
+      }
+      return Arrays.equals(new String(ascii, StandardCharsets.US_ASCII).getBytes(charset), ascii);
+   }
+
+   /*
+    * Where a range of the feed is encoded to: a buffer that is made room in when full.
+    */
+   private abstract static class Output {
+
+      ByteBuffer buffer;
+
+      Output(ByteBuffer buffer) {
+         this.buffer = buffer;
+      }
+
+      /*
+       * Makes room for at least one more byte.
+       */
+      abstract void makeRoom() throws IOException;
+
+      void put(byte[] bytes) throws IOException {
+         int offset = 0;
+         while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+               makeRoom();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+         }
+      }
+   }
+
+   /*
+    * Flushes the buffer to the channel when it is full.
+    */
+   private static class ChannelOutput extends Output {
+
+      private final WritableByteChannel channel;
+
+      ChannelOutput(ByteBuffer buffer, WritableByteChannel channel) {
+         super(buffer);
+         this.channel = channel;
+      }
+
+      @Override
+      void makeRoom() throws IOException {
+         flush(buffer, channel);
+      }
+   }
+
+   /*
+    * Keeps the whole range, doubling the buffer when it is full.
+    */
+   private static class GrowingOutput extends Output {
+
+      GrowingOutput(int initialSize) {
+         super(ByteBuffer.allocate(initialSize));
+      }
+
+      @Override
+      void makeRoom() {
+         ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+         buffer.flip();
+         grown.put(buffer);
+         buffer = grown;
+      }
+   }
+
+   /*
+    * Encodes the users in [start, end) of the feed, in the format of FeedWriter.writeFeed().
+    */
+   private class RangeEncoder {
+
+      private final Timelines timelines;
+      private final String[] users;
+      private final int start;
+      private final int end;
+      // Author --> "\t@author: " in the output charset, shared by the ranges of one feed
+      private final Map<String, byte[]> prefixes;
+      private final Output out;
+
+      RangeEncoder(Timelines timelines, String[] users, int start, int end, Map<String, byte[]> prefixes, Output out) {
+         this.timelines = timelines;
+         this.users = users;
+         this.start = start;
+         this.end = end;
+         this.prefixes = prefixes;
+         this.out = out;
+      }
+
+      void encode() throws IOException {
+         for (int i = start; i < end; i++) {
+            boolean lastUser = i == users.length - 1;
+            String user = users[i];
+            putText(user);
+            putByte(':');
+
+            Iterator<UserTweetPair> tweets = timelines.getTimeline(user).iterator();
+            while (tweets.hasNext()) {
+               UserTweetPair tweet = tweets.next();
+               out.put(lineSeparator);
+               out.put(getPrefix(tweet.getUser()));
+               if (!lastUser || tweets.hasNext()) {
+                  putText(tweet.getTweet());
+               } else {
+                  // The very last line of the feed, which the old trim() based output stripped of trailing whitespace
+                  putText(FeedWriter.stripTrailingWhitespace(tweet.getTweet()));
+               }
+            }
+
+            if (!lastUser) {
+               out.put(lineSeparator);
+            }
+         }
+      }
+
+      private byte[] getPrefix(String author) {
+         byte[] prefix = prefixes.get(author);
+         if (prefix == null) {
+            prefix = ("\t@" + author + ": ").getBytes(charset);
+            prefixes.put(author, prefix);
+         }
+         return prefix;
+      }
+
+      /*
+       * Copies ASCII chars as bytes, and encodes the rest of the text from the first other char on.
+       */
+      private void putText(String text) throws IOException {
+         if (!asciiCompatible) {
+            out.put(text.getBytes(charset));
+            return;
+         }
+         int length = text.length();
+         for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+               out.put(text.substring(i).getBytes(charset));
+               return;
+            }
+            putByte(c);
+         }
+      }
+
+      private void putByte(int b) throws IOException {
+         if (!out.buffer.hasRemaining()) {
+            out.makeRoom();
+         }
+         out.buffer.put((byte) b);
+      }
+   }
+}
@@ -0,0 +1,68 @@
+package io.console.twitterfeed.output;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.timelines.Timelines;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+/*
+ * Writes timelines in the feed format:
+ *
+ *    Alan:
+ *       @Alan: If you have a procedure with 10 parameters, you probably missed some.
+ *    Martin:
+ *
+ * with a tab before each @, lines separated by System.lineSeparator() and no line separator after the last line.
+ */
+public class FeedWriter {
+
+   private FeedWriter() {
+   }
+
+   /*
+    * Streams the timelines of the given users, in the given order, one user block at a time.
+    */
+   public static void writeFeed(Timelines timelines, Collection<String> selectedUsers, Appendable out)
+         throws IOException {
+      String lineSeparator = System.lineSeparator();
+      Iterator<String> users = selectedUsers.iterator();
+
+      while (users.hasNext()) {
+         String user = users.next();
+         out.append(user);
+         out.append(':');
+
+         Iterator<UserTweetPair> tweets = timelines.getTimeline(user).iterator();
+         while (tweets.hasNext()) {
+            UserTweetPair tweet = tweets.next();
+            out.append(lineSeparator);
+            out.append("\t@");
+            out.append(tweet.getUser());
+            out.append(": ");
+            if (users.hasNext() || tweets.hasNext()) {
+               out.append(tweet.getTweet());
+            } else {
+               // The very last line of the feed, which the old trim() based output stripped of trailing whitespace
+               out.append(stripTrailingWhitespace(tweet.getTweet()));
+            }
+         }
+
+         if (users.hasNext()) {
+            out.append(lineSeparator);
+         }
+      }
+   }
+
+   /*
+    * Equivalent to the trailing half of String.trim().
+    */
+   public static String stripTrailingWhitespace(String text) {
+      int end = text.length();
+      while (end > 0 && text.charAt(end - 1) <= ' ') {
+         end--;
+      }
+      return text.substring(0, end);
+   }
+}
@@ -0,0 +1,319 @@
+package io.console.twitterfeed.server;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+import io.console.twitterfeed.timelines.HybridTimelineEngine;
+import io.console.twitterfeed.timelines.Timelines;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.commons.lang3.StringUtils;
+
+/*
+@formatter:off
+ Answers queries about loaded timelines over a line based protocol on a localhost TCP port:
+
+   TIMELINE <user> [n]   the user's timeline, or only its latest n tweets, oldest first
+   FOLLOWERS <user>      the users who follow the user, alphabetically
+   QUIT                  closes the connection
+
+ Every answer is "OK <count>" followed by count lines ("@author: tweet" or a user name), or a single "ERR <message>"
+ line. Requests may be pipelined. All clients are served by one thread through a Selector; the work per request is a
+ lookup of the user plus the lines sent back, whatever the size of the feed.
+@formatter:on
+ */
+public class FeedServer implements Runnable {
+
+   private static final int MAX_REQUEST_LENGTH = 1024;
+
+   private final Timelines timelines;
+   private final FollowGraph followGraph;
+   // User --> their followers but themselves, sorted the first time they are asked for, as the graph does not change
+   private final HashMap<String, String[]> sortedFollowers = new HashMap<>();
+
+   private final Selector selector;
+   private final ServerSocketChannel serverChannel;
+   private volatile boolean running = true;
+
+   /*
+    * Binds to the loopback address; port 0 picks a free port, see getPort().
+    */
+   public FeedServer(Timelines timelines, FollowGraph followGraph, int port) throws IOException {
+      this.timelines = timelines;
+      this.followGraph = followGraph;
+      this.selector = Selector.open();
+      this.serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+      serverChannel.configureBlocking(false);
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+   }
+
+   public int getPort() {
+      return serverChannel.socket().getLocalPort();
+   }
+
+   /*
+    * Serves clients until stop() is called.
+    */
+   @Override
+   public void run() {
+      try {
+         while (running) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+               SelectionKey key = keys.next();
+               keys.remove();
+               try {
+                  if (key.isAcceptable()) {
+                     accept();
+                  } else {
+                     if (key.isReadable()) {
+                        read(key);
+                     }
+                     if (key.isValid() && key.isWritable()) {
+                        write(key);
+                     }
+                  }
+               } catch (IOException e) {
+                  // One client going away does not concern the others
+                  close(key);
+               }
+            }
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Feed server failed", e);
+      } finally {
+         for (SelectionKey key : selector.keys()) {
+            close(key);
+         }
+         try {
+            selector.close();
+         } catch (IOException e) {
+            // Shutting down anyway
+         }
+      }
+   }
+
+   public void stop() {
+      running = false;
+      selector.wakeup();
+   }
+
+   private void accept() throws IOException {
+      SocketChannel client = serverChannel.accept();
+      if (client != null) {
+         client.configureBlocking(false);
+         client.register(selector, SelectionKey.OP_READ, new Connection());
+      }
+   }
+
+   private void read(SelectionKey key) throws IOException {
+      Connection connection = (Connection) key.attachment();
+      SocketChannel client = (SocketChannel) key.channel();
+      if (client.read(connection.in) < 0) {
+         close(key);
+         return;
+      }
+
+      ByteBuffer in = connection.in;
+      int lineStart = 0;
+      for (int i = 0; i < in.position() && !connection.closing; i++) {
+         if (in.get(i) == '\n') {
+            String request = new String(in.array(), lineStart, i - lineStart, StandardCharsets.UTF_8);
+            answer(request.trim(), connection);
+            lineStart = i + 1;
+         }
+      }
+      in.limit(in.position());
+      in.position(lineStart);
+      in.compact();
+
+      if (!in.hasRemaining() && !connection.closing) {
+         connection.reply("ERR Request longer than " + MAX_REQUEST_LENGTH + " bytes");
+         connection.closing = true;
+      }
+      updateInterest(key, connection);
+   }
+
+   private void write(SelectionKey key) throws IOException {
+      Connection connection = (Connection) key.attachment();
+      SocketChannel client = (SocketChannel) key.channel();
+      while (!connection.out.isEmpty()) {
+         ByteBuffer head = connection.out.peek();
+         client.write(head);
+         if (head.hasRemaining()) {
+            return;
+         }
+         connection.out.poll();
+      }
+      if (connection.closing) {
+         close(key);
+         return;
+      }
+      updateInterest(key, connection);
+   }
+
+   /*
+    * While answers are waiting to be sent, stop reading requests, so a client that does not read cannot make the
+    * server queue up answers without end. A closing connection only waits to be written out and closed.
+    */
+   private void updateInterest(SelectionKey key, Connection connection) {
+      if (key.isValid()) {
+         boolean writing = connection.closing || !connection.out.isEmpty();
+         key.interestOps(writing ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      }
+   }
+
+   private void close(SelectionKey key) {
+      key.cancel();
+      try {
+         key.channel().close();
+      } catch (IOException e) {
+         // Nothing left to do with it
+      }
+   }
+
+   private void answer(String request, Connection connection) {
+      if (request.isEmpty()) {
+         return;
+      }
+      String[] words = StringUtils.split(request);
+      String command = words[0].toUpperCase();
+
+      if (command.equals("QUIT")) {
+         connection.closing = true;
+      } else if (command.equals("TIMELINE") && (words.length == 2 || words.length == 3)) {
+         answerTimeline(words, connection);
+      } else if (command.equals("FOLLOWERS") && words.length == 2) {
+         answerFollowers(words[1], connection);
+      } else {
+         connection.reply("ERR Expected TIMELINE <user> [n], FOLLOWERS <user> or QUIT, but found: " + request);
+      }
+   }
+
+   private void answerTimeline(String[] words, Connection connection) {
+      int latest = Integer.MAX_VALUE;
+      if (words.length == 3) {
+         try {
+            latest = Integer.parseInt(words[2]);
+         } catch (NumberFormatException e) {
+            latest = -1;
+         }
+         if (latest < 0) {
+            connection.reply("ERR Expected a tweet count of 0 or more, but found: " + words[2]);
+            return;
+         }
+      }
+
+      Iterable<UserTweetPair> timeline = timelines.getTimeline(words[1]);
+      if (timeline == null) {
+         connection.reply("ERR Unknown user: " + words[1]);
+         return;
+      }
+
+      ArrayDeque<UserTweetPair> tweets = latest(timeline, latest);
+      connection.reply("OK " + tweets.size());
+      for (UserTweetPair tweet : tweets) {
+         connection.reply("@" + tweet.getUser() + ": " + tweet.getTweet());
+      }
+   }
+
+   private void answerFollowers(String user, Connection connection) {
+      String[] followers = getSortedFollowers(user);
+      if (followers == null) {
+         connection.reply("ERR Unknown user: " + user);
+         return;
+      }
+
+      connection.reply("OK " + followers.length);
+      for (String follower : followers) {
+         connection.reply(follower);
+      }
+   }
+
+   /*
+    * The user's followers, alphabetically, or null if the user is unknown. Everyone follows themselves as far as the
+    * graph is concerned, which is not worth reporting.
+    */
+   private String[] getSortedFollowers(String user) {
+      String[] sorted = sortedFollowers.get(user);
+      if (sorted != null) {
+         return sorted;
+      }
+      Collection<String> followers = followGraph.getFollowers(user);
+      if (followers == null) {
+         return null;
+      }
+
+      sorted = new String[followers.size() - (followers.contains(user) ? 1 : 0)];
+      int i = 0;
+      for (String follower : followers) {
+         if (!follower.equals(user)) {
+            sorted[i++] = follower;
+         }
+      }
+      Arrays.sort(sorted);
+      sortedFollowers.put(user, sorted);
+      return sorted;
+   }
+
+   /*
+    * The latest n tweets of a timeline, oldest first. Random access lists are read from the end and merged timelines
+    * merge only their latest tweets, so however large the feed, only about n tweets are touched.
+    */
+   private static ArrayDeque<UserTweetPair> latest(Iterable<UserTweetPair> timeline, int n) {
+      ArrayDeque<UserTweetPair> tweets = new ArrayDeque<>();
+      if (n == 0) {
+         return tweets;
+      }
+      if (timeline instanceof HybridTimelineEngine.MergedTimeline) {
+         tweets.addAll(((HybridTimelineEngine.MergedTimeline) timeline).getLatest(n));
+         return tweets;
+      }
+      if (timeline instanceof List && timeline instanceof RandomAccess) {
+         List<UserTweetPair> list = (List<UserTweetPair>) timeline;
+         for (int i = Math.max(0, list.size() - n); i < list.size(); i++) {
+            tweets.add(list.get(i));
+         }
+         return tweets;
+      }
+      for (UserTweetPair tweet : timeline) {
+         if (tweets.size() == n) {
+            tweets.poll();
+         }
+         tweets.add(tweet);
+      }
+      return tweets;
+   }
+
+   /*
+    * A client's unfinished request and the answers not yet sent to it.
+    */
+   private static class Connection {
+
+      private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+      private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+      // Set once the connection is to be closed as soon as its answers are sent
+      private boolean closing = false;
+
+      void reply(String line) {
+         out.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+      }
+   }
+}
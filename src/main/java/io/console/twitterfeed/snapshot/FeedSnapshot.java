@@ -0,0 +1,500 @@
+package io.console.twitterfeed.snapshot;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+import io.console.twitterfeed.graph.UserDictionary;
+import io.console.twitterfeed.timelines.Timelines;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+
+/*
+@formatter:off
+A binary snapshot of the parsed feed, so a run on unchanged inputs can skip parsing and validation altogether. Loading
+maps the file and reads nothing up front. All numbers are big-endian:
+
+ header:     magic, version, the timeline length cap the timelines were built with, the number of source files,
+             then length, last modified time and CRC32 of each of them, then the counts below
+ names:      long[users + 1] offsets into the UTF-8 name bytes, then the name bytes
+ followers:  int[users + 1] offsets into int[edges] follower ids, sorted per user (CSR)
+ tweets:     int[tweets] author ids, long[tweets + 1] offsets into the UTF-8 text bytes, then the text bytes
+ timelines:  int[timelines] user ids in output order, long[timelines + 1] offsets into int[entries] tweet ids
+ trailer:    magic again, so a half written file is never taken for a snapshot
+@formatter:on
+ */
+public class FeedSnapshot implements Timelines, FollowGraph {
+
+   private static final int MAGIC = 0x54574653;
+   private static final int VERSION = 3;
+   private static final int HEADER_INTS = 3;
+
+   private final MappedFile file;
+
+   private final int userCount;
+   private final int edgeCount;
+   private final int tweetCount;
+   private final int timelineCount;
+
+   private final long nameOffsetsStart;
+   private final long namesStart;
+   private final long followerOffsetsStart;
+   private final long followerIdsStart;
+   private final long tweetAuthorsStart;
+   private final long textOffsetsStart;
+   private final long textStart;
+   private final long timelineUsersStart;
+   private final long timelineOffsetsStart;
+   private final long timelineEntriesStart;
+
+   // Decoded on first use
+   private final String[] names;
+   private UserDictionary dictionary = null;
+   private int[] timelineIndexByUser = null;
+
+   private FeedSnapshot(MappedFile file, long position) {
+      this.file = file;
+
+      userCount = file.getInt(position);
+      edgeCount = file.getInt(position + 4);
+      tweetCount = file.getInt(position + 8);
+      timelineCount = file.getInt(position + 12);
+      long entryCount = file.getLong(position + 16);
+      long nameBytes = file.getLong(position + 24);
+      long textBytes = file.getLong(position + 32);
+
+      nameOffsetsStart = position + 40;
+      namesStart = nameOffsetsStart + 8L * (userCount + 1);
+      followerOffsetsStart = namesStart + nameBytes;
+      followerIdsStart = followerOffsetsStart + 4L * (userCount + 1);
+      tweetAuthorsStart = followerIdsStart + 4L * edgeCount;
+      textOffsetsStart = tweetAuthorsStart + 4L * tweetCount;
+      textStart = textOffsetsStart + 8L * (tweetCount + 1);
+      timelineUsersStart = textStart + textBytes;
+      timelineOffsetsStart = timelineUsersStart + 4L * timelineCount;
+      timelineEntriesStart = timelineOffsetsStart + 8L * (timelineCount + 1);
+
+      names = new String[userCount];
+   }
+
+   /*
+    * The number of source files, then the length, last modified time and CRC32 of each, recorded in a snapshot to
+    * tell whether it is stale. The checksum catches a rewrite of the same length within the resolution of the last
+    * modified time, which can be a second, at the cost of reading the sources once.
+    */
+   public static long[] stamp(File... sources) throws IOException {
+      long[] stamp = new long[1 + sources.length * 3];
+      stamp[0] = sources.length;
+      for (int i = 0; i < sources.length; i++) {
+         stamp[1 + i * 3] = sources[i].length();
+         stamp[2 + i * 3] = sources[i].lastModified();
+         stamp[3 + i * 3] = sources[i].isFile() ? checksum(sources[i]) : 0;
+      }
+      return stamp;
+   }
+
+   private static long checksum(File source) throws IOException {
+      CRC32 crc = new CRC32();
+      byte[] buffer = new byte[1 << 16];
+      InputStream in = new FileInputStream(source);
+      try {
+         for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            crc.update(buffer, 0, read);
+         }
+      } finally {
+         in.close();
+      }
+      return crc.getValue();
+   }
+
+   /*
+    * Maps a snapshot, or returns null if there is none, it is incomplete, from another version, or was taken from
+    * source files with another stamp or with timelines capped at another length (0 for no cap).
+    */
+   public static FeedSnapshot load(File snapshotFile, long[] sourceStamp, int maxTimelineLength) throws IOException {
+      if (!snapshotFile.isFile() || snapshotFile.length() < 4 * HEADER_INTS + 8 * sourceStamp.length + 4) {
+         return null;
+      }
+
+      MappedFile file = new MappedFile(snapshotFile);
+      if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION || file.getInt(file.size() - 4) != MAGIC) {
+         return null;
+      }
+      if (file.getInt(8) != maxTimelineLength) {
+         return null;
+      }
+      long position = 4 * HEADER_INTS;
+      for (long value : sourceStamp) {
+         if (file.getLong(position) != value) {
+            return null;
+         }
+         position += 8;
+      }
+      if (file.size() < position + 4 * 4 + 8 * 3) {
+         return null;
+      }
+
+      FeedSnapshot snapshot = new FeedSnapshot(file, position);
+      if (snapshot.timelineEntriesStart + 4 > file.size()) {
+         return null;
+      }
+      long expectedSize = snapshot.timelineEntriesStart + 4 * snapshot.getTimelineEntriesEnd() + 4;
+      return expectedSize == file.size() ? snapshot : null;
+   }
+
+   /*
+    * Writes a snapshot of the follow graph and timelines, which were capped at maxTimelineLength (0 for no cap). The
+    * file is written next to the target and renamed over it when complete.
+    */
+   public static void write(File snapshotFile, long[] sourceStamp, int maxTimelineLength, FollowGraph followGraph,
+         Timelines timelines) throws IOException {
+      // Number users and tweets, and size every section before anything is written
+      UserDictionary users = new UserDictionary();
+      for (String user : followGraph.getUsers()) {
+         users.intern(user);
+      }
+      // Engines may return a new UserTweetPair on every read, so tweets are told apart by sequence number
+      HashMap<Long, Integer> tweetIds = new HashMap<>();
+      List<UserTweetPair> tweets = new ArrayList<>();
+      long entryCount = 0;
+      long textBytes = 0;
+      int[] timelineLengths = new int[timelines.getUsers().size()];
+      int timelineIndex = 0;
+      for (String user : timelines.getUsers()) {
+         users.intern(user);
+         for (UserTweetPair tweet : timelines.getTimeline(user)) {
+            entryCount++;
+            timelineLengths[timelineIndex]++;
+            if (!tweetIds.containsKey(tweet.getSequence())) {
+               tweetIds.put(tweet.getSequence(), tweets.size());
+               tweets.add(tweet);
+               users.intern(tweet.getUser());
+               textBytes += utf8Length(tweet.getTweet());
+            }
+         }
+         timelineIndex++;
+      }
+      long nameBytes = 0;
+      for (String user : users.getNames()) {
+         nameBytes += utf8Length(user);
+      }
+      int edgeCount = 0;
+      for (String user : followGraph.getUsers()) {
+         edgeCount += followGraph.getFollowerCount(user);
+      }
+
+      File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+      DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 16));
+      try {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(maxTimelineLength);
+         for (long value : sourceStamp) {
+            out.writeLong(value);
+         }
+         out.writeInt(users.size());
+         out.writeInt(edgeCount);
+         out.writeInt(tweets.size());
+         out.writeInt(timelines.getUsers().size());
+         out.writeLong(entryCount);
+         out.writeLong(nameBytes);
+         out.writeLong(textBytes);
+
+         // names
+         long offset = 0;
+         for (String user : users.getNames()) {
+            out.writeLong(offset);
+            offset += utf8Length(user);
+         }
+         out.writeLong(offset);
+         for (String user : users.getNames()) {
+            out.write(user.getBytes(StandardCharsets.UTF_8));
+         }
+
+         // followers
+         int edgeOffset = 0;
+         for (String user : users.getNames()) {
+            out.writeInt(edgeOffset);
+            edgeOffset += Math.max(0, followGraph.getFollowerCount(user));
+         }
+         out.writeInt(edgeOffset);
+         for (String user : users.getNames()) {
+            Collection<String> followers = followGraph.getFollowers(user);
+            if (followers == null) {
+               continue;
+            }
+            int[] followerIds = new int[followers.size()];
+            int i = 0;
+            for (String follower : followers) {
+               followerIds[i] = users.getId(follower);
+               if (followerIds[i++] < 0) {
+                  throw new IllegalStateException("Follower " + follower + " is not a user of the follow graph");
+               }
+            }
+            Arrays.sort(followerIds);
+            for (int followerId : followerIds) {
+               out.writeInt(followerId);
+            }
+         }
+
+         // tweets
+         for (UserTweetPair tweet : tweets) {
+            out.writeInt(users.getId(tweet.getUser()));
+         }
+         offset = 0;
+         for (UserTweetPair tweet : tweets) {
+            out.writeLong(offset);
+            offset += utf8Length(tweet.getTweet());
+         }
+         out.writeLong(offset);
+         for (UserTweetPair tweet : tweets) {
+            out.write(tweet.getTweet().getBytes(StandardCharsets.UTF_8));
+         }
+
+         // timelines
+         for (String user : timelines.getUsers()) {
+            out.writeInt(users.getId(user));
+         }
+         offset = 0;
+         timelineIndex = 0;
+         for (String user : timelines.getUsers()) {
+            out.writeLong(offset);
+            offset += timelineLengths[timelineIndex++];
+         }
+         out.writeLong(offset);
+         for (String user : timelines.getUsers()) {
+            for (UserTweetPair tweet : timelines.getTimeline(user)) {
+               out.writeInt(tweetIds.get(tweet.getSequence()));
+            }
+         }
+
+         out.writeInt(MAGIC);
+      } finally {
+         out.close();
+      }
+
+      Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   // Timelines
+
+   @Override
+   public Collection<String> getUsers() {
+      return new AbstractList<String>() {
+         @Override
+         public String get(int index) {
+            return getName(file.getInt(timelineUsersStart + 4L * index));
+         }
+
+         @Override
+         public int size() {
+            return timelineCount;
+         }
+      };
+   }
+
+   @Override
+   public Iterable<UserTweetPair> getTimeline(String user) {
+      int index = getTimelineIndex(user);
+      if (index < 0) {
+         return null;
+      }
+      long start = file.getLong(timelineOffsetsStart + 8L * index);
+      long end = file.getLong(timelineOffsetsStart + 8L * (index + 1));
+      return new TimelineList(start, end);
+   }
+
+   // FollowGraph
+
+   @Override
+   public Collection<String> getFollowers(String user) {
+      int id = getId(user);
+      if (id < 0) {
+         return null;
+      }
+      final int start = file.getInt(followerOffsetsStart + 4L * id);
+      final int end = file.getInt(followerOffsetsStart + 4L * (id + 1));
+      return new AbstractCollection<String>() {
+         @Override
+         public Iterator<String> iterator() {
+            return new Iterator<String>() {
+               private int next = start;
+
+               @Override
+               public boolean hasNext() {
+                  return next < end;
+               }
+
+               @Override
+               public String next() {
+                  if (next >= end) {
+                     throw new NoSuchElementException();
+                  }
+                  return getName(file.getInt(followerIdsStart + 4L * next++));
+               }
+
+               @Override
+               public void remove() {
+                  throw new UnsupportedOperationException();
+               }
+            };
+         }
+
+         @Override
+         public int size() {
+            return end - start;
+         }
+      };
+   }
+
+   @Override
+   public int getFollowerCount(String user) {
+      int id = getId(user);
+      if (id < 0) {
+         return -1;
+      }
+      return file.getInt(followerOffsetsStart + 4L * (id + 1)) - file.getInt(followerOffsetsStart + 4L * id);
+   }
+
+   /*
+    * All users of the follow graph, which unlike getUsers() are not in alphabetical order.
+    */
+   public Collection<String> getGraphUsers() {
+      return new AbstractList<String>() {
+         @Override
+         public String get(int index) {
+            return getName(index);
+         }
+
+         @Override
+         public int size() {
+            return userCount;
+         }
+      };
+   }
+
+   public int getEdgeCount() {
+      return edgeCount;
+   }
+
+   public int getTweetCount() {
+      return tweetCount;
+   }
+
+   private long getTimelineEntriesEnd() {
+      return file.getLong(timelineOffsetsStart + 8L * timelineCount);
+   }
+
+   private String getName(int id) {
+      String name = names[id];
+      if (name == null) {
+         name = decode(nameOffsetsStart + 8L * id, namesStart);
+         names[id] = name;
+      }
+      return name;
+   }
+
+   private int getId(String user) {
+      if (dictionary == null) {
+         dictionary = new UserDictionary();
+         for (int id = 0; id < userCount; id++) {
+            dictionary.intern(getName(id));
+         }
+      }
+      return dictionary.getId(user);
+   }
+
+   private int getTimelineIndex(String user) {
+      int id = getId(user);
+      if (id < 0) {
+         return -1;
+      }
+      if (timelineIndexByUser == null) {
+         timelineIndexByUser = new int[userCount];
+         Arrays.fill(timelineIndexByUser, -1);
+         for (int index = 0; index < timelineCount; index++) {
+            timelineIndexByUser[file.getInt(timelineUsersStart + 4L * index)] = index;
+         }
+      }
+      return timelineIndexByUser[id];
+   }
+
+   /*
+    * Decodes the UTF-8 bytes between the offset at offsetPosition and the next one, relative to blobStart.
+    */
+   private String decode(long offsetPosition, long blobStart) {
+      long start = file.getLong(offsetPosition);
+      int length = (int) (file.getLong(offsetPosition + 8) - start);
+      byte[] bytes = new byte[length];
+      file.get(blobStart + start, bytes, length);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static long utf8Length(String text) {
+      long length = 0;
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         if (c < 0x80) {
+            length++;
+         } else if (c < 0x800) {
+            length += 2;
+         } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+               && Character.isLowSurrogate(text.charAt(i + 1))) {
+            length += 4;
+            i++;
+         } else {
+            length += 3;
+         }
+      }
+      return length;
+   }
+
+   /*
+    * The timeline entries [start, end), decoded one at a time as they are read. A random access list, so the latest
+    * tweets of a timeline are read straight from its end.
+    */
+   private class TimelineList extends AbstractList<UserTweetPair> implements RandomAccess {
+
+      private final long start;
+      private final int size;
+
+      TimelineList(long start, long end) {
+         this.start = start;
+         this.size = (int) (end - start);
+      }
+
+      @Override
+      public UserTweetPair get(int index) {
+         if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+         }
+         int tweetId = file.getInt(timelineEntriesStart + 4L * (start + index));
+         String author = getName(file.getInt(tweetAuthorsStart + 4L * tweetId));
+         return new UserTweetPair(author, decode(textOffsetsStart + 8L * tweetId, textStart), tweetId);
+      }
+
+      @Override
+      public int size() {
+         return size;
+      }
+   }
+}
@@ -0,0 +1,60 @@
+package io.console.twitterfeed.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * A read-only file mapped as a list of MappedByteBuffers, so it can be addressed with long offsets past the 2GB a
+ * single buffer can hold. Each segment overlaps the next by a few bytes, so ints and longs never straddle two.
+ */
+public class MappedFile {
+
+   private static final int SEGMENT_BITS = 30;
+   private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+   private static final int OVERLAP = Long.SIZE / Byte.SIZE;
+
+   private final MappedByteBuffer[] segments;
+   private final long size;
+
+   public MappedFile(File file) throws IOException {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      try {
+         FileChannel channel = randomAccessFile.getChannel();
+         size = channel.size();
+         segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+         for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            long length = Math.min(SEGMENT_SIZE + OVERLAP, size - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+         }
+      } finally {
+         // The mappings stay valid after the channel is closed
+         randomAccessFile.close();
+      }
+   }
+
+   public long size() {
+      return size;
+   }
+
+   public byte get(long position) {
+      return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+   }
+
+   public int getInt(long position) {
+      return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & (SEGMENT_SIZE - 1)));
+   }
+
+   public long getLong(long position) {
+      return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & (SEGMENT_SIZE - 1)));
+   }
+
+   public void get(long position, byte[] destination, int length) {
+      for (int i = 0; i < length; i++) {
+         destination[i] = get(position + i);
+      }
+   }
+}
@@ -0,0 +1,61 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/*
+ * A ring buffer holding only the latest maxLength tweets added to it, oldest first. The array grows as tweets arrive
+ * and never past maxLength, so quiet users cost little and busy ones at most maxLength references.
+ */
+public class BoundedTimeline extends AbstractList<UserTweetPair> implements RandomAccess {
+
+   private static final int INITIAL_CAPACITY = 4;
+
+   private final int maxLength;
+   private UserTweetPair[] tweets;
+   // Index of the oldest tweet once the buffer has wrapped
+   private int head = 0;
+   private int size = 0;
+
+   public BoundedTimeline(int maxLength) {
+      if (maxLength < 1) {
+         throw new IllegalArgumentException("A timeline must hold at least one tweet, max length was: " + maxLength);
+      }
+      this.maxLength = maxLength;
+      this.tweets = new UserTweetPair[Math.min(INITIAL_CAPACITY, maxLength)];
+   }
+
+   /*
+    * Appends the tweet, dropping the oldest one if the timeline is full.
+    */
+   @Override
+   public boolean add(UserTweetPair tweet) {
+      if (size < tweets.length) {
+         tweets[size++] = tweet;
+      } else if (size < maxLength) {
+         tweets = Arrays.copyOf(tweets, (int) Math.min((long) size * 2, maxLength));
+         tweets[size++] = tweet;
+      } else {
+         tweets[head] = tweet;
+         head = (head + 1) % maxLength;
+      }
+      modCount++;
+      return true;
+   }
+
+   @Override
+   public UserTweetPair get(int index) {
+      if (index < 0 || index >= size) {
+         throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+      }
+      return tweets[(head + index) % tweets.length];
+   }
+
+   @Override
+   public int size() {
+      return size;
+   }
+}
@@ -0,0 +1,160 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+/*
+ * Fan-out-on-write over a TweetArena: each tweet is stored once as bytes, and timelines are arrays of long handles
+ * into the arena instead of lists of UserTweetPairs. Holding many tweets takes a fraction of the memory and almost
+ * none of the objects of FanOutOnWriteEngine; UserTweetPairs are only created, one at a time, while a timeline is
+ * read.
+ */
+public class CompactFanOutEngine implements TimelineEngine {
+
+   // Users who are followed by other users, created by the UserFile Reader
+   private final FollowGraph followGraph;
+
+   private final TweetArena arena = new TweetArena();
+
+   // User --> handles of the tweets in their timeline, alphabetical like FanOutOnWriteEngine
+   private final TreeMap<String, HandleTimeline> tweetsByUser = new TreeMap<>();
+
+   // Each timeline keeps only this many of the latest tweets, 0 keeps all of them
+   private final int maxTimelineLength;
+
+   private long fanOutAppends = 0;
+
+   public CompactFanOutEngine(FollowGraph followGraph) {
+      this(followGraph, 0);
+   }
+
+   public CompactFanOutEngine(FollowGraph followGraph, int maxTimelineLength) {
+      this.followGraph = followGraph;
+      this.maxTimelineLength = maxTimelineLength;
+   }
+
+   @Override
+   public void addUser(String user) {
+      if (!tweetsByUser.containsKey(user)) {
+         tweetsByUser.put(user, new HandleTimeline(maxTimelineLength));
+      }
+   }
+
+   @Override
+   public void addTweet(UserTweetPair utp) {
+      Collection<String> usersWhoFollow = followGraph.getFollowers(utp.getUser());
+      if (usersWhoFollow == null) {
+         // Unknown authors fail as in FanOutOnWriteEngine, before anything is stored
+         throw new NullPointerException("Unknown author: " + utp.getUser());
+      }
+
+      long handle = arena.add(utp.getUser(), utp.getTweet());
+      for (String userWhoFollows : usersWhoFollow) {
+         HandleTimeline timeline = tweetsByUser.get(userWhoFollows);
+         if (timeline == null) {
+            timeline = new HandleTimeline(maxTimelineLength);
+            tweetsByUser.put(userWhoFollows, timeline);
+         }
+         timeline.add(handle);
+      }
+      fanOutAppends += usersWhoFollow.size();
+   }
+
+   @Override
+   public boolean acceptsConcurrentTweets() {
+      return false;
+   }
+
+   @Override
+   public long getFanOutAppends() {
+      return fanOutAppends;
+   }
+
+   public TweetArena getArena() {
+      return arena;
+   }
+
+   @Override
+   public Collection<String> getUsers() {
+      return tweetsByUser.keySet();
+   }
+
+   /*
+    * The timeline as UserTweetPairs made on the fly, whose sequence numbers are their arena handles. A random access
+    * list, so its latest tweets can be read without walking the rest.
+    */
+   @Override
+   public Iterable<UserTweetPair> getTimeline(String user) {
+      HandleTimeline timeline = tweetsByUser.get(user);
+      if (timeline == null) {
+         return null;
+      }
+      return new TimelineView(timeline);
+   }
+
+   private class TimelineView extends AbstractList<UserTweetPair> implements RandomAccess {
+
+      private final HandleTimeline timeline;
+
+      TimelineView(HandleTimeline timeline) {
+         this.timeline = timeline;
+      }
+
+      @Override
+      public UserTweetPair get(int index) {
+         if (index < 0 || index >= timeline.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + timeline.size);
+         }
+         long handle = timeline.get(index);
+         return new UserTweetPair(arena.getAuthor(handle), arena.getText(handle), handle);
+      }
+
+      @Override
+      public int size() {
+         return timeline.size;
+      }
+   }
+
+   /*
+    * A growable array of handles, oldest first. With a max length it becomes a ring buffer once full, as
+    * BoundedTimeline does for UserTweetPairs.
+    */
+   private static class HandleTimeline {
+
+      private static final int INITIAL_CAPACITY = 4;
+
+      private final int maxLength;
+      private long[] handles;
+      // Index of the oldest handle once the buffer has wrapped
+      private int head = 0;
+      private int size = 0;
+
+      HandleTimeline(int maxLength) {
+         this.maxLength = maxLength;
+         this.handles = new long[maxLength > 0 ? Math.min(INITIAL_CAPACITY, maxLength) : INITIAL_CAPACITY];
+      }
+
+      void add(long handle) {
+         if (size < handles.length) {
+            handles[size++] = handle;
+         } else if (maxLength <= 0 || size < maxLength) {
+            long grown = (long) size * 2;
+            handles = Arrays.copyOf(handles, (int) (maxLength > 0 ? Math.min(grown, maxLength) : grown));
+            handles[size++] = handle;
+         } else {
+            handles[head] = handle;
+            head = (head + 1) % maxLength;
+         }
+      }
+
+      long get(int index) {
+         return handles[(head + index) % handles.length];
+      }
+   }
+}
@@ -0,0 +1,190 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Fan-out-on-write that many threads can add tweets to at once, in any order. Users are kept in a ConcurrentHashMap
+ * and each timeline is an append-only array guarded by one of a fixed set of lock stripes, so threads only contend
+ * when they append to timelines on the same stripe. Nothing is kept sorted while writing: timelines are put in
+ * sequence order, and users in alphabetical order, when they are read.
+ *
+ * With a max timeline length, a timeline that reaches twice that length is sorted and cut back to the latest tweets,
+ * so memory stays bounded by users times twice the length.
+ */
+public class ConcurrentFanOutEngine implements TimelineEngine {
+
+   private static final Comparator<UserTweetPair> BY_SEQUENCE = new Comparator<UserTweetPair>() {
+      @Override
+      public int compare(UserTweetPair first, UserTweetPair second) {
+         return Long.compare(first.getSequence(), second.getSequence());
+      }
+   };
+
+   // Enough stripes that writers rarely meet, whatever the core count
+   private static final int STRIPES = Runtime.getRuntime().availableProcessors() * 16;
+
+   private final FollowGraph followGraph;
+
+   private final ConcurrentHashMap<String, Timeline> tweetsByUser = new ConcurrentHashMap<>();
+
+   private final Stripe[] stripes = new Stripe[STRIPES];
+
+   // Each timeline keeps only this many of the latest tweets, 0 keeps all of them
+   private final int maxTimelineLength;
+
+   public ConcurrentFanOutEngine(FollowGraph followGraph) {
+      this(followGraph, 0);
+   }
+
+   public ConcurrentFanOutEngine(FollowGraph followGraph, int maxTimelineLength) {
+      this.followGraph = followGraph;
+      this.maxTimelineLength = maxTimelineLength;
+      for (int i = 0; i < stripes.length; i++) {
+         stripes[i] = new Stripe();
+      }
+   }
+
+   @Override
+   public void addUser(String user) {
+      getOrAddTimeline(user);
+   }
+
+   /*
+    * Thread safe, and tweets may arrive in any sequence order.
+    */
+   @Override
+   public void addTweet(UserTweetPair utp) {
+      Collection<String> usersWhoFollow = followGraph.getFollowers(utp.getUser());
+
+      for (String userWhoFollows : usersWhoFollow) {
+         Timeline timeline = getOrAddTimeline(userWhoFollows);
+         Stripe stripe = timeline.stripe;
+         synchronized (stripe) {
+            timeline.add(utp);
+            stripe.appends++;
+         }
+      }
+   }
+
+   @Override
+   public boolean acceptsConcurrentTweets() {
+      return true;
+   }
+
+   @Override
+   public long getFanOutAppends() {
+      long appends = 0;
+      for (Stripe stripe : stripes) {
+         synchronized (stripe) {
+            appends += stripe.appends;
+         }
+      }
+      return appends;
+   }
+
+   /*
+    * Sorted on every call, so only rendering pays for the order.
+    */
+   @Override
+   public Collection<String> getUsers() {
+      String[] users = tweetsByUser.keySet().toArray(new String[0]);
+      Arrays.sort(users);
+      return Collections.unmodifiableList(Arrays.asList(users));
+   }
+
+   /*
+    * A copy of the timeline in sequence order, as of this call.
+    */
+   @Override
+   public Iterable<UserTweetPair> getTimeline(String user) {
+      Timeline timeline = tweetsByUser.get(user);
+      if (timeline == null) {
+         return null;
+      }
+      synchronized (timeline.stripe) {
+         return timeline.sortedCopy();
+      }
+   }
+
+   private Timeline getOrAddTimeline(String user) {
+      Timeline timeline = tweetsByUser.get(user);
+      if (timeline == null) {
+         Timeline added = new Timeline(stripes[(user.hashCode() & 0x7FFFFFFF) % stripes.length]);
+         timeline = tweetsByUser.putIfAbsent(user, added);
+         if (timeline == null) {
+            timeline = added;
+         }
+      }
+      return timeline;
+   }
+
+   /*
+    * A lock shared by the timelines hashed to it, and the appends made under it.
+    */
+   private static class Stripe {
+      private long appends = 0;
+   }
+
+   /*
+    * The tweets of one timeline in arrival order. Only touched while holding its stripe.
+    */
+   private class Timeline {
+
+      private final Stripe stripe;
+      private UserTweetPair[] tweets = new UserTweetPair[4];
+      private int size = 0;
+      // False once a tweet arrived with a lower sequence number than the one before it
+      private boolean sorted = true;
+
+      Timeline(Stripe stripe) {
+         this.stripe = stripe;
+      }
+
+      void add(UserTweetPair tweet) {
+         if (size == tweets.length) {
+            if (maxTimelineLength > 0 && size >= maxTimelineLength * 2) {
+               keepLatest();
+            } else {
+               tweets = Arrays.copyOf(tweets, size * 2);
+            }
+         }
+         if (size > 0 && tweet.getSequence() < tweets[size - 1].getSequence()) {
+            sorted = false;
+         }
+         tweets[size++] = tweet;
+      }
+
+      List<UserTweetPair> sortedCopy() {
+         if (maxTimelineLength > 0 && size > maxTimelineLength) {
+            keepLatest();
+         } else if (!sorted) {
+            Arrays.sort(tweets, 0, size, BY_SEQUENCE);
+            sorted = true;
+         }
+         return new ArrayList<>(Arrays.asList(tweets).subList(0, size));
+      }
+
+      /*
+       * Sorts the tweets and drops all but the latest maxTimelineLength.
+       */
+      private void keepLatest() {
+         if (!sorted) {
+            Arrays.sort(tweets, 0, size, BY_SEQUENCE);
+            sorted = true;
+         }
+         int dropped = Math.max(0, size - maxTimelineLength);
+         System.arraycopy(tweets, dropped, tweets, 0, size - dropped);
+         Arrays.fill(tweets, size - dropped, size, null);
+         size -= dropped;
+      }
+   }
+}
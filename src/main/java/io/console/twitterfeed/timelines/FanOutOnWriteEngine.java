@@ -0,0 +1,88 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * Adds each tweet to the list of every follower of its author when it is read. Cheap to render, but a tweet by an
+ * author with N followers costs N appends. With a max timeline length the lists are BoundedTimelines, so memory is
+ * bounded by users times that length whatever the number of tweets.
+ */
+public class FanOutOnWriteEngine implements TimelineEngine {
+
+   // Users who are followed by other users, created by the UserFile Reader
+   private final FollowGraph followGraph;
+
+   // A TreeMap of User --> User/Tweet pairs. TreeMap gives good performance and added to that the ordering is natural
+   // (alphabetical in this case), which we want.
+   private final TreeMap<String, List<UserTweetPair>> tweetsByUser = new TreeMap<>();
+
+   // Each timeline keeps only this many of the latest tweets, 0 keeps all of them
+   private final int maxTimelineLength;
+
+   private long fanOutAppends = 0;
+
+   public FanOutOnWriteEngine(FollowGraph followGraph) {
+      this(followGraph, 0);
+   }
+
+   public FanOutOnWriteEngine(FollowGraph followGraph, int maxTimelineLength) {
+      this.followGraph = followGraph;
+      this.maxTimelineLength = maxTimelineLength;
+   }
+
+   @Override
+   public void addUser(String user) {
+      if (!tweetsByUser.containsKey(user)) {
+         tweetsByUser.put(user, newTimeline());
+      }
+   }
+
+   @Override
+   public void addTweet(UserTweetPair utp) {
+      Collection<String> usersWhoFollow = followGraph.getFollowers(utp.getUser());
+
+      for (String userWhoFollows : usersWhoFollow) {
+         if (tweetsByUser.containsKey(userWhoFollows)) {
+            tweetsByUser.get(userWhoFollows).add(utp);
+         } else {
+            List<UserTweetPair> newTimeline = newTimeline();
+            newTimeline.add(utp);
+            tweetsByUser.put(userWhoFollows, newTimeline);
+         }
+      }
+      fanOutAppends += usersWhoFollow.size();
+   }
+
+   @Override
+   public boolean acceptsConcurrentTweets() {
+      return false;
+   }
+
+   @Override
+   public long getFanOutAppends() {
+      return fanOutAppends;
+   }
+
+   private List<UserTweetPair> newTimeline() {
+      if (maxTimelineLength > 0) {
+         return new BoundedTimeline(maxTimelineLength);
+      }
+      return new ArrayList<>();
+   }
+
+   @Override
+   public Collection<String> getUsers() {
+      return tweetsByUser.keySet();
+   }
+
+   @Override
+   public Iterable<UserTweetPair> getTimeline(String user) {
+      return tweetsByUser.get(user);
+   }
+}
@@ -0,0 +1,283 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/*
+ * Splits authors in two by follower count. Tweets by authors with fewer than hotAuthorThreshold followers are fanned
+ * out on write, like FanOutOnWriteEngine. Tweets by the rest ("hot" authors) are appended once to an append-only log
+ * per author, and a follower's timeline is built on read by a k-way merge, on sequence number, of their own list and
+ * the logs of the hot authors they follow. A threshold of 0 makes every author hot, i.e. pure fan-out-on-read.
+ */
+public class HybridTimelineEngine implements TimelineEngine {
+
+   private final FollowGraph followGraph;
+   private final int hotAuthorThreshold;
+   // Each timeline keeps only this many of the latest tweets, 0 keeps all of them
+   private final int maxTimelineLength;
+
+   // User --> tweets fanned out on write. Created on the first append, so pure fan-out-on-read never allocates them.
+   private final TreeMap<String, List<UserTweetPair>> tweetsByUser = new TreeMap<>();
+
+   // Hot author --> everything they tweeted, in sequence order
+   private final HashMap<String, List<UserTweetPair>> tweetsByAuthor = new HashMap<>();
+
+   // Follower --> hot authors they follow, built once on the first read
+   private HashMap<String, List<String>> hotAuthorsByFollower = null;
+
+   // Appends to per-author logs count as one, since the fan-out happens on read
+   private long fanOutAppends = 0;
+
+   public HybridTimelineEngine(FollowGraph followGraph, int hotAuthorThreshold) {
+      this(followGraph, hotAuthorThreshold, 0);
+   }
+
+   public HybridTimelineEngine(FollowGraph followGraph, int hotAuthorThreshold, int maxTimelineLength) {
+      this.followGraph = followGraph;
+      this.hotAuthorThreshold = hotAuthorThreshold;
+      this.maxTimelineLength = maxTimelineLength;
+   }
+
+   @Override
+   public void addUser(String user) {
+      if (!tweetsByUser.containsKey(user)) {
+         tweetsByUser.put(user, null);
+      }
+   }
+
+   @Override
+   public void addTweet(UserTweetPair utp) {
+      Collection<String> usersWhoFollow = followGraph.getFollowers(utp.getUser());
+
+      if (isHot(usersWhoFollow)) {
+         List<UserTweetPair> log = tweetsByAuthor.get(utp.getUser());
+         if (log == null) {
+            // Only an author's latest tweets can be among the latest of any timeline, so logs are bounded too
+            log = newTimeline();
+            tweetsByAuthor.put(utp.getUser(), log);
+         }
+         log.add(utp);
+         fanOutAppends++;
+         return;
+      }
+
+      for (String userWhoFollows : usersWhoFollow) {
+         List<UserTweetPair> tweets = tweetsByUser.get(userWhoFollows);
+         if (tweets == null) {
+            tweets = newTimeline();
+            tweetsByUser.put(userWhoFollows, tweets);
+         }
+         tweets.add(utp);
+      }
+      fanOutAppends += usersWhoFollow.size();
+   }
+
+   @Override
+   public boolean acceptsConcurrentTweets() {
+      return false;
+   }
+
+   @Override
+   public long getFanOutAppends() {
+      return fanOutAppends;
+   }
+
+   @Override
+   public Collection<String> getUsers() {
+      return tweetsByUser.keySet();
+   }
+
+   @Override
+   public Iterable<UserTweetPair> getTimeline(String user) {
+      // Only users added, or fanned out to, have a timeline, even if it is empty
+      if (!tweetsByUser.containsKey(user)) {
+         return null;
+      }
+      lazyLoadHotAuthorsByFollower();
+
+      List<List<UserTweetPair>> sources = new ArrayList<>();
+      List<UserTweetPair> ownTweets = tweetsByUser.get(user);
+      if (ownTweets != null) {
+         sources.add(ownTweets);
+      }
+      List<String> hotAuthors = hotAuthorsByFollower.get(user);
+      if (hotAuthors != null) {
+         for (String hotAuthor : hotAuthors) {
+            List<UserTweetPair> log = tweetsByAuthor.get(hotAuthor);
+            if (log != null) {
+               sources.add(log);
+            }
+         }
+      }
+
+      if (sources.isEmpty()) {
+         return Collections.emptyList();
+      }
+      if (sources.size() == 1) {
+         return sources.get(0);
+      }
+
+      return new MergedTimeline(sources, maxTimelineLength);
+   }
+
+   /*
+    * A timeline merged on read from a follower's own list and the logs of the hot authors they follow, whose latest
+    * tweets can be read without merging everything before them.
+    */
+   public static class MergedTimeline implements Iterable<UserTweetPair> {
+
+      private final List<List<UserTweetPair>> sources;
+      // Only the latest maxLength tweets of the merge are in the timeline, 0 keeps all of them
+      private final int maxLength;
+
+      MergedTimeline(List<List<UserTweetPair>> sources, int maxLength) {
+         this.sources = sources;
+         this.maxLength = maxLength;
+      }
+
+      @Override
+      public Iterator<UserTweetPair> iterator() {
+         // The merge skips whatever falls outside the latest maxLength tweets
+         int total = 0;
+         for (List<UserTweetPair> source : sources) {
+            total += source.size();
+         }
+         int skip = maxLength > 0 ? Math.max(0, total - maxLength) : 0;
+         MergingIterator merged = new MergingIterator(sources);
+         for (int i = 0; i < skip; i++) {
+            merged.next();
+         }
+         return merged;
+      }
+
+      /*
+       * The latest n tweets, oldest first. They can only be among the latest n of each source, so only those are
+       * merged, and the cost does not depend on how long the logs of hot authors have grown.
+       */
+      public List<UserTweetPair> getLatest(int n) {
+         int wanted = maxLength > 0 ? Math.min(n, maxLength) : n;
+         List<List<UserTweetPair>> tails = new ArrayList<>(sources.size());
+         for (List<UserTweetPair> source : sources) {
+            tails.add(source.subList(Math.max(0, source.size() - wanted), source.size()));
+         }
+         ArrayList<UserTweetPair> merged = new ArrayList<>();
+         MergingIterator iterator = new MergingIterator(tails);
+         while (iterator.hasNext()) {
+            merged.add(iterator.next());
+         }
+         return merged.subList(Math.max(0, merged.size() - wanted), merged.size());
+      }
+   }
+
+   private List<UserTweetPair> newTimeline() {
+      if (maxTimelineLength > 0) {
+         return new BoundedTimeline(maxTimelineLength);
+      }
+      return new ArrayList<>();
+   }
+
+   private boolean isHot(Collection<String> usersWhoFollow) {
+      return usersWhoFollow != null && usersWhoFollow.size() >= hotAuthorThreshold;
+   }
+
+   /*
+    * Inverts the follow graph for hot authors only, since cold authors have already been fanned out. Synchronized,
+    * since timelines may be read from several threads at once, see FeedEncoder.
+    */
+   private synchronized void lazyLoadHotAuthorsByFollower() {
+      if (hotAuthorsByFollower != null) {
+         return;
+      }
+      HashMap<String, List<String>> inverted = new HashMap<>();
+      for (String author : followGraph.getUsers()) {
+         Collection<String> usersWhoFollow = followGraph.getFollowers(author);
+         if (!isHot(usersWhoFollow)) {
+            continue;
+         }
+         for (String follower : usersWhoFollow) {
+            List<String> hotAuthors = inverted.get(follower);
+            if (hotAuthors == null) {
+               hotAuthors = new ArrayList<>();
+               inverted.put(follower, hotAuthors);
+            }
+            hotAuthors.add(author);
+         }
+      }
+      hotAuthorsByFollower = inverted;
+   }
+
+   /*
+    * K-way merge of lists that are each sorted by sequence number.
+    */
+   private static class MergingIterator implements Iterator<UserTweetPair> {
+
+      private final PriorityQueue<Cursor> heads;
+
+      MergingIterator(List<List<UserTweetPair>> sources) {
+         heads = new PriorityQueue<>(sources.size());
+         for (List<UserTweetPair> source : sources) {
+            Iterator<UserTweetPair> iterator = source.iterator();
+            if (iterator.hasNext()) {
+               heads.add(new Cursor(iterator));
+            }
+         }
+      }
+
+      @Override
+      public boolean hasNext() {
+         return !heads.isEmpty();
+      }
+
+      @Override
+      public UserTweetPair next() {
+         Cursor cursor = heads.poll();
+         if (cursor == null) {
+            throw new NoSuchElementException();
+         }
+         UserTweetPair next = cursor.head;
+         if (cursor.advance()) {
+            heads.add(cursor);
+         }
+         return next;
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   private static class Cursor implements Comparable<Cursor> {
+
+      private final Iterator<UserTweetPair> iterator;
+      private UserTweetPair head;
+
+      Cursor(Iterator<UserTweetPair> iterator) {
+         this.iterator = iterator;
+         this.head = iterator.next();
+      }
+
+      boolean advance() {
+         if (!iterator.hasNext()) {
+            return false;
+         }
+         head = iterator.next();
+         return true;
+      }
+
+      @Override
+      public int compareTo(Cursor other) {
+         return Long.compare(head.getSequence(), other.head.getSequence());
+      }
+   }
+}
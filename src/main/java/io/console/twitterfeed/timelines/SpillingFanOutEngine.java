@@ -0,0 +1,537 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.graph.FollowGraph;
+import io.console.twitterfeed.snapshot.MappedFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/*
+ * Fan-out-on-write for feeds whose timelines do not fit in the heap. Each tweet is written once to a tweet file, and
+ * each delivery to a follower is a (reader rank, sequence number, tweet handle) record in a buffer that holds at most
+ * the memory budget. A full buffer is sorted by reader rank (alphabetical order of the reader) and written out as a
+ * run file. Timelines are read through a k-way merge of the runs, which streams the readers in alphabetical order,
+ * so the heap holds the buffer or the read buffers of the runs, plus the user names, whatever the number of tweets.
+ * The budget covers timelines only. The follow graph, its user dictionary and the engine's own rank per user stay on
+ * the heap, so peak heap use is the graph plus the budget.
+ * When there are more runs than the budget has read buffers for, the oldest are first merged into longer runs, a
+ * group at a time, until the rest can be merged at once.
+ *
+ * Reading timelines in alphabetical order, each before the next, as FeedWriter does, costs one pass over the runs.
+ * Going back to an earlier user starts the merge again. Call close() to delete the spill files, which are left behind
+ * otherwise; TweetFileToTreeMapReader closes the engines it replaces.
+ */
+public class SpillingFanOutEngine implements TimelineEngine, Closeable {
+
+   // A fan-out record on disk: reader rank, sequence number and tweet handle
+   private static final int RECORD_SIZE = 4 + 8 + 8;
+   private static final int MIN_BUFFERED_RECORDS = 1024;
+   private static final int MIN_READ_BUFFER_SIZE = 4 * 1024;
+   private static final int MAX_READ_BUFFER_SIZE = 64 * 1024;
+   // The most runs merged at once, whatever the budget
+   private static final int MAX_MERGE_FAN_IN = 64;
+   private static final int TWEET_HEADER_SIZE = 6;
+   private static final int MAX_TEXT_LENGTH = 0xFFFF;
+
+   // Users who are followed by other users, created by the UserFile Reader
+   private final FollowGraph followGraph;
+
+   // Each timeline keeps only this many of the latest tweets, 0 keeps all of them
+   private final int maxTimelineLength;
+
+   private final long memoryBudget;
+   private final File spillDirectory;
+
+   // Every user of the graph alphabetically, a user's rank is their index
+   private final String[] users;
+   private final HashMap<String, Integer> rankByUser;
+   private final boolean[] hasTimeline;
+   private List<String> usersWithTimelines = null;
+
+   // Tweets as [author rank: 4 bytes][length: 2 bytes][text: one byte per char]; a handle is a record's offset
+   private final File tweetFile;
+   private final DataOutputStream tweetOut;
+   private long tweetFileSize = 0;
+   private MappedFile mappedTweets = null;
+
+   // Records not spilled yet, in the order they were added, which is sequence order for each reader. Sorting takes an
+   // int per record on top of RECORD_SIZE. Dropped while timelines are read.
+   private final int bufferCapacity;
+   private int[] bufferRanks = null;
+   private long[] bufferSequences = null;
+   private long[] bufferHandles = null;
+   private int buffered = 0;
+
+   private final List<File> runs = new ArrayList<>();
+   private RunMerger merger = null;
+
+   private long fanOutAppends = 0;
+
+   /*
+    * The budget bounds the records buffered in memory, and the read buffers of the runs while timelines are read.
+    * Spill files are created in spillDirectory.
+    */
+   public SpillingFanOutEngine(FollowGraph followGraph, int maxTimelineLength, long memoryBudget,
+         File spillDirectory) throws IOException {
+      this.followGraph = followGraph;
+      this.maxTimelineLength = maxTimelineLength;
+      this.memoryBudget = memoryBudget;
+      this.spillDirectory = spillDirectory;
+      this.bufferCapacity = (int) Math.min(Integer.MAX_VALUE - 8,
+            Math.max(MIN_BUFFERED_RECORDS, memoryBudget / (RECORD_SIZE + 4)));
+
+      Collection<String> graphUsers = followGraph.getUsers();
+      users = graphUsers.toArray(new String[graphUsers.size()]);
+      Arrays.sort(users);
+      rankByUser = new HashMap<>(users.length * 2);
+      for (int rank = 0; rank < users.length; rank++) {
+         rankByUser.put(users[rank], rank);
+      }
+      hasTimeline = new boolean[users.length];
+
+      tweetFile = createSpillFile("tweets");
+      tweetOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tweetFile)));
+   }
+
+   /*
+    * Only users of the follow graph can have a timeline.
+    */
+   @Override
+   public void addUser(String user) {
+      Integer rank = rankByUser.get(user);
+      if (rank == null) {
+         throw new IllegalArgumentException("Unknown user: " + user);
+      }
+      markTimeline(rank);
+   }
+
+   @Override
+   public void addTweet(UserTweetPair utp) {
+      Collection<String> usersWhoFollow = followGraph.getFollowers(utp.getUser());
+      if (usersWhoFollow == null) {
+         // Unknown authors fail as in FanOutOnWriteEngine, before anything is stored
+         throw new NullPointerException("Unknown author: " + utp.getUser());
+      }
+
+      try {
+         closeMerger();
+         mappedTweets = null;
+         if (bufferRanks == null) {
+            bufferRanks = new int[bufferCapacity];
+            bufferSequences = new long[bufferCapacity];
+            bufferHandles = new long[bufferCapacity];
+         }
+
+         long handle = writeTweet(rankByUser.get(utp.getUser()), utp.getTweet());
+         for (String userWhoFollows : usersWhoFollow) {
+            if (buffered == bufferCapacity) {
+               spill();
+            }
+            int rank = rankByUser.get(userWhoFollows);
+            bufferRanks[buffered] = rank;
+            bufferSequences[buffered] = utp.getSequence();
+            bufferHandles[buffered] = handle;
+            buffered++;
+            markTimeline(rank);
+         }
+      } catch (IOException e) {
+         throw new IllegalStateException("Could not spill timelines to " + spillDirectory, e);
+      }
+      fanOutAppends += usersWhoFollow.size();
+   }
+
+   @Override
+   public boolean acceptsConcurrentTweets() {
+      return false;
+   }
+
+   @Override
+   public long getFanOutAppends() {
+      return fanOutAppends;
+   }
+
+   /*
+    * How many run files there are. Merge passes replace them with fewer, longer ones when timelines are first read.
+    */
+   public int getRunCount() {
+      return runs.size();
+   }
+
+   @Override
+   public Collection<String> getUsers() {
+      if (usersWithTimelines == null) {
+         usersWithTimelines = new ArrayList<>();
+         for (int rank = 0; rank < users.length; rank++) {
+            if (hasTimeline[rank]) {
+               usersWithTimelines.add(users[rank]);
+            }
+         }
+      }
+      return usersWithTimelines;
+   }
+
+   /*
+    * The timeline, streamed from the runs when it is iterated. Only one timeline can be iterated at a time.
+    */
+   @Override
+   public Iterable<UserTweetPair> getTimeline(String user) {
+      final Integer rank = rankByUser.get(user);
+      if (rank == null || !hasTimeline[rank]) {
+         return null;
+      }
+      return new Iterable<UserTweetPair>() {
+         @Override
+         public Iterator<UserTweetPair> iterator() {
+            try {
+               return timelineIterator(rank);
+            } catch (IOException e) {
+               throw new IllegalStateException("Could not read spilled timelines", e);
+            }
+         }
+      };
+   }
+
+   /*
+    * Deletes the spill files. The engine cannot be used afterwards.
+    */
+   @Override
+   public void close() throws IOException {
+      closeMerger();
+      tweetOut.close();
+      mappedTweets = null;
+      tweetFile.delete();
+      for (File run : runs) {
+         run.delete();
+      }
+      runs.clear();
+   }
+
+   private void markTimeline(int rank) {
+      if (!hasTimeline[rank]) {
+         hasTimeline[rank] = true;
+         usersWithTimelines = null;
+      }
+   }
+
+   private long writeTweet(int authorRank, String text) throws IOException {
+      int length = text.length();
+      if (length > MAX_TEXT_LENGTH) {
+         throw new IllegalArgumentException("Tweet is too long to store, length was: " + length);
+      }
+      tweetOut.writeInt(authorRank);
+      tweetOut.writeShort(length);
+      for (int i = 0; i < length; i++) {
+         tweetOut.write(text.charAt(i));
+      }
+      long handle = tweetFileSize;
+      tweetFileSize += TWEET_HEADER_SIZE + length;
+      return handle;
+   }
+
+   /*
+    * Writes the buffered records out as a run, sorted by reader rank. A counting sort keeps each reader's records in
+    * the order they were added, which is sequence order.
+    */
+   private void spill() throws IOException {
+      int[] starts = new int[users.length + 1];
+      for (int i = 0; i < buffered; i++) {
+         starts[bufferRanks[i] + 1]++;
+      }
+      for (int rank = 0; rank < users.length; rank++) {
+         starts[rank + 1] += starts[rank];
+      }
+      int[] order = new int[buffered];
+      for (int i = 0; i < buffered; i++) {
+         order[starts[bufferRanks[i]]++] = i;
+      }
+
+      File run = createSpillFile("timelines");
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+      try {
+         for (int i : order) {
+            out.writeInt(bufferRanks[i]);
+            out.writeLong(bufferSequences[i]);
+            out.writeLong(bufferHandles[i]);
+         }
+      } finally {
+         out.close();
+      }
+      runs.add(run);
+      buffered = 0;
+   }
+
+   /*
+    * Spills what is still buffered, merges the runs down to what can be read at once and maps the tweets, so
+    * everything is on disk while timelines are read.
+    */
+   private void prepareRead() throws IOException {
+      if (buffered > 0) {
+         spill();
+      }
+      // The read buffers take the budget over from the fan-out buffer
+      bufferRanks = null;
+      bufferSequences = null;
+      bufferHandles = null;
+      int fanIn = mergeFanIn();
+      while (runs.size() > fanIn) {
+         mergeRuns(fanIn);
+      }
+      if (mappedTweets == null) {
+         tweetOut.flush();
+         mappedTweets = new MappedFile(tweetFile);
+      }
+   }
+
+   private Iterator<UserTweetPair> timelineIterator(final int rank) throws IOException {
+      prepareRead();
+      if (merger == null || rank <= merger.lastRank) {
+         closeMerger();
+         merger = new RunMerger(runs, readBufferSize(runs.size()));
+      }
+      merger.skipTo(rank);
+
+      if (maxTimelineLength > 0) {
+         return latestTweets(rank);
+      }
+      return new Iterator<UserTweetPair>() {
+         @Override
+         public boolean hasNext() {
+            return merger.peekRank() == rank;
+         }
+
+         @Override
+         public UserTweetPair next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            try {
+               merger.take();
+            } catch (IOException e) {
+               throw new IllegalStateException("Could not read spilled timelines", e);
+            }
+            return readTweet(merger.takenSequence, merger.takenHandle);
+         }
+
+         @Override
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   /*
+    * Keeps the latest maxTimelineLength records of the reader in a ring, oldest first once unrolled.
+    */
+   private Iterator<UserTweetPair> latestTweets(int rank) throws IOException {
+      long[] sequences = new long[maxTimelineLength];
+      long[] handles = new long[maxTimelineLength];
+      long count = 0;
+      while (merger.peekRank() == rank) {
+         merger.take();
+         int slot = (int) (count++ % maxTimelineLength);
+         sequences[slot] = merger.takenSequence;
+         handles[slot] = merger.takenHandle;
+      }
+
+      int size = (int) Math.min(count, maxTimelineLength);
+      int oldest = count > maxTimelineLength ? (int) (count % maxTimelineLength) : 0;
+      List<UserTweetPair> tweets = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+         int slot = (oldest + i) % maxTimelineLength;
+         tweets.add(readTweet(sequences[slot], handles[slot]));
+      }
+      return tweets.iterator();
+   }
+
+   private UserTweetPair readTweet(long sequence, long handle) {
+      int authorRank = mappedTweets.getInt(handle);
+      int length = (mappedTweets.get(handle + 4) & 0xFF) << 8 | (mappedTweets.get(handle + 5) & 0xFF);
+      byte[] text = new byte[length];
+      mappedTweets.get(handle + TWEET_HEADER_SIZE, text, length);
+      return new UserTweetPair(users[authorRank], new String(text, StandardCharsets.ISO_8859_1), sequence);
+   }
+
+   private void closeMerger() throws IOException {
+      if (merger != null) {
+         merger.close();
+         merger = null;
+      }
+   }
+
+   /*
+    * How many runs can be merged at once, each with a read buffer of at least MIN_READ_BUFFER_SIZE, plus a buffer for
+    * the merged run, within the budget. Below three buffers the budget is exceeded rather than merging one run at a
+    * time.
+    */
+   private int mergeFanIn() {
+      return (int) Math.max(2, Math.min(MAX_MERGE_FAN_IN, memoryBudget / MIN_READ_BUFFER_SIZE - 1));
+   }
+
+   /*
+    * The budget split between the read buffers of this many runs and a write buffer.
+    */
+   private int readBufferSize(int runCount) {
+      return (int) Math.max(MIN_READ_BUFFER_SIZE, Math.min(MAX_READ_BUFFER_SIZE, memoryBudget / (runCount + 1)));
+   }
+
+   /*
+    * Merges the oldest fanIn runs into one, which goes last, and deletes them. Merged records stay ordered by reader
+    * rank, then sequence number, like those of a spilled run, and the order of the runs does not matter to a merge.
+    */
+   private void mergeRuns(int fanIn) throws IOException {
+      List<File> group = runs.subList(0, fanIn);
+      int bufferSize = readBufferSize(fanIn);
+      File run = createSpillFile("timelines");
+      boolean written = false;
+      RunMerger groupMerger = new RunMerger(group, bufferSize);
+      try {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), bufferSize));
+         try {
+            for (int rank = groupMerger.peekRank(); rank != Integer.MAX_VALUE; rank = groupMerger.peekRank()) {
+               groupMerger.take();
+               out.writeInt(rank);
+               out.writeLong(groupMerger.takenSequence);
+               out.writeLong(groupMerger.takenHandle);
+            }
+         } finally {
+            out.close();
+         }
+         written = true;
+      } finally {
+         groupMerger.close();
+         if (!written) {
+            run.delete();
+         }
+      }
+      for (File merged : group) {
+         merged.delete();
+      }
+      group.clear();
+      runs.add(run);
+   }
+
+   private File createSpillFile(String prefix) throws IOException {
+      return File.createTempFile(prefix, ".spill", spillDirectory);
+   }
+
+   /*
+    * Merges the runs into one stream of records ordered by reader rank, then sequence number.
+    */
+   private static class RunMerger implements Closeable {
+
+      private final List<RunReader> readers = new ArrayList<>();
+      private final PriorityQueue<RunReader> heads;
+
+      // The rank last skipped to; records of ranks up to it may already have been taken
+      private int lastRank = -1;
+
+      // The record last taken
+      private long takenSequence;
+      private long takenHandle;
+
+      RunMerger(List<File> runs, int readBufferSize) throws IOException {
+         heads = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader a, RunReader b) {
+               if (a.rank != b.rank) {
+                  return a.rank < b.rank ? -1 : 1;
+               }
+               return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+         });
+         try {
+            for (File run : runs) {
+               RunReader reader = new RunReader(run, readBufferSize);
+               readers.add(reader);
+               if (reader.advance()) {
+                  heads.add(reader);
+               }
+            }
+         } catch (IOException e) {
+            close();
+            throw e;
+         }
+      }
+
+      /*
+       * The rank of the next record, or Integer.MAX_VALUE when there are none left.
+       */
+      int peekRank() {
+         return heads.isEmpty() ? Integer.MAX_VALUE : heads.peek().rank;
+      }
+
+      void take() throws IOException {
+         RunReader head = heads.poll();
+         takenSequence = head.sequence;
+         takenHandle = head.handle;
+         if (head.advance()) {
+            heads.add(head);
+         }
+      }
+
+      void skipTo(int rank) throws IOException {
+         while (peekRank() < rank) {
+            take();
+         }
+         lastRank = rank;
+      }
+
+      @Override
+      public void close() throws IOException {
+         for (RunReader reader : readers) {
+            reader.in.close();
+         }
+      }
+   }
+
+   /*
+    * Reads one run a record at a time.
+    */
+   private static class RunReader {
+
+      private final DataInputStream in;
+      private long remaining;
+
+      // The current record
+      private int rank;
+      private long sequence;
+      private long handle;
+
+      RunReader(File run, int bufferSize) throws IOException {
+         this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), bufferSize));
+         this.remaining = run.length() / RECORD_SIZE;
+      }
+
+      /*
+       * Moves to the next record, returning false at the end of the run.
+       */
+      boolean advance() throws IOException {
+         if (remaining == 0) {
+            return false;
+         }
+         remaining--;
+         rank = in.readInt();
+         sequence = in.readLong();
+         handle = in.readLong();
+         return true;
+      }
+   }
+}
@@ -0,0 +1,33 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.TweetSink;
+import io.console.twitterfeed.filereaders.UserTweetPair;
+
+/*
+ * Stores tweets and hands back every user's timeline. Implementations differ in when the work of delivering a tweet to
+ * its followers is done: while reading (fan-out-on-write) or while rendering (fan-out-on-read).
+ */
+public interface TimelineEngine extends Timelines, TweetSink {
+
+   /*
+    * Makes sure the user has a timeline, even if it stays empty.
+    */
+   void addUser(String user);
+
+   /*
+    * Delivers a tweet to everyone who follows its author. Unless the engine accepts concurrent tweets, tweets must be
+    * added from one thread in increasing sequence order.
+    */
+   @Override
+   void addTweet(UserTweetPair tweet);
+
+   /*
+    * True if addTweet() may be called from many threads at once, with tweets in any sequence order.
+    */
+   boolean acceptsConcurrentTweets();
+
+   /*
+    * How many timeline appends addTweet() has made so far, a measure of the work fan-out did.
+    */
+   long getFanOutAppends();
+}
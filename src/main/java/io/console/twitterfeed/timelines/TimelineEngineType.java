@@ -0,0 +1,16 @@
+package io.console.twitterfeed.timelines;
+
+public enum TimelineEngineType {
+   // Copy every tweet into the timeline of each follower as it is read
+   FAN_OUT_ON_WRITE,
+   // Keep one log per author and merge the logs of followed authors when a timeline is read
+   FAN_OUT_ON_READ,
+   // Fan out on write, except for authors with at least the hot author threshold of followers
+   HYBRID,
+   // Fan out on write into a thread safe store, so parallel parsing threads fan out at once
+   CONCURRENT_FAN_OUT_ON_WRITE,
+   // Fan out on write, storing tweets once as bytes and timelines as arrays of handles to them
+   COMPACT_FAN_OUT_ON_WRITE,
+   // Fan out on write into sorted run files on disk once a memory budget is used, merged when timelines are read
+   SPILLING_FAN_OUT_ON_WRITE
+}
@@ -0,0 +1,21 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.filereaders.UserTweetPair;
+
+import java.util.Collection;
+
+/*
+ * Read-only view of every user's timeline, which is all the feed output needs.
+ */
+public interface Timelines {
+
+   /*
+    * All users with a timeline, in alphabetical order.
+    */
+   Collection<String> getUsers();
+
+   /*
+    * The tweets a user sees, in the order they were added, or null if the user has no timeline.
+    */
+   Iterable<UserTweetPair> getTimeline(String user);
+}
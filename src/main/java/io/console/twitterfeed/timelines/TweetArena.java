@@ -0,0 +1,87 @@
+package io.console.twitterfeed.timelines;
+
+import io.console.twitterfeed.graph.UserDictionary;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Append-only storage for tweets as bytes. Each tweet is one record of [author id: 4 bytes][length: 2 bytes][text:
+ * one byte per char] in a list of fixed size byte[] blocks, and is referred to by a long handle: the block index in
+ * the high half, the offset in the low half. Handles grow in the order tweets are added.
+ *
+ * Compared with a UserTweetPair per tweet (an object, a String and a char[] per tweet, two bytes per char), a tweet
+ * costs six bytes plus its length and no objects at all. Authors are interned once, whatever they tweet.
+ *
+ * Text is stored as ISO-8859-1, so only chars below 256 survive; tweets are validated as ASCII before they get here.
+ */
+public class TweetArena {
+
+   private static final int BLOCK_SIZE = 1 << 20;
+   private static final int HEADER_SIZE = 6;
+   private static final int MAX_TEXT_LENGTH = 0xFFFF;
+
+   private final UserDictionary authors = new UserDictionary();
+   private final List<byte[]> blocks = new ArrayList<>();
+
+   // The block being filled and where its free space starts
+   private byte[] current = null;
+   private int used = BLOCK_SIZE;
+
+   private long bytesStored = 0;
+
+   /*
+    * Stores a tweet and returns its handle.
+    */
+   public long add(String author, String text) {
+      int length = text.length();
+      if (length > MAX_TEXT_LENGTH) {
+         throw new IllegalArgumentException("Tweet is too long to store, length was: " + length);
+      }
+      int recordSize = HEADER_SIZE + length;
+      if (used + recordSize > BLOCK_SIZE) {
+         current = new byte[Math.max(BLOCK_SIZE, recordSize)];
+         blocks.add(current);
+         used = 0;
+      }
+
+      int authorId = authors.intern(author);
+      int offset = used;
+      current[offset] = (byte) (authorId >>> 24);
+      current[offset + 1] = (byte) (authorId >>> 16);
+      current[offset + 2] = (byte) (authorId >>> 8);
+      current[offset + 3] = (byte) authorId;
+      current[offset + 4] = (byte) (length >>> 8);
+      current[offset + 5] = (byte) length;
+      for (int i = 0; i < length; i++) {
+         current[offset + HEADER_SIZE + i] = (byte) text.charAt(i);
+      }
+      used += recordSize;
+      bytesStored += recordSize;
+
+      return (long) (blocks.size() - 1) << 32 | offset;
+   }
+
+   public String getAuthor(long handle) {
+      byte[] block = blocks.get((int) (handle >>> 32));
+      int offset = (int) handle;
+      int authorId = (block[offset] & 0xFF) << 24 | (block[offset + 1] & 0xFF) << 16
+            | (block[offset + 2] & 0xFF) << 8 | (block[offset + 3] & 0xFF);
+      return authors.getName(authorId);
+   }
+
+   public String getText(long handle) {
+      byte[] block = blocks.get((int) (handle >>> 32));
+      int offset = (int) handle;
+      int length = (block[offset + 4] & 0xFF) << 8 | (block[offset + 5] & 0xFF);
+      return new String(block, offset + HEADER_SIZE, length, StandardCharsets.ISO_8859_1);
+   }
+
+   /*
+    * Bytes taken by the records, not counting the unused end of the last block.
+    */
+   public long getBytesStored() {
+      return bytesStored;
+   }
+}
@@ -0,0 +1,136 @@
+package io.console.twitterfeed.validation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The rules input lines are checked against, and what happens to the lines that break them. The rules are plain
+ * loops over chars, with the same results as the StringUtils.isAlphanumeric() and "\p{ASCII}+" checks they replace.
+ * Names that passed are remembered in a small cache, so a name seen on every other line is only compared, not
+ * checked again.
+ *
+ * Thread safe: parallel readers share one validator. With a reject file, lines parsed in parallel are written in the
+ * order they were rejected, which need not be file order.
+ */
+public class LineValidator {
+
+   /*
+    * Fails on the first invalid line. Holds no state worth keeping apart, so every reader can share it.
+    */
+   public static final LineValidator FAIL_FAST = new LineValidator(ValidationPolicy.FAIL_FAST, null);
+
+   private static final int NAME_CACHE_SIZE = 1024;
+
+   private final ValidationPolicy policy;
+   private final File rejectFile;
+   private final AtomicLong rejectedLines = new AtomicLong();
+
+   // Direct mapped by hash code; a racing write at worst makes a name be checked twice
+   private final String[] validNames = new String[NAME_CACHE_SIZE];
+
+   private Writer rejectWriter = null;
+   // Once the reject file is started, later writes append to it, even after close()
+   private boolean rejectFileStarted = false;
+
+   /*
+    * The reject file is only used by REJECT_FILE, and is created, or emptied, when the first line is rejected.
+    */
+   public LineValidator(ValidationPolicy policy, File rejectFile) {
+      if (policy == ValidationPolicy.REJECT_FILE && rejectFile == null) {
+         throw new IllegalArgumentException("The REJECT_FILE policy needs a reject file");
+      }
+      this.policy = policy;
+      this.rejectFile = rejectFile;
+   }
+
+   public ValidationPolicy getPolicy() {
+      return policy;
+   }
+
+   public long getRejectedLines() {
+      return rejectedLines.get();
+   }
+
+   /*
+    * True if the name is one or more letters or digits.
+    */
+   public boolean isValidName(String name) {
+      int slot = name.hashCode() & (NAME_CACHE_SIZE - 1);
+      String cached = validNames[slot];
+      if (cached != null && cached.equals(name)) {
+         return true;
+      }
+
+      int length = name.length();
+      if (length == 0) {
+         return false;
+      }
+      for (int i = 0; i < length; i++) {
+         if (!Character.isLetterOrDigit(name.charAt(i))) {
+            return false;
+         }
+      }
+      validNames[slot] = name;
+      return true;
+   }
+
+   /*
+    * True if the tweet is one or more ASCII chars.
+    */
+   public static boolean isValidTweet(String tweet) {
+      int length = tweet.length();
+      if (length == 0) {
+         return false;
+      }
+      for (int i = 0; i < length; i++) {
+         if (tweet.charAt(i) > 0x7F) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /*
+    * Deals with an invalid line according to the policy: FAIL_FAST throws an IllegalArgumentException with the
+    * message problem + detail, the others count the line, and REJECT_FILE copies it to the reject file as it was.
+    * The message is only built when it is thrown.
+    */
+   public void reject(String line, String problem, String detail) {
+      if (policy == ValidationPolicy.FAIL_FAST) {
+         throw new IllegalArgumentException(problem + detail);
+      }
+      rejectedLines.incrementAndGet();
+      if (policy == ValidationPolicy.REJECT_FILE) {
+         writeRejected(line);
+      }
+   }
+
+   /*
+    * Flushes and closes the reject file, if any line was rejected.
+    */
+   public synchronized void close() throws IOException {
+      if (rejectWriter != null) {
+         rejectWriter.close();
+         rejectWriter = null;
+      }
+   }
+
+   private synchronized void writeRejected(String line) {
+      try {
+         if (rejectWriter == null) {
+            rejectWriter =
+                  new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectFile, rejectFileStarted)));
+            rejectFileStarted = true;
+         }
+         rejectWriter.write(line);
+         rejectWriter.write(System.lineSeparator());
+      } catch (IOException e) {
+         throw new IllegalStateException("Could not write to reject file " + rejectFile, e);
+      }
+   }
+}
@@ -0,0 +1,10 @@
+package io.console.twitterfeed.validation;
+
+public enum ValidationPolicy {
+   // Stop at the first invalid line with an IllegalArgumentException, as the readers always did
+   FAIL_FAST,
+   // Leave invalid lines out and count them
+   SKIP_AND_COUNT,
+   // Leave invalid lines out, count them and copy them to a reject file
+   REJECT_FILE
+}
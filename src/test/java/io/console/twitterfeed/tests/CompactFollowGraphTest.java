@@ -0,0 +1,49 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.graph.CompactFollowGraph;
+import io.console.twitterfeed.graph.UserDictionary;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CompactFollowGraphTest {
+
+   @Test
+   public void dictionaryAssignsDenseIds() {
+      UserDictionary dictionary = new UserDictionary();
+      for (int i = 0; i < 1000; i++) {
+         Assert.assertEquals(dictionary.intern("user" + i), i);
+      }
+      for (int i = 0; i < 1000; i++) {
+         Assert.assertEquals(dictionary.intern("user" + i), i);
+         Assert.assertEquals(dictionary.getId("user" + i), i);
+         Assert.assertEquals(dictionary.getName(i), "user" + i);
+      }
+      Assert.assertEquals(dictionary.getId("nobody"), -1);
+      Assert.assertEquals(dictionary.size(), 1000);
+   }
+
+   @Test
+   public void followersAreSortedAndUnique() {
+      CompactFollowGraph graph = new CompactFollowGraph.Builder().addFollow("Ward", "Alan")
+            .addFollow("Alan", "Martin").addFollow("Ward", "Martin").addFollow("Ward", "Alan").build();
+
+      Assert.assertEquals(graph.getUserCount(), 3);
+      Assert.assertEquals(graph.getFollowerCount("Alan"), 2);
+      Assert.assertEquals(graph.getFollowerCount("Martin"), 3);
+      Assert.assertEquals(graph.getFollowerCount("Ward"), 1);
+      Assert.assertEquals(graph.getFollowerCount("nobody"), -1);
+      Assert.assertNull(graph.getFollowers("nobody"));
+      Assert.assertEquals(new HashSet<>(graph.getFollowers("Martin")),
+            new HashSet<>(Arrays.asList("Martin", "Alan", "Ward")));
+
+      int martin = graph.getId("Martin");
+      for (int i = graph.getFollowersStart(martin) + 1; i < graph.getFollowersEnd(martin); i++) {
+         Assert.assertTrue(graph.getFollowerIds()[i - 1] < graph.getFollowerIds()[i]);
+      }
+      Assert.assertEquals(graph.getEdgeCount(), 6);
+   }
+}
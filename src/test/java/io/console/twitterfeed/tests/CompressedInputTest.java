@@ -0,0 +1,162 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CompressedInputTest {
+
+   File uTestFile;
+   File tTestFile;
+
+   @BeforeMethod
+   public void beforeMethod() {
+      uTestFile = new File("testCompressedUserFile.txt");
+      tTestFile = new File("testCompressedTweetFile.txt");
+      afterMethod();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      uTestFile.delete();
+      tTestFile.delete();
+   }
+
+   @Test(dataProvider = "threadsProvider")
+   public void gzipInputMatchesPlain(int threads) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 40, 3000);
+      String expected = render(1, false);
+      byte[] users = Files.readAllBytes(uTestFile.toPath());
+      byte[] tweets = Files.readAllBytes(tTestFile.toPath());
+
+      // Several members, as when compressed files are concatenated
+      writeGzip(uTestFile, users, 3);
+      writeGzip(tTestFile, tweets, 5);
+      Assert.assertEquals(render(threads, false), expected);
+      Assert.assertEquals(render(threads, true), expected);
+   }
+
+   @Test(dataProvider = "threadsProvider")
+   public void bgzfInputMatchesPlain(int threads) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 40, 3000);
+      String expected = render(1, false);
+      byte[] users = Files.readAllBytes(uTestFile.toPath());
+      byte[] tweets = Files.readAllBytes(tTestFile.toPath());
+
+      // Blocks end in the middle of lines
+      writeBgzf(uTestFile, users, 97);
+      writeBgzf(tTestFile, tweets, 1000);
+      Assert.assertEquals(render(threads, false), expected);
+      Assert.assertEquals(render(threads, true), expected);
+   }
+
+   @Test
+   public void corruptBgzfBlocksAreReported() throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 10, 100);
+      byte[] tweets = Files.readAllBytes(tTestFile.toPath());
+      writeBgzf(tTestFile, tweets, 200);
+      byte[] compressed = Files.readAllBytes(tTestFile.toPath());
+      // The CRC of the last block with data, just before the 28 byte empty block
+      compressed[compressed.length - 36] ^= 1;
+      Files.write(tTestFile.toPath(), compressed);
+
+      try {
+         render(4, false);
+         Assert.fail("Expected the corrupt block to be reported");
+      } catch (IOException e) {
+         Assert.assertTrue(e.getMessage().startsWith("Corrupt BGZF block"), e.getMessage());
+      }
+   }
+
+   @Test
+   public void zstdIsRecognizedButNotSupported() throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 10, 100);
+      Files.write(tTestFile.toPath(), new byte[] { 0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0, 0, 0, 0 });
+      try {
+         render(1, false);
+         Assert.fail("Expected zstd input to be refused");
+      } catch (IOException e) {
+         Assert.assertTrue(e.getMessage().startsWith("zstd compressed input is not supported"), e.getMessage());
+      }
+   }
+
+   @DataProvider(name = "threadsProvider")
+   public Object[][] threadsProvider() {
+      return new Object[][] { { 1 }, { 4 } };
+   }
+
+   private String render(int threads, boolean memoryMapped) throws IOException, ValidationException {
+      UserFileToHashMapReader userReader =
+            new UserFileToHashMapReader().withUserFile(uTestFile).withParallelism(threads).withBatchLines(7);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withParallelism(threads).withMemoryMappedInput(memoryMapped);
+      tweetReader.doProcessing();
+      return tweetReader.getPrintableOutput();
+   }
+
+   private void writeGzip(File file, byte[] data, int members) throws IOException {
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+         int memberSize = data.length / members + 1;
+         for (int start = 0; start < data.length; start += memberSize) {
+            GZIPOutputStream member = new GZIPOutputStream(out);
+            member.write(data, start, Math.min(memberSize, data.length - start));
+            member.finish();
+         }
+      } finally {
+         out.close();
+      }
+   }
+
+   /*
+    * Writes blocks of blockSize bytes the way bgzip does, ending with an empty block.
+    */
+   private void writeBgzf(File file, byte[] data, int blockSize) throws IOException {
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+         for (int start = 0; start < data.length; start += blockSize) {
+            out.write(bgzfBlock(data, start, Math.min(blockSize, data.length - start)));
+         }
+         out.write(bgzfBlock(data, 0, 0));
+      } finally {
+         out.close();
+      }
+   }
+
+   private byte[] bgzfBlock(byte[] data, int start, int length) {
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setInput(data, start, length);
+      deflater.finish();
+      byte[] compressed = new byte[length + 1024];
+      int compressedLength = deflater.deflate(compressed);
+      deflater.end();
+      CRC32 crc = new CRC32();
+      crc.update(data, start, length);
+
+      ByteBuffer block = ByteBuffer.allocate(18 + compressedLength + 8).order(ByteOrder.LITTLE_ENDIAN);
+      block.put(new byte[] { 0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF });
+      block.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+      block.putShort((short) (block.capacity() - 1));
+      block.put(compressed, 0, compressedLength);
+      block.putInt((int) crc.getValue()).putInt(length);
+      return block.array();
+   }
+}
@@ -0,0 +1,183 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.batch.FeedBatch;
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FeedBatchTest {
+
+   File batchDir;
+
+   @BeforeMethod
+   public void beforeMethod() {
+      batchDir = new File("testBatch");
+      afterMethod();
+      batchDir.mkdir();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      File[] files = batchDir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            file.delete();
+         }
+      }
+      batchDir.delete();
+   }
+
+   @Test
+   public void batchBuildsEveryFeedAndIsolatesFailures() throws IOException, ValidationException, InterruptedException {
+      StringBuilder manifest = new StringBuilder("# user file, tweets file, output file\n\n");
+      for (int i = 0; i < 20; i++) {
+         FeedFixtures.write(new File(batchDir, "users" + i + ".txt"), "Ward follows Alan\nAlan follows Martin" + i);
+         // Every fifth feed has a line that is not a tweet
+         FeedFixtures.write(new File(batchDir, "tweets" + i + ".txt"),
+               "Alan> one\nMartin" + i + "> two\n" + (i % 5 == 0 ? "Ward three\n" : "Ward> three\n"));
+         manifest.append("users").append(i).append(".txt  tweets").append(i).append(".txt\tfeed").append(i)
+               .append(".txt\n");
+      }
+      File manifestFile = new File(batchDir, "manifest.txt");
+      FeedFixtures.write(manifestFile, manifest.toString());
+
+      List<FeedBatch.Job> jobs = FeedBatch.readManifest(manifestFile);
+      Assert.assertEquals(jobs.size(), 20);
+
+      FeedBatch.Summary summary = new FeedBatch(3).run(jobs);
+      Assert.assertEquals(summary.getSucceeded(), 16);
+      Assert.assertEquals(summary.getFailed(), 4);
+      Assert.assertTrue(summary.toString().startsWith("Processed 20 feeds (4 failed)"), summary.toString());
+
+      for (int i = 0; i < 20; i++) {
+         FeedBatch.Job job = jobs.get(i);
+         if (i % 5 == 0) {
+            Assert.assertFalse(job.getOutputFile().exists());
+            Assert.assertTrue(job.getErrorFile().exists());
+         } else {
+            Assert.assertFalse(job.getErrorFile().exists());
+            Assert.assertEquals(read(job.getOutputFile()), render(job) + System.lineSeparator());
+         }
+      }
+   }
+
+   @Test
+   public void errorsFailOnlyTheirJob() throws IOException, ValidationException, InterruptedException {
+      List<FeedBatch.Job> jobs = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+         File userFile = new File(batchDir, "users" + i + ".txt");
+         File tweetsFile = new File(batchDir, "tweets" + i + ".txt");
+         File outputFile = new File(batchDir, "feed" + i + ".txt");
+         FeedFixtures.write(userFile, "Ward follows Alan");
+         FeedFixtures.write(tweetsFile, "Alan> one " + i);
+         if (i != 1) {
+            jobs.add(new FeedBatch.Job(userFile, tweetsFile, outputFile));
+            continue;
+         }
+         // Left over from an earlier run, and not to be taken for this one's output
+         FeedFixtures.write(outputFile, "stale feed");
+         jobs.add(new FeedBatch.Job(userFile, tweetsFile, outputFile) {
+            private boolean thrown = false;
+
+            @Override
+            public File getUserFile() {
+               if (!thrown) {
+                  thrown = true;
+                  throw new OutOfMemoryError("Feed too large");
+               }
+               return super.getUserFile();
+            }
+         });
+      }
+
+      // One thread, which runs every job after the error
+      FeedBatch.Summary summary = new FeedBatch(1).run(jobs);
+      Assert.assertEquals(summary.getSucceeded(), 3);
+      Assert.assertEquals(summary.getFailed(), 1);
+      Assert.assertFalse(jobs.get(1).getOutputFile().exists());
+      Assert.assertTrue(read(jobs.get(1).getErrorFile()).contains("OutOfMemoryError: Feed too large"));
+      for (int i : new int[] { 0, 2, 3 }) {
+         Assert.assertEquals(read(jobs.get(i).getOutputFile()), render(jobs.get(i)) + System.lineSeparator());
+      }
+   }
+
+   @Test
+   public void noMoreThanThreadsJobsRunAtOnce() throws IOException, ValidationException, InterruptedException {
+      final Thread submitter = Thread.currentThread();
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger mostRunning = new AtomicInteger();
+      final AtomicInteger onSubmitter = new AtomicInteger();
+      List<FeedBatch.Job> jobs = new ArrayList<>();
+      for (int i = 0; i < 12; i++) {
+         File userFile = new File(batchDir, "users" + i + ".txt");
+         File tweetsFile = new File(batchDir, "tweets" + i + ".txt");
+         FeedFixtures.write(userFile, "Ward follows Alan");
+         FeedFixtures.write(tweetsFile, "Alan> one " + i);
+         jobs.add(new FeedBatch.Job(userFile, tweetsFile, new File(batchDir, "feed" + i + ".txt")) {
+            private boolean started = false;
+
+            // Called first thing by a job, which holds it up a little while counting the jobs at the same point
+            @Override
+            public File getUserFile() {
+               if (!started) {
+                  started = true;
+                  if (Thread.currentThread() == submitter) {
+                     onSubmitter.incrementAndGet();
+                  }
+                  int now = running.incrementAndGet();
+                  int most = mostRunning.get();
+                  while (most < now && !mostRunning.compareAndSet(most, now)) {
+                     most = mostRunning.get();
+                  }
+                  try {
+                     Thread.sleep(20);
+                  } catch (InterruptedException e) {
+                     Thread.currentThread().interrupt();
+                  }
+                  running.decrementAndGet();
+               }
+               return super.getUserFile();
+            }
+         });
+      }
+
+      FeedBatch.Summary summary = new FeedBatch(2).run(jobs);
+      Assert.assertEquals(summary.getSucceeded(), 12);
+      Assert.assertEquals(onSubmitter.get(), 0);
+      Assert.assertTrue(mostRunning.get() <= 2, "Most running: " + mostRunning.get());
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void manifestNeedsThreeFilesPerLine() throws IOException {
+      File manifestFile = new File(batchDir, "manifest.txt");
+      FeedFixtures.write(manifestFile, "users.txt tweets.txt\n");
+      FeedBatch.readManifest(manifestFile);
+   }
+
+   private String render(FeedBatch.Job job) throws IOException, ValidationException {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(job.getUserFile());
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(job.getTweetsFile());
+      tweetReader.doProcessing();
+      return tweetReader.getPrintableOutput();
+   }
+
+   private String read(File file) throws IOException {
+      return new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+   }
+}
@@ -0,0 +1,86 @@
+package io.console.twitterfeed.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/*
+ * Input files for the tests: plain text, and generated user and tweets files whose randomness is seeded, so every run
+ * reads the same feed.
+ */
+final class FeedFixtures {
+
+   private FeedFixtures() {
+   }
+
+   static void write(File file, String text) throws IOException {
+      FileWriter fileWriter = new FileWriter(file);
+      fileWriter.write(text);
+      fileWriter.flush();
+      fileWriter.close();
+   }
+
+   /*
+    * Written as UTF-8, so non-ASCII text is the same bytes whatever the platform charset.
+    */
+   static void writeUtf8(File file, String text) throws IOException {
+      Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+   }
+
+   static void append(File file, String text) throws IOException {
+      FileWriter fileWriter = new FileWriter(file, true);
+      fileWriter.write(text);
+      fileWriter.flush();
+      fileWriter.close();
+   }
+
+   /*
+    * Writes a user file where everyone follows a few random users, and a tweets file with blank lines and both
+    * line endings mixed in.
+    */
+   static void writeRandomFeed(File userFile, File tweetsFile, int users, int tweets) throws IOException {
+      Random random = new Random(42);
+
+      StringBuilder userText = new StringBuilder();
+      for (int i = 0; i < users; i++) {
+         userText.append("user").append(i).append(" follows user").append(random.nextInt(users));
+         for (int j = random.nextInt(5); j > 0; j--) {
+            userText.append(", user").append(random.nextInt(users));
+         }
+         userText.append('\n');
+      }
+      write(userFile, userText.toString());
+
+      StringBuilder tweetText = new StringBuilder();
+      for (int i = 0; i < tweets; i++) {
+         tweetText.append("user").append(random.nextInt(users)).append("> tweet number ").append(i);
+         tweetText.append(random.nextInt(10) == 0 ? "\r\n\n" : "\n");
+      }
+      write(tweetsFile, tweetText.toString());
+   }
+
+   /*
+    * Everyone follows the celebrity and a couple of random users, and the celebrity tweets a tenth of the time. Tweets
+    * are timestamped with their line number.
+    */
+   static void writeSkewedFeed(File userFile, File tweetsFile, int users, int tweets) throws IOException {
+      Random random = new Random(9);
+
+      StringBuilder userText = new StringBuilder();
+      for (int i = 0; i < users; i++) {
+         userText.append("user").append(i).append(" follows celebrity, user").append(random.nextInt(users));
+         userText.append(", user").append(random.nextInt(users)).append('\n');
+      }
+      write(userFile, userText.toString());
+
+      StringBuilder tweetText = new StringBuilder();
+      for (int i = 0; i < tweets; i++) {
+         String author = random.nextInt(10) == 0 ? "celebrity" : "user" + random.nextInt(users);
+         tweetText.append(i).append('\t').append(author).append("> tweet number ").append(i).append('\n');
+      }
+      write(tweetsFile, tweetText.toString());
+   }
+}
@@ -0,0 +1,159 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.server.FeedServer;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FeedServerTest {
+
+   File uTestFile;
+   File tTestFile;
+   FeedServer server;
+   Thread serverThread;
+
+   @BeforeMethod
+   public void beforeMethod() throws IOException, ValidationException {
+      uTestFile = new File("testServerUserFile.txt");
+      tTestFile = new File("testServerTweetFile.txt");
+      FeedFixtures.write(uTestFile, "Ward follows Alan\n" + "Alan follows Martin\n" + "Ward follows Martin, Alan");
+      FeedFixtures.write(tTestFile, "Alan> one\n" + "Ward> two\n" + "Martin> three\n" + "Alan> four\n");
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tweetReader.doProcessing();
+
+      server = new FeedServer(tweetReader.getTimelines(), userReader.getFollowGraph(), 0);
+      serverThread = new Thread(server);
+      serverThread.start();
+   }
+
+   @AfterMethod
+   public void afterMethod() throws InterruptedException {
+      server.stop();
+      serverThread.join();
+      uTestFile.delete();
+      tTestFile.delete();
+   }
+
+   @Test
+   public void answersTimelineAndFollowerQueries() throws IOException {
+      Socket socket = connect();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      OutputStream out = socket.getOutputStream();
+
+      // Pipelined in one write
+      out.write(("TIMELINE Ward\nTIMELINE Ward 2\ntimeline Alan 0\nFOLLOWERS Alan\nTIMELINE Nobody\nHELLO\n")
+            .getBytes(StandardCharsets.UTF_8));
+      out.flush();
+
+      Assert.assertEquals(readAnswer(in),
+            Arrays.asList("OK 4", "@Alan: one", "@Ward: two", "@Martin: three", "@Alan: four"));
+      Assert.assertEquals(readAnswer(in), Arrays.asList("OK 2", "@Martin: three", "@Alan: four"));
+      Assert.assertEquals(readAnswer(in), Arrays.asList("OK 0"));
+      Assert.assertEquals(readAnswer(in), Arrays.asList("OK 1", "Ward"));
+      Assert.assertEquals(readAnswer(in), Arrays.asList("ERR Unknown user: Nobody"));
+      Assert.assertTrue(in.readLine().startsWith("ERR Expected TIMELINE"));
+
+      out.write("QUIT\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      Assert.assertNull(in.readLine());
+      socket.close();
+   }
+
+   @Test
+   public void everyEngineAnswersTheSame() throws IOException, ValidationException, InterruptedException {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      for (TimelineEngineType type : TimelineEngineType.values()) {
+         TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withTimelineEngine(type);
+         tweetReader.doProcessing();
+         FeedServer engineServer = new FeedServer(tweetReader.getTimelines(), userReader.getFollowGraph(), 0);
+         Thread engineThread = new Thread(engineServer);
+         engineThread.start();
+         try {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), engineServer.getPort());
+            socket.setSoTimeout(10000);
+            BufferedReader in =
+                  new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            out.write(("TIMELINE Nobody\nTIMELINE Ward 2\nFOLLOWERS Martin\nFOLLOWERS Martin\nFOLLOWERS Nobody\n")
+                  .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            Assert.assertEquals(readAnswer(in), Arrays.asList("ERR Unknown user: Nobody"), type.toString());
+            Assert.assertEquals(readAnswer(in), Arrays.asList("OK 2", "@Martin: three", "@Alan: four"),
+                  type.toString());
+            // The second answer comes from the sorted followers kept from the first
+            Assert.assertEquals(readAnswer(in), Arrays.asList("OK 2", "Alan", "Ward"), type.toString());
+            Assert.assertEquals(readAnswer(in), Arrays.asList("OK 2", "Alan", "Ward"), type.toString());
+            Assert.assertEquals(readAnswer(in), Arrays.asList("ERR Unknown user: Nobody"), type.toString());
+            socket.close();
+         } finally {
+            engineServer.stop();
+            engineThread.join();
+            tweetReader.closeTimelines();
+         }
+      }
+   }
+
+   @Test
+   public void servesManyClientsAtOnce() throws IOException {
+      List<Socket> sockets = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+         Socket socket = connect();
+         socket.getOutputStream().write("TIMELINE Alan 1\n".getBytes(StandardCharsets.UTF_8));
+         sockets.add(socket);
+      }
+      for (Socket socket : sockets) {
+         BufferedReader in =
+               new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+         Assert.assertEquals(readAnswer(in), Arrays.asList("OK 1", "@Alan: four"));
+         socket.close();
+      }
+   }
+
+   private Socket connect() throws IOException {
+      Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+      socket.setSoTimeout(10000);
+      return socket;
+   }
+
+   /*
+    * An "OK <count>" line and the count lines after it, or a single "ERR" line.
+    */
+   private List<String> readAnswer(BufferedReader in) throws IOException {
+      List<String> lines = new ArrayList<>();
+      String status = in.readLine();
+      lines.add(status);
+      if (status.startsWith("OK ")) {
+         for (int i = Integer.parseInt(status.substring(3)); i > 0; i--) {
+            lines.add(in.readLine());
+         }
+      }
+      return lines;
+   }
+}
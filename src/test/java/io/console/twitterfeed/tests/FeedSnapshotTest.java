@@ -0,0 +1,155 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.output.FeedWriter;
+import io.console.twitterfeed.snapshot.FeedSnapshot;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FeedSnapshotTest {
+
+   File uTestFile;
+   File tTestFile;
+   File snapshotFile;
+
+   @BeforeMethod
+   public void beforeMethod() {
+      uTestFile = new File("testSnapshotUserFile.txt");
+      tTestFile = new File("testSnapshotTweetFile.txt");
+      snapshotFile = new File("testSnapshot.bin");
+      afterMethod();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      uTestFile.delete();
+      tTestFile.delete();
+      snapshotFile.delete();
+   }
+
+   @Test
+   public void snapshotRendersTheSameFeed() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\n" + "Alan follows Martin\n" + "Ward follows Martin, Alan\n"
+            + "Jorgen follows Ward");
+      FeedFixtures.write(tTestFile, "Alan> If you have a procedure with 10 parameters, you probably missed some.\n"
+            + "Ward> There are only two hard things in Computer Science: cache invalidation, naming things and "
+            + "off-by-1 errors.\n" + "Alan> Random numbers should not be generated with a method chosen at random.\n");
+      long[] stamp = FeedSnapshot.stamp(uTestFile, tTestFile);
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tweetReader.doProcessing();
+
+      Assert.assertNull(FeedSnapshot.load(snapshotFile, stamp, 0));
+      FeedSnapshot.write(snapshotFile, stamp, 0, userReader.getFollowGraph(), tweetReader.getTimelines());
+
+      FeedSnapshot snapshot = FeedSnapshot.load(snapshotFile, stamp, 0);
+      Assert.assertNotNull(snapshot);
+
+      StringBuilder output = new StringBuilder();
+      FeedWriter.writeFeed(snapshot, snapshot.getUsers(), output);
+      Assert.assertEquals(output.toString(), tweetReader.getPrintableOutput());
+
+      Assert.assertEquals(new HashSet<>(snapshot.getFollowers("Ward")),
+            new HashSet<>(Arrays.asList("Ward", "Jorgen")));
+      Assert.assertEquals(snapshot.getFollowerCount("Martin"), 3);
+      Assert.assertEquals(snapshot.getFollowerCount("nobody"), -1);
+      Assert.assertEquals(snapshot.getTweetCount(), 3);
+   }
+
+   @Test
+   public void staleSnapshotIsIgnored() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> hello");
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tweetReader.doProcessing();
+      FeedSnapshot.write(snapshotFile, FeedSnapshot.stamp(uTestFile, tTestFile), 0, userReader.getFollowGraph(),
+            tweetReader.getTimelines());
+
+      FeedFixtures.write(tTestFile, "Alan> hello again");
+
+      Assert.assertNull(FeedSnapshot.load(snapshotFile, FeedSnapshot.stamp(uTestFile, tTestFile), 0));
+   }
+
+   @Test
+   public void snapshotOfAnotherTimelineCapIsIgnored() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> one\nAlan> two");
+      long[] stamp = FeedSnapshot.stamp(uTestFile, tTestFile);
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tweetReader.doProcessing();
+      FeedSnapshot.write(snapshotFile, stamp, 0, userReader.getFollowGraph(), tweetReader.getTimelines());
+
+      // The uncapped timelines would show both tweets where only the latest is wanted
+      Assert.assertNull(FeedSnapshot.load(snapshotFile, stamp, 1));
+      Assert.assertNotNull(FeedSnapshot.load(snapshotFile, stamp, 0));
+   }
+
+   @Test
+   public void sameLengthRewriteWithinASecondIsStale() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> hello");
+      long[] stamp = FeedSnapshot.stamp(uTestFile, tTestFile);
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tweetReader.doProcessing();
+      FeedSnapshot.write(snapshotFile, stamp, 0, userReader.getFollowGraph(), tweetReader.getTimelines());
+
+      // Same length and last modified time, as a rewrite within the same second can leave them
+      long lastModified = tTestFile.lastModified();
+      FeedFixtures.write(tTestFile, "Alan> howdy");
+      tTestFile.setLastModified(lastModified);
+
+      Assert.assertNull(FeedSnapshot.load(snapshotFile, FeedSnapshot.stamp(uTestFile, tTestFile), 0));
+      Assert.assertNull(FeedSnapshot.load(snapshotFile, FeedSnapshot.stamp(uTestFile), 0));
+   }
+
+   @Test
+   public void tweetsAreStoredOnceWhateverTheEngine() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\nJorgen follows Alan\nMartin follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> one\nAlan> two\n");
+      long[] stamp = FeedSnapshot.stamp(uTestFile, tTestFile);
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      for (TimelineEngineType type : TimelineEngineType.values()) {
+         TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withTimelineEngine(type);
+         tweetReader.doProcessing();
+         FeedSnapshot.write(snapshotFile, stamp, 0, userReader.getFollowGraph(), tweetReader.getTimelines());
+
+         // Four timelines show each tweet, whether or not the engine hands out the same object every time
+         FeedSnapshot snapshot = FeedSnapshot.load(snapshotFile, stamp, 0);
+         Assert.assertEquals(snapshot.getTweetCount(), 2, type.toString());
+         StringBuilder output = new StringBuilder();
+         FeedWriter.writeFeed(snapshot, snapshot.getUsers(), output);
+         Assert.assertEquals(output.toString(), tweetReader.getPrintableOutput(), type.toString());
+         tweetReader.closeTimelines();
+      }
+   }
+}
@@ -0,0 +1,98 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.graph.CompactFollowGraph;
+import io.console.twitterfeed.graph.FollowGraphStats;
+import io.console.twitterfeed.graph.HashMapFollowGraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FollowGraphStatsTest {
+
+   File uTestFile;
+   File tTestFile;
+
+   @BeforeMethod
+   public void beforeMethod() {
+      uTestFile = new File("testStatsUserFile.txt");
+      tTestFile = new File("testStatsTweetFile.txt");
+      afterMethod();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      uTestFile.delete();
+      tTestFile.delete();
+   }
+
+   @Test
+   public void percentilesAndTopAuthors() {
+      CompactFollowGraph graph = new CompactFollowGraph.Builder().addFollow("Ward", "Alan")
+            .addFollow("Alan", "Martin").addFollow("Ward", "Martin").addFollow("Ward", "Alan").build();
+      FollowGraphStats stats = new FollowGraphStats(graph).withTopK(2).withThreads(1).compute();
+
+      Assert.assertEquals(stats.getUserCount(), 3);
+      Assert.assertEquals(stats.getEdgeCount(), 6);
+      Map<String, Long> percentiles = stats.getFollowerPercentiles();
+      Assert.assertEquals(percentiles.get("p50").longValue(), 2);
+      Assert.assertEquals(percentiles.get("p90").longValue(), 3);
+      Assert.assertEquals(percentiles.get("max").longValue(), 3);
+      Assert.assertEquals(stats.getTopAuthors().keySet().toArray(), new Object[] { "Martin", "Alan" });
+
+      // Nobody stands out in a graph this small
+      Assert.assertFalse(stats.hasHotAuthors());
+      Assert.assertEquals(stats.getSuggestedHotAuthorThreshold(), Integer.MAX_VALUE);
+   }
+
+   @Test
+   public void everyGraphAndThreadCountAgrees() throws IOException, ValidationException {
+      FeedFixtures.writeSkewedFeed(uTestFile, tTestFile, 2000, 5000);
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      String expected = new FollowGraphStats(userReader.getFollowGraph()).withThreads(1).compute().getSummary();
+      Assert.assertEquals(new FollowGraphStats(userReader.getFollowGraph()).withThreads(4).compute().getSummary(),
+            expected);
+      Assert.assertEquals(new FollowGraphStats(new HashMapFollowGraph(userReader.getFollowedByMapSet()))
+            .withThreads(4).compute().getSummary(), expected);
+   }
+
+   @Test
+   public void hotAuthorsAreFoundAndFanOutIsEstimated() throws IOException, ValidationException {
+      FeedFixtures.writeSkewedFeed(uTestFile, tTestFile, 2000, 5000);
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      Map<String, Long> tweetCounts =
+            TweetFileToTreeMapReader.countTweetsByAuthor(Collections.singletonList(tTestFile));
+      FollowGraphStats stats =
+            new FollowGraphStats(userReader.getFollowGraph()).withTopK(3).withTweetCounts(tweetCounts).compute();
+
+      Assert.assertEquals(stats.getTopAuthors().keySet().iterator().next(), "celebrity");
+      Assert.assertTrue(stats.hasHotAuthors());
+      Assert.assertTrue(stats.getSuggestedHotAuthorThreshold() <= stats.getFollowerPercentiles().get("max"));
+
+      TweetFileToTreeMapReader fanOut =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      fanOut.doProcessing();
+      Assert.assertEquals(stats.getEstimatedFanOutAppends(), fanOut.getTimelines().getFanOutAppends());
+      Assert.assertTrue(stats.getEstimatedHybridFanOutAppends() < stats.getEstimatedFanOutAppends());
+
+      Map<String, Long> memory = stats.getProjectedMemory();
+      Assert.assertTrue(memory.get("compactGraphBytes") < memory.get("hashMapGraphBytes"));
+      Assert.assertTrue(memory.get("hybridTimelineBytes") < memory.get("fanOutTimelineBytes"));
+      Assert.assertTrue(stats.getSummary().contains("\"estimatedFanOutAppends\":" + stats.getEstimatedFanOutAppends()),
+            stats.getSummary());
+   }
+}
@@ -0,0 +1,142 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.validation.LineValidator;
+import io.console.twitterfeed.validation.ValidationPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class LineValidatorTest {
+
+   // Every other line is broken in a different way
+   private static final String USERS = "Ward follows Alan\n" + "Ward-1 follows Alan\n" + "Alan follows Martin\n"
+         + "Zed follows Ward, Al an\n" + "Zed likes Ward\n" + "Martin follows Zed";
+   private static final String VALID_USERS = "Ward follows Alan\n" + "Alan follows Martin\n" + "Martin follows Zed";
+   private static final String TWEETS = "Alan> one\n" + "Alan two\n" + "Ward> two\n" + "Wa rd> three\n"
+         + "Martin> three\n" + "Zed> caf\u00e9\n" + "Zed> four\n" + "Martin> \n";
+   private static final String VALID_TWEETS = "Alan> one\n" + "Ward> two\n" + "Martin> three\n" + "Zed> four\n";
+
+   File uTestFile;
+   File tTestFile;
+   File uRejectFile;
+   File tRejectFile;
+
+   @BeforeMethod
+   public void beforeMethod() {
+      uTestFile = new File("testValidatorUserFile.txt");
+      tTestFile = new File("testValidatorTweetFile.txt");
+      uRejectFile = new File("testValidatorUserFile.txt.rejected");
+      tRejectFile = new File("testValidatorTweetFile.txt.rejected");
+      afterMethod();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      uTestFile.delete();
+      tTestFile.delete();
+      uRejectFile.delete();
+      tRejectFile.delete();
+   }
+
+   @Test(dataProvider = "pathProvider")
+   public void skippedLinesLeaveTheFeedOfTheValidLines(int threads, boolean memoryMapped) throws IOException,
+         ValidationException {
+      FeedFixtures.writeUtf8(uTestFile, VALID_USERS);
+      FeedFixtures.writeUtf8(tTestFile, VALID_TWEETS);
+      String expected = render(threads, memoryMapped, LineValidator.FAIL_FAST, LineValidator.FAIL_FAST);
+
+      FeedFixtures.writeUtf8(uTestFile, USERS);
+      FeedFixtures.writeUtf8(tTestFile, TWEETS);
+      LineValidator userValidator = new LineValidator(ValidationPolicy.SKIP_AND_COUNT, null);
+      LineValidator tweetValidator = new LineValidator(ValidationPolicy.SKIP_AND_COUNT, null);
+      Assert.assertEquals(render(threads, memoryMapped, userValidator, tweetValidator), expected);
+      Assert.assertEquals(userValidator.getRejectedLines(), 3);
+      Assert.assertEquals(tweetValidator.getRejectedLines(), 4);
+   }
+
+   @Test
+   public void rejectedLinesAreWrittenAsTheyWere() throws IOException, ValidationException {
+      FeedFixtures.writeUtf8(uTestFile, USERS);
+      FeedFixtures.writeUtf8(tTestFile, TWEETS);
+      LineValidator userValidator = new LineValidator(ValidationPolicy.REJECT_FILE, uRejectFile);
+      LineValidator tweetValidator = new LineValidator(ValidationPolicy.REJECT_FILE, tRejectFile);
+      render(1, false, userValidator, tweetValidator);
+      userValidator.close();
+      tweetValidator.close();
+
+      Assert.assertEquals(Files.readAllLines(uRejectFile.toPath(), Charset.defaultCharset()),
+            Arrays.asList("Ward-1 follows Alan", "Zed follows Ward, Al an", "Zed likes Ward"));
+      // The non-ASCII line goes through the platform charset both ways, so only its start is certain
+      List<String> rejectedTweets = Files.readAllLines(tRejectFile.toPath(), Charset.defaultCharset());
+      Assert.assertEquals(rejectedTweets.size(), 4);
+      Assert.assertEquals(rejectedTweets.get(0), "Alan two");
+      Assert.assertEquals(rejectedTweets.get(1), "Wa rd> three");
+      Assert.assertTrue(rejectedTweets.get(2).startsWith("Zed> caf"), rejectedTweets.get(2));
+      Assert.assertEquals(rejectedTweets.get(3), "Martin> ");
+   }
+
+   @Test
+   public void failFastReportsTheFirstInvalidLine() throws IOException, ValidationException {
+      FeedFixtures.writeUtf8(uTestFile, VALID_USERS);
+      FeedFixtures.writeUtf8(tTestFile, TWEETS);
+      try {
+         render(1, false, LineValidator.FAIL_FAST, LineValidator.FAIL_FAST);
+         Assert.fail("Expected the bad line to be rejected");
+      } catch (IllegalArgumentException e) {
+         Assert.assertEquals(e.getMessage(),
+               "Expected file format is \"userName> this is a tweet...\", but found this line: \"Alan two\"");
+      }
+   }
+
+   @Test
+   public void namesAreLettersAndDigits() {
+      LineValidator validator = new LineValidator(ValidationPolicy.SKIP_AND_COUNT, null);
+      for (int i = 0; i < 2; i++) {
+         // The second time round the valid names come from the cache
+         Assert.assertTrue(validator.isValidName("Ward1"));
+         Assert.assertTrue(validator.isValidName("\u00c9mile"));
+         Assert.assertFalse(validator.isValidName(""));
+         Assert.assertFalse(validator.isValidName("Ward_1"));
+         Assert.assertFalse(validator.isValidName("Ward 1"));
+      }
+      Assert.assertTrue(LineValidator.isValidTweet("Hello, world! \t~"));
+      Assert.assertFalse(LineValidator.isValidTweet(""));
+      Assert.assertFalse(LineValidator.isValidTweet("caf\u00e9"));
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void rejectFilePolicyNeedsAFile() {
+      new LineValidator(ValidationPolicy.REJECT_FILE, null);
+   }
+
+   @DataProvider(name = "pathProvider")
+   public Object[][] pathProvider() {
+      return new Object[][] { { 1, false }, { 1, true }, { 4, false } };
+   }
+
+   private String render(int threads, boolean memoryMapped, LineValidator userValidator,
+         LineValidator tweetValidator) throws IOException, ValidationException {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile)
+            .withParallelism(threads).withBatchLines(1).withValidator(userValidator);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withMemoryMappedInput(memoryMapped).withParallelism(threads)
+            .withChunkSize(1).withValidator(tweetValidator);
+      tweetReader.doProcessing();
+      return tweetReader.getPrintableOutput();
+   }
+}
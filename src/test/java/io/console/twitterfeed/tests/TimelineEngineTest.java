@@ -0,0 +1,388 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.filereaders.UserTweetPair;
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.output.FeedEncoder;
+import io.console.twitterfeed.output.FeedWriter;
+import io.console.twitterfeed.graph.FollowGraph;
+import io.console.twitterfeed.timelines.FanOutOnWriteEngine;
+import io.console.twitterfeed.timelines.HybridTimelineEngine;
+import io.console.twitterfeed.timelines.SpillingFanOutEngine;
+import io.console.twitterfeed.timelines.TimelineEngine;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+import io.console.twitterfeed.timelines.Timelines;
+import io.console.twitterfeed.timelines.TweetArena;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TimelineEngineTest {
+
+   File uTestFile;
+   File tTestFile;
+
+   @BeforeMethod
+   public void beforeMethod() {
+      uTestFile = new File("testEngineUserFile.txt");
+      tTestFile = new File("testEngineTweetFile.txt");
+      uTestFile.delete();
+      tTestFile.delete();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      uTestFile.delete();
+      tTestFile.delete();
+   }
+
+   @Test(dataProvider = "engineProvider")
+   public void enginesMatchFanOutOnWrite(TimelineEngineType type, int hotAuthorThreshold)
+         throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\n" + "Alan follows Martin\n" + "Ward follows Martin, Alan\n"
+            + "Zed follows Ward, Alan\n" + "Amy follows Zed");
+      FeedFixtures.write(tTestFile, "Alan> one\n" + "Ward> two\n" + "Martin> three\n" + "Alan> four\n" + "Zed> five\n"
+            + "Amy> six\n" + "Ward> seven\n");
+
+      String expected = render(TimelineEngineType.FAN_OUT_ON_WRITE, 0);
+
+      Assert.assertEquals(render(type, hotAuthorThreshold), expected);
+   }
+
+   @Test(dataProvider = "engineProvider")
+   public void boundedTimelinesKeepTheLatestTweets(TimelineEngineType type, int hotAuthorThreshold)
+         throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\n" + "Alan follows Martin\n" + "Ward follows Martin, Alan\n"
+            + "Zed follows Ward, Alan\n" + "Amy follows Zed");
+      FeedFixtures.write(tTestFile, "Alan> one\n" + "Ward> two\n" + "Martin> three\n" + "Alan> four\n" + "Zed> five\n"
+            + "Amy> six\n" + "Ward> seven\n");
+
+      String unbounded = render(type, hotAuthorThreshold, 0);
+
+      for (int maxLength = 1; maxLength <= 3; maxLength++) {
+         Assert.assertEquals(render(type, hotAuthorThreshold, maxLength), keepLatest(unbounded, maxLength));
+      }
+   }
+
+   @Test
+   public void mergedTimelinesReadTheirLatestTweets() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\n" + "Alan follows Martin\n" + "Ward follows Martin, Alan\n"
+            + "Zed follows Ward, Alan\n" + "Amy follows Zed");
+      FeedFixtures.write(tTestFile, "Alan> one\n" + "Ward> two\n" + "Martin> three\n" + "Alan> four\n" + "Zed> five\n"
+            + "Amy> six\n" + "Ward> seven\n" + "Alan> eight\n");
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      int merged = 0;
+      for (int maxLength = 0; maxLength <= 3; maxLength++) {
+         TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withTimelineEngine(TimelineEngineType.HYBRID).withHotAuthorThreshold(3)
+               .withMaxTimelineLength(maxLength);
+         tweetReader.doProcessing();
+
+         for (String user : tweetReader.getTimelines().getUsers()) {
+            Iterable<UserTweetPair> timeline = tweetReader.getTimelines().getTimeline(user);
+            if (!(timeline instanceof HybridTimelineEngine.MergedTimeline)) {
+               continue;
+            }
+            merged++;
+            List<UserTweetPair> all = new ArrayList<>();
+            for (UserTweetPair tweet : timeline) {
+               all.add(tweet);
+            }
+            for (int n = 0; n <= all.size() + 1; n++) {
+               Assert.assertEquals(((HybridTimelineEngine.MergedTimeline) timeline).getLatest(n),
+                     all.subList(Math.max(0, all.size() - n), all.size()), user + ", latest " + n);
+            }
+         }
+      }
+      Assert.assertTrue(merged > 0);
+   }
+
+   @Test
+   public void arenaStoresEachTweetOnceAsBytes() {
+      TweetArena arena = new TweetArena();
+      long first = arena.add("Alan", "one");
+      long second = arena.add("Ward", "");
+      long third = arena.add("Alan", "three ~");
+
+      Assert.assertTrue(first < second && second < third);
+      Assert.assertEquals(arena.getAuthor(third), "Alan");
+      Assert.assertSame(arena.getAuthor(third), arena.getAuthor(first));
+      Assert.assertEquals(arena.getText(first), "one");
+      Assert.assertEquals(arena.getText(second), "");
+      Assert.assertEquals(arena.getText(third), "three ~");
+      // A six byte header and a byte per char
+      Assert.assertEquals(arena.getBytesStored(), 6 * 3 + 3 + 0 + 7);
+   }
+
+   @Test
+   public void spillingEngineMergesManyRuns() throws IOException, ValidationException {
+      Random random = new Random(3);
+      StringBuilder users = new StringBuilder();
+      for (int i = 0; i < 100; i++) {
+         users.append("user").append(i).append(" follows user").append(random.nextInt(100)).append(", user")
+               .append(random.nextInt(100)).append(", user").append(random.nextInt(100)).append('\n');
+      }
+      FeedFixtures.write(uTestFile, users.toString());
+      StringBuilder tweets = new StringBuilder();
+      for (int i = 0; i < 5000; i++) {
+         tweets.append("user").append(random.nextInt(100)).append("> tweet ").append(i).append('\n');
+      }
+      FeedFixtures.write(tTestFile, tweets.toString());
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      for (int maxTimelineLength : new int[] { 0, 4 }) {
+         TweetFileToTreeMapReader inMemory = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withMaxTimelineLength(maxTimelineLength);
+         inMemory.doProcessing();
+
+         // The smallest budget there is, a thousand records or so per run
+         TweetFileToTreeMapReader spilling = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withMaxTimelineLength(maxTimelineLength)
+               .withTimelineEngine(TimelineEngineType.SPILLING_FAN_OUT_ON_WRITE).withSpillMemoryBudget(1);
+         spilling.doProcessing();
+         SpillingFanOutEngine engine = (SpillingFanOutEngine) spilling.getTimelines();
+
+         Assert.assertTrue(engine.getRunCount() > 10, "Runs: " + engine.getRunCount());
+         Assert.assertEquals(spilling.getPrintableOutput(), inMemory.getPrintableOutput());
+         // The budget has read buffers for two runs, so the rest were merged into them first
+         Assert.assertEquals(engine.getRunCount(), 2);
+         // Reading again starts the merge over
+         Assert.assertEquals(spilling.getPrintableOutput(), inMemory.getPrintableOutput());
+         engine.close();
+      }
+   }
+
+   @Test
+   public void spillingEngineHeapStaysWithinItsBudget() throws IOException, ValidationException {
+      // 50 users who all follow each other, so 20000 tweets are a million fan-out records, 20 MB on disk
+      StringBuilder users = new StringBuilder();
+      for (int i = 0; i < 50; i++) {
+         users.append("user").append(i).append(" follows ");
+         for (int j = 0; j < 50; j++) {
+            users.append(j == 0 ? "" : ", ").append("user").append(j);
+         }
+         users.append('\n');
+      }
+      FeedFixtures.write(uTestFile, users.toString());
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      FollowGraph graph = userReader.getFollowGraph();
+      long budget = 1024 * 1024;
+
+      long inMemory = heapGrowth(new FanOutOnWriteEngine(graph, 0), 20000);
+      SpillingFanOutEngine spilling =
+            new SpillingFanOutEngine(graph, 0, budget, new File(Configuration.SPILL_DIRECTORY));
+      long spilled;
+      try {
+         spilled = heapGrowth(spilling, 20000);
+      } finally {
+         spilling.close();
+      }
+
+      // The same records take over five budgets in memory, so the measure is not lost in the noise. System.gc() does
+      // not always free the fan-out buffer dropped when reading starts, hence a budget of slack.
+      Assert.assertTrue(inMemory > 5 * budget, "In memory: " + inMemory);
+      Assert.assertTrue(spilled < 3 * budget, "Spilled: " + spilled);
+   }
+
+   @Test
+   public void replacedSpillingEngineDeletesItsFiles() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\nAlan follows Ward");
+      FeedFixtures.write(tTestFile, "Alan> one\nWard> two\nAlan> three");
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader spilling = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withTimelineEngine(TimelineEngineType.SPILLING_FAN_OUT_ON_WRITE);
+
+      Set<File> before = spillFiles();
+      spilling.doProcessing();
+      spilling.getPrintableOutput();
+      Set<File> first = spillFiles();
+      first.removeAll(before);
+      Assert.assertFalse(first.isEmpty());
+
+      // Reading again replaces the engine, and the new one is let go of with the follow graph
+      spilling.doProcessing();
+      spilling.getPrintableOutput();
+      for (File file : first) {
+         Assert.assertFalse(file.exists(), file.toString());
+      }
+      spilling.withFollowGraph(userReader.getFollowGraph());
+      Assert.assertEquals(spillFiles(), before);
+   }
+
+   @Test(dataProvider = "engineProvider")
+   public void encodedFeedMatchesWrittenFeed(TimelineEngineType type, int hotAuthorThreshold)
+         throws IOException, ValidationException {
+      Random random = new Random(5);
+      StringBuilder users = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+         users.append("user").append(i).append(" follows user").append(random.nextInt(1000)).append(", user")
+               .append(random.nextInt(1000)).append('\n');
+      }
+      FeedFixtures.write(uTestFile, users.toString());
+      StringBuilder tweets = new StringBuilder();
+      for (int i = 0; i < 5000; i++) {
+         // Some end in whitespace, which only the very last line of the feed is stripped of
+         tweets.append("user").append(random.nextInt(1000)).append("> tweet ").append(i)
+               .append(i % 3 == 0 ? "  " : "").append('\n');
+      }
+      Files.write(tTestFile.toPath(), tweets.toString().getBytes(StandardCharsets.US_ASCII));
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      for (int threads : new int[] { 1, 4 }) {
+         TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withTimelineEngine(type).withHotAuthorThreshold(hotAuthorThreshold)
+               .withParallelism(threads);
+         tweetReader.doProcessing();
+
+         ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+         tweetReader.writeFeed(Channels.newChannel(encoded));
+         Assert.assertEquals(encoded.toByteArray(),
+               tweetReader.getPrintableOutput().getBytes(Charset.defaultCharset()));
+      }
+   }
+
+   @Test
+   public void encodedFeedMatchesWrittenFeedBeyondAscii() throws IOException {
+      // Tweets read from files are ASCII, but timelines built by hand need not be, nor names
+      final Map<String, List<UserTweetPair>> timelineByUser = new TreeMap<>();
+      timelineByUser.put("Alan", Arrays.asList(new UserTweetPair("Zo\u00eb", "caf\u00e9 au lait", 0),
+            new UserTweetPair("Alan", "plain", 1)));
+      timelineByUser.put("Zo\u00eb", Arrays.asList(new UserTweetPair("Alan", "plain", 1),
+            new UserTweetPair("Zo\u00eb", "na\u00efve \u2603  ", 2)));
+      Timelines timelines = new Timelines() {
+         @Override
+         public Collection<String> getUsers() {
+            return timelineByUser.keySet();
+         }
+
+         @Override
+         public Iterable<UserTweetPair> getTimeline(String user) {
+            return timelineByUser.get(user);
+         }
+      };
+
+      StringBuilder written = new StringBuilder();
+      FeedWriter.writeFeed(timelines, timelines.getUsers(), written);
+      for (int threads : new int[] { 1, 4 }) {
+         ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+         new FeedEncoder(1024).withThreads(threads).writeFeed(timelines, timelines.getUsers(),
+               Channels.newChannel(encoded));
+         Assert.assertEquals(encoded.toByteArray(), written.toString().getBytes(Charset.defaultCharset()));
+      }
+   }
+
+   @DataProvider(name = "engineProvider")
+   public Object[][] engineProvider() {
+      return new Object[][] { { TimelineEngineType.FAN_OUT_ON_WRITE, 0 }, { TimelineEngineType.FAN_OUT_ON_READ, 0 },
+            { TimelineEngineType.HYBRID, 0 }, { TimelineEngineType.HYBRID, 2 }, { TimelineEngineType.HYBRID, 3 },
+            { TimelineEngineType.HYBRID, Integer.MAX_VALUE }, { TimelineEngineType.CONCURRENT_FAN_OUT_ON_WRITE, 0 },
+            { TimelineEngineType.COMPACT_FAN_OUT_ON_WRITE, 0 }, { TimelineEngineType.SPILLING_FAN_OUT_ON_WRITE, 0 } };
+   }
+
+   private String render(TimelineEngineType type, int hotAuthorThreshold) throws IOException, ValidationException {
+      return render(type, hotAuthorThreshold, 0);
+   }
+
+   private String render(TimelineEngineType type, int hotAuthorThreshold, int maxTimelineLength)
+         throws IOException, ValidationException {
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowedByMapSet())
+            .withTweetsFile(tTestFile).withTimelineEngine(type).withHotAuthorThreshold(hotAuthorThreshold)
+            .withMaxTimelineLength(maxTimelineLength);
+      tweetReader.doProcessing();
+
+      return tweetReader.getPrintableOutput();
+   }
+
+   /*
+    * Cuts every timeline of a rendered feed down to its last maxLength tweets.
+    */
+   private String keepLatest(String feed, int maxLength) {
+      List<String> lines = new ArrayList<>();
+      int userLine = 0;
+      for (String line : feed.split("\n")) {
+         if (!line.startsWith("\t")) {
+            userLine = lines.size();
+         } else if (lines.size() - userLine - 1 == maxLength) {
+            lines.remove(userLine + 1);
+         }
+         lines.add(line);
+      }
+      StringBuilder kept = new StringBuilder();
+      for (String line : lines) {
+         kept.append(kept.length() == 0 ? "" : "\n").append(line);
+      }
+      return kept.toString();
+   }
+
+   /*
+    * How much more heap the engine holds after the tweets are added, or while its first timeline is read if that
+    * is more.
+    */
+   private long heapGrowth(TimelineEngine engine, int tweets) {
+      long before = usedHeap();
+      for (int i = 0; i < tweets; i++) {
+         engine.addTweet(new UserTweetPair("user" + i % 50, "tweet " + i, i));
+      }
+      long written = usedHeap() - before;
+      Iterator<UserTweetPair> timeline = engine.getTimeline("user0").iterator();
+      timeline.next();
+      long reading = usedHeap() - before;
+      // Keeps the engine reachable until it has been measured
+      Assert.assertEquals(engine.getFanOutAppends(), tweets * 50L);
+      return Math.max(written, reading);
+   }
+
+   private long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 3; i++) {
+         System.gc();
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+
+   private Set<File> spillFiles() {
+      Set<File> files = new HashSet<>();
+      File[] listed = new File(Configuration.SPILL_DIRECTORY).listFiles();
+      if (listed != null) {
+         for (File file : listed) {
+            if (file.getName().endsWith(".spill")) {
+               files.add(file);
+            }
+         }
+      }
+      return files;
+   }
+}
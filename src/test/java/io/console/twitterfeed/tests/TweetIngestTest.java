@@ -0,0 +1,487 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.filereaders.TweetFileToTreeMapReader;
+import io.console.twitterfeed.filereaders.UnknownAuthorTweets;
+import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
+import io.console.twitterfeed.framework.FeedMetrics;
+import io.console.twitterfeed.framework.FeedMetrics.Counter;
+import io.console.twitterfeed.graph.KnownAuthorFilter;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+import io.console.twitterfeed.validation.LineValidator;
+import io.console.twitterfeed.validation.ValidationPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class TweetIngestTest {
+
+   File uTestFile;
+   File tTestFile;
+   File unknownAuthorLog;
+   List<File> shardFiles = new ArrayList<>();
+
+   @BeforeMethod
+   public void beforeMethod() {
+      uTestFile = new File("testIngestUserFile.txt");
+      tTestFile = new File("testIngestTweetFile.txt");
+      unknownAuthorLog = new File("testIngestUnknownAuthors.txt");
+      uTestFile.delete();
+      tTestFile.delete();
+      unknownAuthorLog.delete();
+   }
+
+   @AfterMethod
+   public void afterMethod() {
+      uTestFile.delete();
+      tTestFile.delete();
+      unknownAuthorLog.delete();
+      for (File shard : shardFiles) {
+         shard.delete();
+      }
+      shardFiles.clear();
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void parallelMatchesSerial(int threads, int chunkSize) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 50, 2000);
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      TweetFileToTreeMapReader serial =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      serial.doProcessing();
+
+      TweetFileToTreeMapReader parallel = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withParallelism(threads).withChunkSize(chunkSize);
+      parallel.doProcessing();
+
+      Assert.assertEquals(parallel.getPrintableOutput(), serial.getPrintableOutput());
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void concurrentFanOutMatchesSerial(int threads, int chunkSize) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 50, 2000);
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      for (int maxTimelineLength : new int[] { 0, 3 }) {
+         TweetFileToTreeMapReader serial = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withMaxTimelineLength(maxTimelineLength);
+         serial.doProcessing();
+
+         TweetFileToTreeMapReader concurrent = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withTimelineEngine(TimelineEngineType.CONCURRENT_FAN_OUT_ON_WRITE)
+               .withParallelism(threads).withChunkSize(chunkSize).withMaxTimelineLength(maxTimelineLength);
+         concurrent.doProcessing();
+
+         Assert.assertEquals(concurrent.getPrintableOutput(), serial.getPrintableOutput());
+         Assert.assertEquals(concurrent.getTimelines().getFanOutAppends(), serial.getTimelines().getFanOutAppends());
+      }
+   }
+
+   @Test(expectedExceptions = IllegalArgumentException.class)
+   public void parallelRejectsBadLines() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> fine\nWard> fine\nWard>\nAlan> fine\n");
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile).withParallelism(2)
+            .withChunkSize(4).doProcessing();
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void pipelinedUserFileMatchesSerial(int threads, int batchLines) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 300, 0);
+
+      UserFileToHashMapReader serial = new UserFileToHashMapReader().withUserFile(uTestFile);
+      serial.doProcessing();
+      UserFileToHashMapReader pipelined =
+            new UserFileToHashMapReader().withUserFile(uTestFile).withParallelism(threads).withBatchLines(batchLines);
+      pipelined.doProcessing();
+
+      // Same ids in the same order, not only the same edges
+      Assert.assertEquals(new ArrayList<>(pipelined.getFollowGraph().getUsers()),
+            new ArrayList<>(serial.getFollowGraph().getUsers()));
+      Assert.assertEquals(pipelined.getFollowGraph().getFollowerIds(), serial.getFollowGraph().getFollowerIds());
+      Assert.assertEquals(pipelined.getFollowedByMapSet(), serial.getFollowedByMapSet());
+   }
+
+   @Test
+   public void pipelinedUserFileReportsTheFirstBadLine() throws IOException, ValidationException {
+      StringBuilder userText = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+         userText.append(i == 700 ? "bad-700" : i == 900 ? "bad-900" : "user" + i).append(" follows Alan\n");
+      }
+      FeedFixtures.write(uTestFile, userText.toString());
+
+      try {
+         new UserFileToHashMapReader().withUserFile(uTestFile).withParallelism(4).withBatchLines(16).doProcessing();
+         Assert.fail("Expected the bad line to be rejected");
+      } catch (IllegalArgumentException e) {
+         Assert.assertTrue(e.getMessage().endsWith("name was: bad-700"), e.getMessage());
+      }
+   }
+
+   @Test(timeOut = 60000)
+   public void pipelinedUserFileRethrowsErrors() throws IOException, ValidationException {
+      StringBuilder userText = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+         userText.append("user").append(i).append(" follows Alan\n");
+      }
+      FeedFixtures.write(uTestFile, userText.toString());
+      LineValidator failing = new LineValidator(ValidationPolicy.FAIL_FAST, null) {
+         @Override
+         public boolean isValidName(String name) {
+            if (name.equals("user700")) {
+               throw new StackOverflowError("Parsing " + name);
+            }
+            return super.isValidName(name);
+         }
+      };
+
+      try {
+         new UserFileToHashMapReader().withUserFile(uTestFile).withParallelism(4).withBatchLines(16)
+               .withValidator(failing).doProcessing();
+         Assert.fail("Expected the error to reach the caller");
+      } catch (StackOverflowError e) {
+         Assert.assertEquals(e.getMessage(), "Parsing user700");
+      }
+   }
+
+   @Test
+   public void memoryMappedMatchesReader() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan, a\nAlan follows Martin");
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+
+      // Random lines around the separator, whitespace, control and non-ASCII characters, each checked on its own
+      Random random = new Random(7);
+      String alphabet = "aW1 >>  \t\u0003\u00e9\u20ac";
+      for (int i = 0; i < 500; i++) {
+         StringBuilder line = new StringBuilder(random.nextBoolean() ? "Alan> " : "");
+         for (int j = random.nextInt(12); j > 0; j--) {
+            line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+         }
+         FeedFixtures.write(tTestFile,
+               "Ward> before\n" + line + (random.nextBoolean() ? "\r\n" : "\n") + "Alan> after");
+
+         Assert.assertEquals(render(userReader, false), render(userReader, true), "Line: " + line);
+      }
+   }
+
+   @Test
+   public void appendedTweetsUpdateOnlyChangedTimelines() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile,
+            "Ward follows Alan\n" + "Alan follows Martin\n" + "Ward follows Martin, Alan\n" + "Zed follows Ward");
+      FeedFixtures.write(tTestFile, "Alan> one\n" + "Ward> two\n");
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tailed =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+
+      Assert.assertEquals(tailed.processAppendedTweets(),
+            new TreeSet<>(Arrays.asList("Alan", "Martin", "Ward", "Zed")));
+      Assert.assertEquals(tailed.processAppendedTweets(), new TreeSet<String>());
+
+      // The unfinished last line waits for its line end
+      FeedFixtures.append(tTestFile, "Ward> three\nMartin> fo");
+      Assert.assertEquals(tailed.processAppendedTweets(), new TreeSet<>(Arrays.asList("Ward", "Zed")));
+      FeedFixtures.append(tTestFile, "ur\n");
+      Assert.assertEquals(tailed.processAppendedTweets(), new TreeSet<>(Arrays.asList("Alan", "Martin", "Ward")));
+
+      TweetFileToTreeMapReader full =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      full.doProcessing();
+      Assert.assertEquals(tailed.getPrintableOutput(), full.getPrintableOutput());
+
+      // A truncated file is read again from the start
+      FeedFixtures.write(tTestFile, "Zed> five\n");
+      Assert.assertEquals(tailed.processAppendedTweets().size(), 4);
+      full.doProcessing();
+      Assert.assertEquals(tailed.getPrintableOutput(), full.getPrintableOutput());
+   }
+
+   @Test
+   public void linesBeforeABadAppendedLineAreAddedOnce() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\n" + "Alan follows Martin\n" + "Zed follows Ward");
+      FeedFixtures.write(tTestFile, "Alan> one\n");
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader tailed =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tailed.processAppendedTweets();
+
+      FeedFixtures.append(tTestFile, "Ward> two\n" + "Martin> three\n" + "no separator here\n");
+      try {
+         tailed.processAppendedTweets();
+         Assert.fail("Expected the bad line to be reported");
+      } catch (IllegalArgumentException e) {
+         // The lines before it are in the timelines already
+      }
+
+      // Once the bad line is fixed, only it and what follows are read
+      FeedFixtures.write(tTestFile,
+            "Alan> one\n" + "Ward> two\n" + "Martin> three\n" + "Alan> four\n" + "Ward> five\n");
+      Assert.assertEquals(tailed.processAppendedTweets(), new TreeSet<>(Arrays.asList("Alan", "Ward", "Zed")));
+
+      TweetFileToTreeMapReader full =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      full.doProcessing();
+      Assert.assertEquals(tailed.getPrintableOutput(), full.getPrintableOutput());
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void metricsCountTheSameOnEveryPath(int threads, int chunkSize) throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan\nAlan follows Martin");
+      FeedFixtures.write(tTestFile, "Alan> one\n\nWard> two\r\nMartin> three\n");
+
+      for (int path = 0; path < 3; path++) {
+         FeedMetrics metrics = new FeedMetrics();
+         UserFileToHashMapReader userReader =
+               new UserFileToHashMapReader().withUserFile(uTestFile).withMetrics(metrics);
+         userReader.doProcessing();
+         TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFile(tTestFile).withMemoryMappedInput(path == 1).withParallelism(path == 2 ? threads : 1)
+               .withChunkSize(chunkSize).withMetrics(metrics);
+         tweetReader.doProcessing();
+         tweetReader.getPrintableOutput();
+
+         Assert.assertEquals(metrics.get(Counter.USER_LINES), 2);
+         // Everyone follows themselves as well
+         Assert.assertEquals(metrics.get(Counter.FOLLOW_EDGES), 5);
+         Assert.assertEquals(metrics.get(Counter.TWEET_LINES), 4, "Path " + path);
+         Assert.assertEquals(metrics.get(Counter.TWEETS), 3, "Path " + path);
+         Assert.assertEquals(metrics.get(Counter.FAN_OUT_APPENDS), 5, "Path " + path);
+         Assert.assertTrue(metrics.get(FeedMetrics.Stage.RENDER) > 0);
+         Assert.assertTrue(metrics.getSummary().contains("\"tweets\":3"), metrics.getSummary());
+      }
+   }
+
+   @Test
+   public void metricsAddUpWhatEveryThreadRecorded() throws InterruptedException {
+      final FeedMetrics metrics = new FeedMetrics();
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+         Thread thread = new Thread() {
+            @Override
+            public void run() {
+               for (int i = 0; i < 10000; i++) {
+                  metrics.recordTweetLine(100);
+                  metrics.increment(Counter.TWEETS);
+               }
+            }
+         };
+         threads.add(thread);
+         thread.start();
+      }
+      metrics.add(Counter.TWEETS, 1);
+      for (Thread thread : threads) {
+         thread.join();
+      }
+
+      Assert.assertEquals(metrics.get(Counter.TWEET_LINES), 40000);
+      Assert.assertEquals(metrics.get(Counter.TWEETS), 40001);
+      // 100 ns falls in the [64, 128) bucket
+      Assert.assertEquals(metrics.getLineLatencyPercentiles().get("tweetLineP99_9"), Long.valueOf(127));
+      Assert.assertEquals(metrics.getLineLatencyPercentiles().get("userLineP50"), Long.valueOf(0));
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void targetReadersGetTheirFullTimelines(int threads, int chunkSize) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 50, 2000);
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader full = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withMaxTimelineLength(5);
+      full.doProcessing();
+      StringBuilder expected = new StringBuilder();
+      full.writeFeed(expected, Arrays.asList("user19", "user33", "user7"));
+
+      // Tweets none of the targets can see are skipped unparsed, even by unknown authors or with bad names
+      FeedFixtures.append(tTestFile, "Nobody> not in the graph\nbad-name> not valid\n");
+      List<String> targets = Arrays.asList("user7", "user19", "user33", "nobody");
+
+      for (TimelineEngineType engine : TimelineEngineType.values()) {
+         for (int path = 0; path < 3; path++) {
+            TweetFileToTreeMapReader targeted = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+                  .withTweetsFile(tTestFile).withTimelineEngine(engine).withMaxTimelineLength(5)
+                  .withMemoryMappedInput(path == 1).withParallelism(path == 2 ? threads : 1)
+                  .withChunkSize(chunkSize).withTargetReaders(targets);
+            targeted.doProcessing();
+
+            Assert.assertEquals(targeted.getPrintableOutput(), expected.toString(), engine + ", path " + path);
+            Assert.assertTrue(targeted.getTimelines().getFanOutAppends() < full.getTimelines().getFanOutAppends());
+         }
+      }
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void shardsMergeByTimestamp(int threads, int chunkSize) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 50, 2000);
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      String expected = render(userReader, false);
+
+      // Deal the lines out to shards at random, each keeping its lines in timestamp order
+      Random random = new Random(threads);
+      List<StringBuilder> shards = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+         shards.add(new StringBuilder());
+      }
+      StringBuilder stamped = new StringBuilder();
+      String[] lines = new String(Files.readAllBytes(tTestFile.toPath()), StandardCharsets.US_ASCII).split("\n");
+      for (int i = 0; i < lines.length; i++) {
+         String line = lines[i].trim().isEmpty() ? lines[i] : (1466598192000L + i * 7) + "\t" + lines[i];
+         shards.get(random.nextInt(threads)).append(line).append('\n');
+         stamped.append(line).append('\n');
+      }
+      FeedFixtures.write(tTestFile, stamped.toString());
+      for (int i = 0; i < threads; i++) {
+         shardFiles.add(new File("testIngestShard" + i + ".txt"));
+         FeedFixtures.write(shardFiles.get(i), shards.get(i).toString());
+      }
+
+      // A stamped file reads as it did without the column, on every path
+      Assert.assertEquals(render(userReader, false), expected);
+      Assert.assertEquals(render(userReader, true), expected);
+      TweetFileToTreeMapReader parallel = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withParallelism(threads).withChunkSize(chunkSize);
+      parallel.doProcessing();
+      Assert.assertEquals(parallel.getPrintableOutput(), expected);
+
+      for (TimelineEngineType engine : TimelineEngineType.values()) {
+         TweetFileToTreeMapReader sharded = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+               .withTweetsFiles(shardFiles).withTimelineEngine(engine);
+         sharded.doProcessing();
+         Assert.assertEquals(sharded.getPrintableOutput(), expected, engine.toString());
+      }
+   }
+
+   @Test
+   public void equalTimestampsTakeShardOrder() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan, Martin\n");
+      shardFiles.add(new File("testIngestShard0.txt"));
+      shardFiles.add(new File("testIngestShard1.txt"));
+      shardFiles.add(new File("testIngestShard2.txt"));
+      FeedFixtures.write(shardFiles.get(0), "5\tAlan> five\n9\tAlan> nine\n");
+      FeedFixtures.write(shardFiles.get(1), "1\tMartin> one\n5\tMartin> five too\n12\tMartin> twelve\n");
+      FeedFixtures.write(shardFiles.get(2), "");
+
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      TweetFileToTreeMapReader sharded = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFiles(shardFiles);
+      sharded.doProcessing();
+
+      String timeline = sharded.getPrintableOutput();
+      Assert.assertTrue(timeline.endsWith("Ward:\n\t@Martin: one\n\t@Alan: five\n\t@Martin: five too\n"
+            + "\t@Alan: nine\n\t@Martin: twelve"), timeline);
+   }
+
+   @Test(dataProvider = "parallelismProvider")
+   public void unknownAuthorsAreSkippedOnEveryPath(int threads, int chunkSize) throws IOException, ValidationException {
+      FeedFixtures.writeRandomFeed(uTestFile, tTestFile, 50, 2000);
+      UserFileToHashMapReader userReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userReader.doProcessing();
+      String expected = render(userReader, false);
+
+      KnownAuthorFilter knownAuthors = userReader.getKnownAuthors();
+      for (int i = 0; i < 50; i++) {
+         Assert.assertTrue(knownAuthors.contains("user" + i));
+      }
+      Assert.assertFalse(knownAuthors.contains("stranger"));
+
+      // Mix in tweets by authors missing from the user file, stamped or not, some after a leading separator
+      StringBuilder noisy = new StringBuilder();
+      StringBuilder unknown = new StringBuilder();
+      String[] lines = new String(Files.readAllBytes(tTestFile.toPath()), StandardCharsets.US_ASCII).split("\n");
+      for (int i = 0; i < lines.length; i++) {
+         noisy.append(lines[i]).append('\n');
+         if (i % 7 == 0) {
+            String line = (i % 3 == 0 ? i + "	" : "") + (i % 2 == 0 ? "> " : "") + "stranger" + i + "> hello " + i;
+            noisy.append(line).append('\n');
+            unknown.append(line).append(System.lineSeparator());
+         }
+      }
+      FeedFixtures.write(tTestFile, noisy.toString());
+      shardFiles.add(tTestFile);
+      shardFiles.add(new File("testIngestShard0.txt"));
+      FeedFixtures.write(shardFiles.get(1), "");
+      long unknownTweets = unknown.toString().split(System.lineSeparator()).length;
+
+      for (TimelineEngineType engine : TimelineEngineType.values()) {
+         for (int path = 0; path < 4; path++) {
+            FeedMetrics metrics = new FeedMetrics();
+            UnknownAuthorTweets unknownAuthors = new UnknownAuthorTweets(knownAuthors, unknownAuthorLog);
+            TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+                  .withTimelineEngine(engine).withMemoryMappedInput(path == 1)
+                  .withParallelism(path == 2 ? threads : 1).withChunkSize(chunkSize).withMetrics(metrics);
+            if (path == 3) {
+               tweetReader.withTweetsFiles(shardFiles);
+            } else {
+               tweetReader.withTweetsFile(tTestFile).withUnknownAuthors(unknownAuthors);
+            }
+            tweetReader.doProcessing();
+            unknownAuthors.close();
+
+            Assert.assertEquals(tweetReader.getPrintableOutput(), expected, engine + ", path " + path);
+            Assert.assertEquals(tweetReader.getUnknownAuthors().getSkippedTweets(), unknownTweets);
+            Assert.assertEquals(metrics.get(Counter.UNKNOWN_AUTHOR_TWEETS), unknownTweets);
+            if (path < 2) {
+               // Read serially, the log holds the lines in file order
+               Assert.assertEquals(new String(Files.readAllBytes(unknownAuthorLog.toPath()),
+                     StandardCharsets.US_ASCII), unknown.toString(), engine + ", path " + path);
+            }
+         }
+      }
+
+      // Appended tweets are skipped the same way
+      TweetFileToTreeMapReader tailed =
+            new TweetFileToTreeMapReader(userReader.getFollowGraph()).withTweetsFile(tTestFile);
+      tailed.processAppendedTweets();
+      FeedFixtures.append(tTestFile, "stranger> late\nuser1> on time\n");
+      Assert.assertTrue(tailed.processAppendedTweets().contains("user1"));
+      Assert.assertEquals(tailed.getUnknownAuthors().getSkippedTweets(), unknownTweets + 1);
+   }
+
+   @DataProvider(name = "parallelismProvider")
+   public Object[][] parallelismProvider() {
+      return new Object[][] { { 2, 1 }, { 4, 64 }, { 3, 1000 }, { 8, 1 << 20 } };
+   }
+
+   /*
+    * The feed, or the exception thrown while building it.
+    */
+   private String render(UserFileToHashMapReader userReader, boolean memoryMapped) throws IOException {
+      TweetFileToTreeMapReader tweetReader = new TweetFileToTreeMapReader(userReader.getFollowGraph())
+            .withTweetsFile(tTestFile).withMemoryMappedInput(memoryMapped);
+      try {
+         tweetReader.doProcessing();
+         return tweetReader.getPrintableOutput();
+      } catch (RuntimeException | ValidationException e) {
+         return e.toString();
+      }
+   }
+}
@@ -0,0 +1,198 @@
+package io.console.twitterfeed.tests;
+
+import io.console.twitterfeed.TwitterFeed;
+import io.console.twitterfeed.framework.Configuration;
+import io.console.twitterfeed.timelines.TimelineEngineType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.ValidationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TwitterFeedTest {
+
+   File uTestFile;
+   File tTestFile;
+   File snapshotFile;
+   File unknownAuthorLog;
+   File exceptionFile;
+   // A failed run appends to exception.txt, whose contents before the test are put back afterwards, null if none
+   byte[] exceptionLog;
+
+   // What the last run() printed to stderr
+   String errors;
+
+   @BeforeMethod
+   public void beforeMethod() throws IOException {
+      uTestFile = new File("testMainUserFile.txt");
+      tTestFile = new File("testMainTweetFile.txt");
+      snapshotFile = new File("testMainSnapshot.bin");
+      unknownAuthorLog = new File("testMainUnknownAuthors.txt");
+      exceptionFile = new File("exception.txt");
+      exceptionLog = exceptionFile.exists() ? Files.readAllBytes(exceptionFile.toPath()) : null;
+      deleteTestFiles();
+   }
+
+   @AfterMethod
+   public void afterMethod() throws IOException {
+      deleteTestFiles();
+      if (exceptionLog == null) {
+         exceptionFile.delete();
+      } else {
+         Files.write(exceptionFile.toPath(), exceptionLog);
+      }
+   }
+
+   private void deleteTestFiles() {
+      uTestFile.delete();
+      tTestFile.delete();
+      snapshotFile.delete();
+      unknownAuthorLog.delete();
+      new File(tTestFile.getPath() + ".rejected").delete();
+   }
+
+   @Test
+   public void snapshotIsNotReplayedUnderAnotherInvalidLinePolicy() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> one\nbad line\nAlan> two\n");
+
+      String skipped = run(uTestFile.getPath(), tTestFile.getPath(), "--invalid=skip",
+            "--snapshot=" + snapshotFile.getPath());
+      Assert.assertTrue(skipped.contains("@Alan: two"), skipped);
+      Assert.assertTrue(errors.contains("Skipped 1 invalid lines"), errors);
+      Assert.assertFalse(snapshotFile.exists());
+
+      // Failing on the bad line, as it would without a snapshot
+      String failed = run(uTestFile.getPath(), tTestFile.getPath(), "--snapshot=" + snapshotFile.getPath());
+      Assert.assertTrue(failed.startsWith("Error, see exception log"), failed);
+
+      // Rejected again, rather than printed from a snapshot of the skipping run
+      run(uTestFile.getPath(), tTestFile.getPath(), "--invalid=reject", "--snapshot=" + snapshotFile.getPath());
+      Assert.assertTrue(errors.contains("Rejected 1 invalid lines"), errors);
+      Assert.assertTrue(new File(tTestFile.getPath() + ".rejected").exists());
+   }
+
+   @Test
+   public void cleanInputsAreSnapshotted() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> one\nAlan> two\n");
+
+      String processed = run(uTestFile.getPath(), tTestFile.getPath(), "--snapshot=" + snapshotFile.getPath());
+      Assert.assertTrue(snapshotFile.exists());
+      Assert.assertEquals(run(uTestFile.getPath(), tTestFile.getPath(), "--invalid=reject",
+            "--snapshot=" + snapshotFile.getPath()), processed);
+   }
+
+   @Test
+   public void unknownAuthorsAreReportedOnEveryRun() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile, "Ward follows Alan");
+      FeedFixtures.write(tTestFile, "Alan> one\nNobody> two\n");
+
+      for (int i = 0; i < 2; i++) {
+         unknownAuthorLog.delete();
+         String feed = run(uTestFile.getPath(), tTestFile.getPath(), "--snapshot=" + snapshotFile.getPath(),
+               "--unknown-authors=" + unknownAuthorLog.getPath());
+         Assert.assertTrue(feed.contains("@Alan: one"), feed);
+         Assert.assertTrue(errors.contains("Skipped 1 tweets by unknown authors"), errors);
+         Assert.assertTrue(unknownAuthorLog.exists(), "Run " + i);
+         Assert.assertFalse(snapshotFile.exists());
+      }
+   }
+
+   @Test
+   public void givenHotAuthorThresholdIsKeptWithGraphStats() throws IOException, ValidationException {
+      // The celebrity is hot by any threshold, the local author only by a low one
+      StringBuilder users = new StringBuilder();
+      for (int i = 0; i < 200; i++) {
+         users.append("user").append(i).append(" follows celebrity").append(i < 10 ? ", local\n" : "\n");
+      }
+      FeedFixtures.write(uTestFile, users.toString());
+      FeedFixtures.write(tTestFile, "celebrity> one\nlocal> two\nlocal> three\n");
+
+      String[] files = { uTestFile.getPath(), tTestFile.getPath() };
+      long given = fanOutAppends(run(files[0], files[1], "--metrics", "--hot-authors=5"));
+      long givenWithStats = fanOutAppends(run(files[0], files[1], "--metrics", "--graph-stats", "--hot-authors=5"));
+      long suggested = fanOutAppends(run(files[0], files[1], "--metrics", "--graph-stats", "--hot-authors"));
+
+      Assert.assertEquals(givenWithStats, given);
+      // Only the celebrity reaches the suggested threshold, so the local author is fanned out on write
+      Assert.assertEquals(given, 3);
+      Assert.assertEquals(suggested, 1 + 2 * 11);
+   }
+
+   @Test
+   public void everyEngineCanBeChosen() throws IOException, ValidationException {
+      FeedFixtures.write(uTestFile,
+            "Ward follows Alan\nAlan follows Martin\nWard follows Martin, Alan\nJorgen follows Ward");
+      FeedFixtures.write(tTestFile, "Alan> one\nWard> two\nMartin> three\nAlan> four\n");
+      String expected = run(uTestFile.getPath(), tTestFile.getPath());
+      Assert.assertTrue(expected.contains("@Alan: four"), expected);
+
+      for (TimelineEngineType type : TimelineEngineType.values()) {
+         String engine = type.name().toLowerCase(Locale.ROOT).replace('_', '-');
+         List<String> before = spillFiles();
+         Assert.assertEquals(run(uTestFile.getPath(), tTestFile.getPath(), "--engine=" + engine), expected, engine);
+         // A spilling engine is closed once the feed is written
+         Assert.assertEquals(spillFiles(), before, engine);
+      }
+
+      String unknown = run(uTestFile.getPath(), tTestFile.getPath(), "--engine=fan-out-on-lunch");
+      Assert.assertTrue(unknown.contains("Expected --engine=fan-out-on-write, "), unknown);
+      String conflicting = run(uTestFile.getPath(), tTestFile.getPath(), "--engine=compact-fan-out-on-write",
+            "--hot-authors=2");
+      Assert.assertTrue(conflicting.contains("--hot-authors needs --engine=hybrid"), conflicting);
+   }
+
+   private List<String> spillFiles() {
+      List<String> spillFiles = new ArrayList<>();
+      for (String name : new File(Configuration.SPILL_DIRECTORY).list()) {
+         if (name.endsWith(".spill")) {
+            spillFiles.add(name);
+         }
+      }
+      return spillFiles;
+   }
+
+   /*
+    * The fan-out appends counted by the last run's --metrics summary.
+    */
+   private long fanOutAppends(String feed) {
+      Matcher matcher = Pattern.compile("\"fanOutAppends\":(\\d+)").matcher(errors);
+      Assert.assertTrue(matcher.find(), errors + feed);
+      return Long.parseLong(matcher.group(1));
+   }
+
+   /*
+    * Runs the command line, returning what it printed to stdout and keeping what it printed to stderr in errors.
+    */
+   private String run(String... args) throws IOException, ValidationException {
+      PrintStream out = System.out;
+      PrintStream err = System.err;
+      ByteArrayOutputStream printed = new ByteArrayOutputStream();
+      ByteArrayOutputStream printedErrors = new ByteArrayOutputStream();
+      try {
+         System.setOut(new PrintStream(printed, true));
+         System.setErr(new PrintStream(printedErrors, true));
+         TwitterFeed.main(args);
+      } finally {
+         System.setOut(out);
+         System.setErr(err);
+      }
+      errors = new String(printedErrors.toByteArray(), Charset.defaultCharset());
+      return new String(printed.toByteArray(), Charset.defaultCharset());
+   }
+}
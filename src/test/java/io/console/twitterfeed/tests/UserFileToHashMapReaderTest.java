@@ -6,6 +6,7 @@ import io.console.twitterfeed.filereaders.UserFileToHashMapReader;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -117,6 +118,33 @@ public class UserFileToHashMapReaderTest {
       Assert.assertEquals(tweetFileToTreeMapReader.getPrintableOutput(), expectedOutput);
    }
 
+   @Test(dataProvider = "tweetsProvider")
+   public void streamedTweetsOutputTests(String userFileText, String tweetsFileText, String expectedOutput)
+         throws IOException, ValidationException {
+      FileWriter uFileWriter = new FileWriter(uTestFile);
+      FileWriter tFileWriter = new FileWriter(tTestFile);
+
+      uFileWriter.write(userFileText);
+      uFileWriter.flush();
+      uFileWriter.close();
+
+      tFileWriter.write(tweetsFileText);
+      tFileWriter.flush();
+      tFileWriter.close();
+
+      UserFileToHashMapReader userFileToHashMapReader = new UserFileToHashMapReader().withUserFile(uTestFile);
+      userFileToHashMapReader.doProcessing();
+
+      TweetFileToTreeMapReader tweetFileToTreeMapReader =
+            new TweetFileToTreeMapReader(userFileToHashMapReader.getFollowedByMapSet()).withTweetsFile(tTestFile);
+      tweetFileToTreeMapReader.doProcessing();
+
+      StringWriter writer = new StringWriter();
+      tweetFileToTreeMapReader.writeFeed(writer);
+
+      Assert.assertEquals(writer.toString(), expectedOutput);
+   }
+
    @Test(dataProvider = "badTweetsProvider", expectedExceptions = IllegalArgumentException.class)
    public void badTweetsTest(String userFileText, String tweetsFileText, String expectedOutput)
          throws IOException, ValidationException {